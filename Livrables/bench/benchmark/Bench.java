@@ -0,0 +1,123 @@
+package benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Minimal micro-benchmark harness used by the classes of this package.
+ * Runs a warm-up phase, then a measured phase, and reports throughput,
+ * latency, bytes allocated per operation (current thread only) and the GC
+ * activity of the measured phase. Results can also be written as CSV lines.
+ */
+public final class Bench {
+
+    private Bench() {
+    }
+
+    /**
+     * Runs an operation a fixed number of times and measures it.
+     *
+     * @param name the label printed with the result
+     * @param warmupOps the number of unmeasured warm-up calls
+     * @param measuredOps the number of measured calls
+     * @param op the operation to benchmark
+     * @return the measurement
+     */
+    public static Result run(String name, int warmupOps, int measuredOps, Runnable op) {
+        for (int i = 0; i < warmupOps; i++) {
+            op.run();
+        }
+        long[] gcBefore = gcCountAndMillis();
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < measuredOps; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocAfter = allocatedBytes();
+        long[] gcAfter = gcCountAndMillis();
+        long allocated = allocBefore < 0 || allocAfter < 0 ? -1 : allocAfter - allocBefore;
+        return new Result(name, measuredOps, elapsed, allocated, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    /**
+     * Returns the total number of collections and the total collection time (ms) of all collectors.
+     */
+    private static long[] gcCountAndMillis() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or -1 when the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Result of one benchmark run.
+     */
+    public static final class Result {
+        public final String name;
+        public final long ops;
+        public final long elapsedNanos;
+        public final long allocatedBytes;
+        public final long gcCount;
+        public final long gcMillis;
+
+        public Result(String name, long ops, long elapsedNanos, long allocatedBytes, long gcCount, long gcMillis) {
+            this.name = name;
+            this.ops = ops;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        public double opsPerSecond() {
+            return ops * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        public double microsPerOp() {
+            return elapsedNanos / 1_000.0 / ops;
+        }
+
+        public double bytesPerOp() {
+            return allocatedBytes < 0 ? -1 : (double) allocatedBytes / ops;
+        }
+
+        /**
+         * @return the column names matching {@link #toCsv()}
+         */
+        public static String csvHeader() {
+            return "name,ops,ops_per_s,us_per_op,alloc_bytes_per_op,gc_count,gc_ms";
+        }
+
+        /**
+         * @return the result as one CSV line (name quoted, numbers with '.' decimals)
+         */
+        public String toCsv() {
+            return String.format(java.util.Locale.ROOT, "\"%s\",%d,%.3f,%.3f,%.1f,%d,%d",
+                    name.replace("\"", "\"\""), ops, opsPerSecond(), microsPerOp(), bytesPerOp(), gcCount, gcMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %12.1f ops/s %12.2f us/op %14.1f B/op %4d gc",
+                    name, opsPerSecond(), microsPerOp(), bytesPerOp(), gcCount);
+        }
+    }
+}
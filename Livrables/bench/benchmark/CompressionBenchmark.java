@@ -0,0 +1,80 @@
+package benchmark;
+
+import infrastructures.security.CryptoService;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Disk bytes and end-to-end latency (encrypt, write, read, decrypt) of the write path
+ * with and without compress-then-encrypt, on log-like text and on random data.
+ * Usage : CompressionBenchmark [size in KiB, default 1024] [operations, default 200]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeKb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int warmup = Math.max(1, ops / 10);
+
+        CryptoService crypto = new CryptoService();
+        SecretKey key = crypto.generateDataKey();
+        Path file = Files.createTempFile("sfm-compression", ".bin");
+        try {
+            byte[] text = logText(sizeKb * 1024);
+            byte[] random = new byte[sizeKb * 1024];
+            new Random(42).nextBytes(random);
+
+            for (String kind : new String[] {"text", "random"}) {
+                byte[] payload = kind.equals("text") ? text : random;
+                for (boolean compress : new boolean[] {false, true}) {
+                    String label = kind + " " + sizeKb + " KiB " + (compress ? "deflate" : "none");
+                    int stored = crypto.encryptBytes(payload, key, compress).length;
+                    Bench.Result result = Bench.run(label, warmup, ops, () -> roundTrip(crypto, key, payload, file, compress));
+                    System.out.println(result + String.format("   disk=%d B (%.1f%%)", stored, 100.0 * stored / payload.length));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void roundTrip(CryptoService crypto, SecretKey key, byte[] payload, Path file, boolean compress) {
+        try {
+            Files.write(file, crypto.encryptBytes(payload, key, compress));
+            byte[] plain = crypto.decryptBytes(Files.readAllBytes(file), key);
+            if (plain.length != payload.length) {
+                throw new IllegalStateException("round trip mismatch");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * CSV-like log lines: timestamps, levels, repeated keys and some varying numbers.
+     */
+    private static byte[] logText(int size) {
+        String[] levels = {"INFO", "WARN", "DEBUG", "ERROR"};
+        String[] actions = {"READ", "UPDATE", "CREATE", "DELETE", "LIST_FILES"};
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(size + 128);
+        long timestamp = 1_700_000_000_000L;
+        while (sb.length() < size) {
+            timestamp += random.nextInt(5000);
+            sb.append(timestamp).append(';')
+                    .append(levels[random.nextInt(levels.length)]).append(';')
+                    .append("user").append(random.nextInt(20)).append(';')
+                    .append(actions[random.nextInt(actions.length)]).append(";/docs/report_")
+                    .append(random.nextInt(500)).append(".csv;")
+                    .append(random.nextInt(100_000)).append('\n');
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+}
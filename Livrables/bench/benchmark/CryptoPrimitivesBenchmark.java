@@ -0,0 +1,64 @@
+package benchmark;
+
+import infrastructures.security.CryptoPrimitives;
+import infrastructures.security.CryptoService;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * ops/s and bytes allocated per operation of the crypto primitives,
+ * created per call ("getInstance") versus reused per thread (CryptoPrimitives).
+ * Usage : CryptoPrimitivesBenchmark [operations, default 200000] [payload bytes, default 1024]
+ */
+public class CryptoPrimitivesBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        int warmup = Math.max(1, ops / 10);
+
+        byte[] payload = new byte[payloadSize];
+        new SecureRandom().nextBytes(payload);
+        SecretKey key = CryptoService.convertStringToSecretKey(new CryptoService().generateKey("benchmark")[0]);
+
+        System.out.println(Bench.run("nonce: new SecureRandom()", warmup, ops, () -> {
+            byte[] nonce = new byte[12];
+            new SecureRandom().nextBytes(nonce);
+        }));
+        System.out.println(Bench.run("nonce: CryptoService.getRandomNonce", warmup, ops, () ->
+                CryptoService.getRandomNonce(12)));
+
+        System.out.println(Bench.run("gcm encrypt: Cipher.getInstance", warmup, ops, () -> {
+            try {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, CryptoService.getRandomNonce(12)));
+                cipher.doFinal(payload);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        System.out.println(Bench.run("gcm encrypt: thread-local Cipher", warmup, ops, () -> {
+            try {
+                Cipher cipher = CryptoPrimitives.cipher("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, CryptoService.getRandomNonce(12)));
+                cipher.doFinal(payload);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+
+        System.out.println(Bench.run("sha256: MessageDigest.getInstance", warmup, ops, () -> {
+            try {
+                MessageDigest.getInstance("SHA-256").digest(payload);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        System.out.println(Bench.run("sha256: thread-local MessageDigest", warmup, ops, () ->
+                CryptoPrimitives.digest("SHA-256").digest(payload)));
+    }
+}
@@ -0,0 +1,78 @@
+package benchmark;
+
+import infrastructures.security.HashService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * HashService.sha256(Path) and toHex before / after streaming:
+ * "readAllBytes" reproduces the former implementation (whole file on the heap, String.format per byte),
+ * "streaming" is the current one (FileChannel into a reused direct buffer, table-based hex).
+ * Usage : HashBenchmark [max size in MiB, default 256]
+ */
+public class HashBenchmark {
+    private static final long BYTES_PER_RUN = 256L << 20;
+
+    public static void main(String[] args) throws Exception {
+        long maxSize = (args.length > 0 ? Long.parseLong(args[0]) : 256) << 20;
+        HashService hashService = new HashService();
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(new byte[1]);
+
+        System.out.println(Bench.run("toHex String.format", 10_000, 200_000, () -> formatHex(hash)));
+        System.out.println(Bench.run("toHex table", 10_000, 200_000, () -> HashService.toHex(hash)));
+
+        Path file = Files.createTempFile("sfm-hash", ".bin");
+        try {
+            for (long size = 64L << 10; size <= maxSize; size *= 16) {
+                writeRandom(file, size);
+                int ops = (int) Math.max(3, Math.min(2_000, BYTES_PER_RUN / size));
+                String label = " " + (size >= 1L << 20 ? (size >> 20) + " MiB" : (size >> 10) + " KiB");
+                check(readAllBytesSha256(file).equals(hashService.sha256(file)));
+                System.out.println(Bench.run("readAllBytes" + label, Math.max(1, ops / 5), ops, () -> readAllBytesSha256(file)));
+                System.out.println(Bench.run("streaming" + label, Math.max(1, ops / 5), ops, () -> hashService.sha256(file)));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String readAllBytesSha256(Path file) {
+        try {
+            return formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String formatHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void writeRandom(Path file, long size) throws IOException {
+        byte[] block = new byte[1 << 20];
+        new Random(9).nextBytes(block);
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("hash mismatch");
+        }
+    }
+}
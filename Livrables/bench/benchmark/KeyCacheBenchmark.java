@@ -0,0 +1,40 @@
+package benchmark;
+
+import infrastructures.security.CryptoService;
+import infrastructures.security.DerivedKeyCache;
+
+/**
+ * Repeated-read latency of one encrypted file, with and without the derived-key cache.
+ * "uncached" reproduces the previous readFile path (PBKDF2 on every read),
+ * "cached" goes through DerivedKeyCache like FileService.readFile does now.
+ * Run from the Livrables directory so that .env is found.
+ */
+public class KeyCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int reads = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        CryptoService cryptoService = new CryptoService();
+        String userHashedPassword = CryptoService.hashPassword("benchmark", CryptoService.generateSalt());
+        String[] keyAndSalt = cryptoService.generateKey(userHashedPassword);
+        String salt = keyAndSalt[1];
+        String cipherText = cryptoService.encryptText("contenu de reference pour le benchmark", keyAndSalt[0]);
+
+        Bench.Result uncached = Bench.run("readFile key path (uncached)", 5, reads, () -> {
+            String key = cryptoService.generateKey(userHashedPassword, salt)[0];
+            cryptoService.decryptText(cipherText, key);
+        });
+
+        DerivedKeyCache cache = new DerivedKeyCache(256, 15 * 60 * 1000L);
+        Bench.Result cached = Bench.run("readFile key path (cached)", 5, reads, () -> {
+            String key = CryptoService.convertSecretKeyToString(
+                    cache.getOrDerive("bench", salt, () -> cryptoService.deriveKey(userHashedPassword, salt)));
+            cryptoService.decryptText(cipherText, key);
+        });
+
+        System.out.println(uncached);
+        System.out.println(cached);
+        System.out.printf("speed-up: x%.1f%n", uncached.microsPerOp() / cached.microsPerOp());
+        System.out.println("cache: " + cache.stats());
+    }
+}
@@ -0,0 +1,76 @@
+package benchmark;
+
+import infrastructures.security.CryptoService;
+import infrastructures.security.MappedFileCache;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Repeated reads of one large segmented file, the read-mostly case of FileService.readFile:
+ * "readAllBytes path" loads the whole ciphertext then decrypts it (the path before mappings),
+ * "mapped path" goes through CryptoService.decryptFile, which decrypts from a mapping reused across reads.
+ * Also runs the mapped path on a file below {@link MappedFileCache#MIN_MAPPED_SIZE}, which falls back to a FileChannel.
+ * Usage : MappedReadBenchmark [size in MiB, default 64] [operations, default 20]
+ */
+public class MappedReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        CryptoService crypto = new CryptoService();
+        SecretKey key = crypto.generateDataKey();
+        Path large = Files.createTempFile("sfm-mapped", ".enc");
+        Path small = Files.createTempFile("sfm-mapped-small", ".enc");
+        try {
+            byte[] payload = new byte[sizeMb << 20];
+            new Random(5).nextBytes(payload);
+            encrypt(crypto, key, payload, large);
+            byte[] smallPayload = Arrays.copyOf(payload, 256 << 10);
+            encrypt(crypto, key, smallPayload, small);
+
+            System.out.println(Bench.run("readAllBytes path " + sizeMb + " MiB", 2, ops, () -> {
+                try {
+                    check(crypto.decryptBytes(Files.readAllBytes(large), key).length == payload.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            System.out.println(Bench.run("mapped path " + sizeMb + " MiB", 2, ops,
+                    () -> check(crypto.decryptFile(large, key).length == payload.length)));
+            System.out.println(Bench.run("fallback path 256 KiB", 20, ops * 20,
+                    () -> check(crypto.decryptFile(small, key).length == smallPayload.length)));
+            System.out.println(MappedFileCache.getInstance().stats());
+        } finally {
+            MappedFileCache.getInstance().clear();
+            Files.deleteIfExists(large);
+            Files.deleteIfExists(small);
+        }
+    }
+
+    private static void encrypt(CryptoService crypto, SecretKey key, byte[] payload, Path target) throws IOException {
+        Path plain = Files.createTempFile("sfm-mapped", ".txt");
+        try {
+            Files.write(plain, payload);
+            try (FileChannel in = FileChannel.open(plain, StandardOpenOption.READ)) {
+                crypto.encryptChannel(in, target, key);
+            }
+        } finally {
+            Files.deleteIfExists(plain);
+        }
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("round trip mismatch");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package benchmark;
+
+import infrastructures.security.CryptoService;
+import infrastructures.security.ParallelSegmentCipher;
+import infrastructures.security.StreamingAead;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Throughput of segmented AES-GCM encryption and decryption from 1 to N worker threads.
+ * Usage : ParallelCryptoBenchmark [size in MB, default 2048] [max threads, default all cores]
+ * The single-threaded StreamingAead is measured first as the baseline.
+ */
+public class ParallelCryptoBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long sizeMb = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Path dir = Files.createTempDirectory("sfm-parallel-bench");
+        Path plain = dir.resolve("plain.bin");
+        Path encrypted = dir.resolve("plain.bin.encrypted");
+        Path decrypted = dir.resolve("plain.bin.decrypted");
+        SecretKey key = CryptoService.convertStringToSecretKey(new CryptoService().generateKey("benchmark")[0]);
+        try {
+            writeRandomFile(plain, sizeMb * 1024 * 1024);
+            long bytes = Files.size(plain);
+            System.out.printf("file: %d MB, cores: %d%n", sizeMb, Runtime.getRuntime().availableProcessors());
+
+            StreamingAead sequential = new StreamingAead(StreamingAead.DEFAULT_SEGMENT_SIZE);
+            long start = System.nanoTime();
+            try (FileChannel in = FileChannel.open(plain, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(encrypted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                sequential.encrypt(key, in, out);
+            }
+            report("StreamingAead (sequential) encrypt", bytes, System.nanoTime() - start);
+
+            for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : maxThreads + 1) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    ParallelSegmentCipher engine = new ParallelSegmentCipher(StreamingAead.DEFAULT_SEGMENT_SIZE, pool);
+                    start = System.nanoTime();
+                    engine.encryptFile(plain, encrypted, key);
+                    report("parallel encrypt, " + threads + " thread(s)", bytes, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    engine.decryptFile(encrypted, decrypted, key);
+                    report("parallel decrypt, " + threads + " thread(s)", bytes, System.nanoTime() - start);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(plain);
+            Files.deleteIfExists(encrypted);
+            Files.deleteIfExists(decrypted);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void writeRandomFile(Path path, long size) throws IOException {
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static void report(String label, long bytes, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("%-40s %8.2f s %10.1f MB/s%n", label, seconds, bytes / 1024.0 / 1024.0 / seconds);
+    }
+}
@@ -0,0 +1,140 @@
+package benchmark;
+
+import infrastructures.security.CryptoService;
+import infrastructures.security.HashService;
+import infrastructures.security.IntegrityStore;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Baseline of the security package: CryptoService.encryptText / decryptText / generateKey,
+ * HashService.sha256 (bytes and file) over payload sizes from 1 KiB up to the given maximum,
+ * and IntegrityStore.appendEntry / loadLastEntry over history lengths from 1 entry up to the given maximum.
+ * Every result is printed and written as CSV (see {@link Bench.Result#toCsv()}).
+ *
+ * Usage : SecurityBenchmark [max size in MiB, default 16] [max history, default 100000] [csv file, default bench-results.csv]
+ * Sizes up to 1024 MiB need a large heap, e.g. java -Xmx8g.
+ */
+public class SecurityBenchmark {
+    private static final long[] SIZES = {1L << 10, 64L << 10, 1L << 20, 16L << 20, 256L << 20, 1L << 30};
+    private static final int[] HISTORIES = {1, 10, 100, 1_000, 10_000, 100_000};
+    private static final long BYTES_PER_RUN = 64L << 20;
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    public static void main(String[] args) throws Exception {
+        long maxSize = (args.length > 0 ? Long.parseLong(args[0]) : 16) << 20;
+        int maxHistory = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        Path csv = Paths.get(args.length > 2 ? args[2] : "bench-results.csv");
+
+        List<Bench.Result> results = new ArrayList<>();
+        Path workDir = Files.createTempDirectory("sfm-bench");
+        try {
+            CryptoService crypto = new CryptoService();
+            HashService hashService = new HashService();
+            String key = crypto.generateKey("benchmark")[0];
+
+            results.add(print(Bench.run("generateKey", 5, 50, () -> crypto.generateKey("benchmark"))));
+
+            for (long size : SIZES) {
+                if (size > maxSize) {
+                    break;
+                }
+                int ops = opsFor(size);
+                int warmup = Math.max(1, ops / 5);
+                String label = " size=" + formatSize(size);
+                byte[] payload = asciiPayload((int) size);
+                String text = new String(payload, StandardCharsets.US_ASCII);
+
+                results.add(print(Bench.run("encryptText" + label, warmup, ops, () -> crypto.encryptText(text, key))));
+                String cipherText = crypto.encryptText(text, key);
+                results.add(print(Bench.run("decryptText" + label, warmup, ops, () -> crypto.decryptText(cipherText, key))));
+
+                results.add(print(Bench.run("sha256(byte[])" + label, warmup, ops, () -> hashService.sha256(payload))));
+                Path file = workDir.resolve("payload.bin");
+                Files.write(file, payload);
+                results.add(print(Bench.run("sha256(Path)" + label, warmup, ops, () -> hashService.sha256(file))));
+                Files.delete(file);
+            }
+
+            Path root = Files.createDirectories(workDir.resolve("root"));
+            IntegrityStore store = new IntegrityStore(root);
+            for (int history : HISTORIES) {
+                if (history > maxHistory) {
+                    break;
+                }
+                Path file = root.resolve("history-" + history + ".txt");
+                seedHistory(store, file, history);
+                String label = " history=" + history;
+                results.add(print(Bench.run("loadLastEntry" + label, 20, 200, () -> store.loadLastEntry(file))));
+                int appends = history >= 10_000 ? 20 : 200;
+                results.add(print(Bench.run("appendEntry" + label, 5, appends, () -> store.appendEntry(file, HASH, 1024))));
+            }
+        } finally {
+            deleteRecursively(workDir);
+        }
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv, StandardCharsets.UTF_8))) {
+            out.println(Bench.Result.csvHeader());
+            results.forEach(r -> out.println(r.toCsv()));
+        }
+        System.out.println("Résultats écrits dans " + csv.toAbsolutePath());
+    }
+
+    /**
+     * Builds an integrity history of the given length through appendEntry, one log record per entry.
+     */
+    private static void seedHistory(IntegrityStore store, Path file, int entries) {
+        for (int i = 0; i < entries; i++) {
+            store.appendEntry(file, HASH, 1024);
+        }
+    }
+
+    private static int opsFor(long size) {
+        return (int) Math.max(3, Math.min(2_000, BYTES_PER_RUN / size));
+    }
+
+    private static byte[] asciiPayload(int size) {
+        byte[] payload = new byte[size];
+        Random random = new Random(1);
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) (' ' + random.nextInt(95));
+        }
+        return payload;
+    }
+
+    private static String formatSize(long size) {
+        if (size >= 1L << 30) return (size >> 30) + "GB";
+        if (size >= 1L << 20) return (size >> 20) + "MB";
+        return (size >> 10) + "KB";
+    }
+
+    private static Bench.Result print(Bench.Result result) {
+        System.out.println(result);
+        return result;
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.delete(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Nettoyage incomplet de " + dir + " : " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package benchmark;
+
+import infrastructures.security.ChunkedHash;
+import infrastructures.security.HashService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Hash of a multi-GB file: plain SHA-256 (HashService.sha256, one sequential pass) against the chunked
+ * tree hash (ChunkedHash.compute, chunks hashed in parallel on the common ForkJoin pool), and the
+ * re-hash of the tree after one chunk was rewritten in place (ChunkedHash.rehash, only that chunk read).
+ * The parallel speed-up depends on the number of cores: run it with -Djava.util.concurrent.ForkJoinPool.common.parallelism=N to compare.
+ * Usage : TreeHashBenchmark [size in GiB, default 2] [chunk size in MiB, default 4]
+ */
+public class TreeHashBenchmark {
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 2) << 30;
+        int chunkSize = (args.length > 1 ? Integer.parseInt(args[1]) : 4) << 20;
+        HashService hashService = new HashService();
+        System.out.println("cores=" + Runtime.getRuntime().availableProcessors() + " size=" + (size >> 20) + " MiB chunk=" + (chunkSize >> 20) + " MiB");
+
+        Path file = Files.createTempFile("sfm-tree", ".bin");
+        try {
+            writeRandom(file, size);
+            System.out.println(Bench.run("sha256 (plain)", 1, 3, () -> hashService.sha256(file)));
+            System.out.println(Bench.run("tree hash (parallel)", 1, 3, () -> ChunkedHash.compute(file, chunkSize)));
+
+            ChunkedHash before = ChunkedHash.compute(file, chunkSize);
+            int dirty = before.getChunkCount() / 2;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{42}), (long) dirty * chunkSize + 17);
+            }
+            BitSet dirtyChunks = new BitSet();
+            dirtyChunks.set(dirty);
+            ChunkedHash after = ChunkedHash.rehash(file, before, dirtyChunks);
+            if (!after.toEntryHash().equals(ChunkedHash.compute(file, chunkSize).toEntryHash())
+                    || !after.changedChunks(before).equals(dirtyChunks)) {
+                throw new IllegalStateException("incremental tree hash differs from a full one");
+            }
+            System.out.println(Bench.run("tree rehash (1 dirty chunk)", 2, 20, () -> ChunkedHash.rehash(file, before, dirtyChunks)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void writeRandom(Path file, long size) throws IOException {
+        byte[] block = new byte[4 << 20];
+        new Random(11).nextBytes(block);
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                block[0]++;
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package benchmark;
+
+import infrastructures.security.CryptoService;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Allocation and GC of a full write + read of one large file:
+ * "string path" reproduces FileService.updateFile / readFile (String -> getBytes -> encryptBytes -> Files.write,
+ * then Files.readAllBytes -> decryptBytes -> new String), "channel path" goes through
+ * CryptoService.encryptChannel / decryptChannel (FileChannel + direct buffers) like import / export.
+ * Usage : ZeroCopyBenchmark [size in MiB, default 100] [operations, default 5]
+ * The string path needs a heap of about 8 times the file size, e.g. java -Xmx2g for 100 MiB.
+ */
+public class ZeroCopyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        CryptoService crypto = new CryptoService();
+        SecretKey key = crypto.generateDataKey();
+        Path plainFile = Files.createTempFile("sfm-zerocopy", ".txt");
+        Path encryptedFile = Files.createTempFile("sfm-zerocopy", ".enc");
+        Path exportedFile = Files.createTempFile("sfm-zerocopy", ".out");
+        try {
+            writeText(plainFile, sizeMb * 1024L * 1024L);
+            String content = Files.readString(plainFile, StandardCharsets.US_ASCII);
+
+            System.out.println(Bench.run("string path " + sizeMb + " MiB", 1, ops, () -> {
+                try {
+                    Files.write(encryptedFile, crypto.encryptBytes(content.getBytes(StandardCharsets.UTF_8), key));
+                    String read = new String(crypto.decryptBytes(Files.readAllBytes(encryptedFile), key), StandardCharsets.UTF_8);
+                    check(read.length() == content.length());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+
+            System.out.println(Bench.run("channel path " + sizeMb + " MiB", 1, ops, () -> {
+                try (FileChannel in = FileChannel.open(plainFile, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(exportedFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    crypto.encryptChannel(in, encryptedFile, key);
+                    check(crypto.decryptChannel(encryptedFile, out, key) == in.size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } finally {
+            Files.deleteIfExists(plainFile);
+            Files.deleteIfExists(encryptedFile);
+            Files.deleteIfExists(exportedFile);
+        }
+    }
+
+    private static void writeText(Path file, long size) throws IOException {
+        Random random = new Random(3);
+        byte[] line = new byte[100];
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += line.length) {
+                for (int i = 0; i < line.length - 1; i++) {
+                    line[i] = (byte) ('a' + random.nextInt(26));
+                }
+                line[line.length - 1] = '\n';
+                out.write(line, 0, (int) Math.min(line.length, size - written));
+            }
+        }
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("round trip mismatch");
+        }
+    }
+}
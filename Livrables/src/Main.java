@@ -1,4 +1,6 @@
 import cli.CommandLineInterface;
+import domain.exception.CryptoException;
+import infrastructures.security.KdfCalibrator;
 
 /**
  * Entry point of the Secure File Manager application.
@@ -11,6 +13,12 @@ public class Main {
      * @param args command line arguments (not used)
      */
     public static void main(String[] args) {
+        // calibrate the key derivation cost before the first login needs it
+        try {
+            KdfCalibrator.getInstance();
+        } catch (CryptoException e) {
+            System.err.println("Calibration KDF impossible : " + e.getMessage());
+        }
         CommandLineInterface cli = new CommandLineInterface();
         cli.start();
     }
@@ -1,16 +1,38 @@
 package application;
 import domain.repository.FileRepository;
+import infrastructures.filesystem.IoThrottle;
 import infrastructures.filesystem.LocalFileRepository;
 import infrastructures.security.HashService;
+import infrastructures.security.IntegrityMerkleTree;
 import infrastructures.security.IntegrityStore;
 import domain.exception.*;
 import java.nio.file.Path;
 import infrastructures.database.Journalisation;
 import java.sql.SQLException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.nio.charset.StandardCharsets;
+import javax.crypto.SecretKey;
+import infrastructures.security.CipherContainer;
+import infrastructures.security.CryptoConfig;
 import infrastructures.security.CryptoService;
+import infrastructures.security.DerivedKeyCache;
+import infrastructures.security.IntegrityConfig;
+import infrastructures.security.KdfParameters;
+import infrastructures.security.MappedFileCache;
+import infrastructures.security.ParallelSegmentCipher;
+import infrastructures.security.StreamingAead;
 import infrastructures.database.FilePassword;
 import infrastructures.database.User;
 import application.WorkingContext;
@@ -19,8 +41,13 @@ import application.WorkingContext;
 /**
  * Singleton service class to handle file operations.
  * Manages file creation, deletion, reading, updating and directory operations.
+ * Interactive operations hold an {@link InteractiveActivity.Pause} in a try-with-resources for their whole
+ * duration without referencing it, hence the "try" lint suppression.
  */
+@SuppressWarnings("try")
 public class FileService {
+    private static final String WATCHER_USER = "watcher";
+    private static final int MAX_INTEGRITY_ALERTS = 100;
     private static FileService instance;
     private final FileRepository repository;
     private Journalisation journalisation;
@@ -30,6 +57,14 @@ public class FileService {
     private UserService userService;
     private User userDatabase;
     private WorkingContext workingContext;
+    private DerivedKeyCache keyCache;
+    private MappedFileCache mappedFiles;
+    private volatile CryptoService cryptoService;
+    private IntegrityMerkleTree lastIntegrityTree;
+    private IntegrityScrubber scrubber;
+    private final InteractiveActivity interactiveActivity = new InteractiveActivity();
+    private IntegrityWatcher watcher;
+    private final Deque<IntegrityVerifier.Finding> integrityAlerts = new ArrayDeque<>();
     
     /**
      * Checks if integrity checking is enabled.
@@ -40,6 +75,15 @@ public class FileService {
         return hashService != null && integrityStore != null;
     }
 
+    /**
+     * Pauses the background integrity jobs (scrubber, watcher re-verifications) while an interactive operation runs.
+     *
+     * @return the pause to close at the end of the operation
+     */
+    private InteractiveActivity.Pause pauseBackgroundJobs() {
+        return interactiveActivity.pause();
+    }
+
     /**
      * Private constructor for singleton pattern.
      * Initializes all required services and repositories.
@@ -53,6 +97,9 @@ public class FileService {
         this.userDatabase = User.getInstance();
         this.userService = UserService.getInstance();
         this.workingContext = WorkingContext.getInstance("root_app");
+        this.keyCache = DerivedKeyCache.getInstance();
+        this.mappedFiles = MappedFileCache.getInstance();
+        this.cryptoService = new CryptoService(CryptoConfig.getInstance());
     }
     
     /**
@@ -83,24 +130,22 @@ public class FileService {
          * filename: String - the name of the file to be created
          * return success or error message
          */
-        try {
-            CryptoService cryptoService = new CryptoService();
-
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
             String currentUser = userService.getCurrentUser();
-            String userHashedPassword = userDatabase.getUserByUser(currentUser).get("password").toString();
 
-
-            String[] keyAndSalt = cryptoService.generateKey(userHashedPassword);
-            String encryptedContent = cryptoService.encryptText("", keyAndSalt[0]);
-            filePassword.createFilePassword(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename, currentUser, keyAndSalt[1]);
+            // random data key, stored only wrapped under the owner's KEK
+            SecretKey dataKey = cryptoService.generateDataKey();
+            String wrappedKey = CryptoService.wrapKey(dataKey, requireKek());
+            KdfParameters kdf = userService.getCurrentKdf();
+            filePassword.createFilePassword(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename, currentUser, CryptoService.generateSalt(), wrappedKey,
+                    kdf.getAlgorithm(), kdf.getIterations());
 
             repository.create(directory, filename);
             journalisation.createLog(userService.getCurrentUser(), "CREATE", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
             if (integrityEnabled()) {
+            // a new file is empty: its hash is known without reading it
             Path filePath = directory.resolve(filename).normalize();
-            String hash = hashService.sha256(filePath);
-            long size = Files.size(filePath);
-            integrityStore.appendEntry(filePath, hash, size);
+            integrityStore.appendEntry(filePath, hashService.sha256(new byte[0]), 0);
     }
             return "File created successfully";
         } catch (FileAlreadyExistsException e) {
@@ -119,8 +164,6 @@ public class FileService {
             return "Invalid filename: " + e.getMessage();
         } catch (SQLException e) {
             return "Database error: " + e.getMessage();
-        } catch (IOException e) {
-            return "IO error: " + e.getMessage();
         } catch (UnknowException e) {
             try {
                 journalisation.createLog(userService.getCurrentUser(), "CREATE_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
@@ -128,9 +171,92 @@ public class FileService {
                 return "Unknown error: " + e.getMessage() + " - Database error: " + se.getMessage();
             }
             return "Unknown error: " + e.getMessage();
+        } catch (CryptoException e) {
+            try {
+                journalisation.createLog(userService.getCurrentUser(), "CREATE_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            } catch (SQLException se) {
+                return "Crypto error: " + e.getMessage() + " - Database error: " + se.getMessage();
+            }
+            return "Crypto error: " + e.getMessage();
         }
     }
 
+    /**
+     * Gets the key-encryption key derived when the current user logged in.
+     * 
+     * @return the KEK of the session
+     * @throws CryptoException if no key is available (no user logged in)
+     */
+    private SecretKey requireKek() {
+        SecretKey kek = userService.getCurrentKek();
+        if (kek == null) {
+            throw new CryptoException("No session key: please log in again");
+        }
+        return kek;
+    }
+
+    /**
+     * Gets the key-encryption key of the session derived with the KDF parameters of a file row.
+     * 
+     * @param kdf the parameters recorded on the row
+     * @return the matching KEK
+     * @throws CryptoException if no key is available for these parameters
+     */
+    private SecretKey requireKek(KdfParameters kdf) {
+        SecretKey kek = userService.getKek(kdf);
+        if (kek == null) {
+            throw new CryptoException("No session key for " + kdf + ": please log in again");
+        }
+        return kek;
+    }
+
+    /**
+     * Re-wraps the data key of a file under the current KEK if its row still records older KDF parameters.
+     * Called on writes, so rows move to the calibrated parameters as their files are used; the content is not re-encrypted.
+     * 
+     * @param filePass the file_password row of the file
+     * @param fileKey the data key of the file
+     * @throws SQLException if the row cannot be updated
+     */
+    private void upgradeKeyWrapping(Map<String, Object> filePass, SecretKey fileKey) throws SQLException {
+        KdfParameters kdf = userService.getCurrentKdf();
+        if (filePass.get("wrapped_key") == null || kdf.equals(KdfParameters.fromRow(filePass))) {
+            return;
+        }
+        filePassword.updateWrappedKeys(Map.of((int) filePass.get("id"), CryptoService.wrapKey(fileKey, requireKek())),
+                kdf.getAlgorithm(), kdf.getIterations());
+    }
+
+    /**
+     * Resolves the data key of a file.
+     * Envelope-encrypted files only need an unwrap; files created before envelope encryption
+     * derive their key from the stored password hash once, then get a wrapped copy so the
+     * next access (and password changes) no longer depend on that derivation.
+     * 
+     * @param filePass the file_password row of the file
+     * @return the data key of the file
+     * @throws SQLException if the wrapped copy cannot be stored
+     */
+    private SecretKey resolveFileKey(Map<String, Object> filePass) throws SQLException {
+        KdfParameters fileKdf = KdfParameters.fromRow(filePass);
+        String wrappedKey = (String) filePass.get("wrapped_key");
+        if (wrappedKey != null) {
+            return CryptoService.unwrapKey(wrappedKey, requireKek(fileKdf));
+        }
+        String currentUser = userService.getCurrentUser();
+        String userHashedPassword = userDatabase.getUserByUser(currentUser).get("password").toString();
+        String salt = filePass.get("salt").toString();
+        SecretKey fileKey = keyCache.getOrDerive(currentUser, salt, () -> {
+            // the warm-up started at login may already be deriving this key
+            SecretKey warmed = userService.awaitWarmedFileKey(salt);
+            return warmed != null ? warmed : cryptoService.deriveKey(userHashedPassword, salt, fileKdf);
+        });
+        KdfParameters kdf = userService.getCurrentKdf();
+        filePassword.updateWrappedKeys(Map.of((int) filePass.get("id"), CryptoService.wrapKey(fileKey, requireKek())),
+                kdf.getAlgorithm(), kdf.getIterations());
+        return fileKey;
+    }
+
     /**
      * Checks the integrity of a file against stored hash and size.
      * 
@@ -158,10 +284,7 @@ public class FileService {
 }
 
 
-        String currentHash = hashService.sha256(filePath);
-        long currentSize = Files.size(filePath);
-
-        boolean ok = last.hash.equals(currentHash) && last.size == currentSize;
+        boolean ok = integrityStore.matches(filePath, last, hashService);
         if (!ok) {
             journalisation.createLog(userService.getCurrentUser(), "INTEGRITY_MISMATCH", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
             return "⚠️ Intégrité compromise : le fichier a été modifié hors application.";
@@ -182,7 +305,7 @@ public class FileService {
      * @return success or error message
      */
     public String deleteFile(Path directory, String filename) {
-        try {
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
             String integrityError = checkIntegrity(directory, filename);
             if (integrityError != null) {
                 return integrityError;
@@ -197,6 +320,7 @@ public class FileService {
                 return "Cannot delete file: current user is not the owner";
             }
 
+            mappedFiles.invalidate(directory.resolve(filename));
             repository.delete(directory, filename);
             journalisation.createLog(userService.getCurrentUser(), "DELETE", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
             return "File deleted successfully";
@@ -240,25 +364,28 @@ public class FileService {
      * @return the decrypted content or error message
      */
     public String readFile(Path directory, String filename) {
-        try {
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
             String integrityError = checkIntegrity(directory, filename);
             if (integrityError != null) {
                 return integrityError;
             }   
 
-            String owner = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename).get("user").toString();
+            Map<String, Object> filePass = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            String owner = filePass.get("user").toString();
             if (owner == null || !userService.getCurrentUser().equals(owner)) {
                 return "Cannot read file: current user is not the owner";
             }
-            String ret = repository.read(directory, filename);
+            Path filePath = directory.resolve(filename);
             //decrypt content
-            CryptoService cryptoService = new CryptoService();
-            String currentUser = userService.getCurrentUser();
-            String userHashedPassword = userDatabase.getUserByUser(currentUser).get("password").toString();
-            String salt = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename).get("salt").toString();
-            String[] keyAndSalt = cryptoService.generateKey(userHashedPassword, salt);
+            SecretKey fileKey = resolveFileKey(filePass);
 
-            String decryptedContent = cryptoService.decryptText(ret, keyAndSalt[0]);
+            String decryptedContent;
+            if (Files.isRegularFile(filePath) && isSegmented(filePath)) {
+                // large read-mostly files: decrypted segment by segment from a reused mapping
+                decryptedContent = new String(cryptoService.decryptFile(filePath, fileKey), cryptoService.getConfig().getCharset());
+            } else {
+                decryptedContent = decryptContent(repository.readBytes(directory, filename), fileKey);
+            }
             journalisation.createLog(userService.getCurrentUser(), "READ", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
             return decryptedContent;
         } catch (FileNotFoundException e) {
@@ -296,6 +423,20 @@ public class FileService {
                 return "Hash error: " + e.getMessage() + " - Database error: " + se.getMessage();
             }
             return "Hash error: " + e.getMessage();
+        } catch (CryptoException e) {
+            try {
+                journalisation.createLog(userService.getCurrentUser(), "READ_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            } catch (SQLException se) {
+                return "Crypto error: " + e.getMessage() + " - Database error: " + se.getMessage();
+            }
+            return "Crypto error: " + e.getMessage();
+        } catch (IOException e) {
+            try {
+                journalisation.createLog(userService.getCurrentUser(), "READ_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            } catch (SQLException se) {
+                return "Cannot read file: " + e.getMessage() + " - Database error: " + se.getMessage();
+            }
+            return "Cannot read file: " + e.getMessage();
         } catch (UnknowException e) {
             try {
                 journalisation.createLog(userService.getCurrentUser(), "READ_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
@@ -306,6 +447,24 @@ public class FileService {
         }
     }
 
+    /**
+     * Decrypts the stored content of a file.
+     * Binary containers and segmented files are decrypted directly; files still in the legacy Base64 format are read as text.
+     * 
+     * @param stored the raw bytes of the file
+     * @param fileKey the key of the file
+     * @return the decrypted content, empty for a file that was never written
+     */
+    private String decryptContent(byte[] stored, SecretKey fileKey) {
+        if (stored.length == 0) {
+            return "";
+        }
+        if (CipherContainer.isContainer(stored) || StreamingAead.hasMagic(stored)) {
+            return new String(cryptoService.decryptBytes(stored, fileKey), cryptoService.getConfig().getCharset());
+        }
+        return cryptoService.decryptText(new String(stored, StandardCharsets.US_ASCII), CryptoService.convertSecretKeyToString(fileKey));
+    }
+
     /**
      * Creates a new repository (directory) in the specified directory.
      * 
@@ -395,28 +554,29 @@ public class FileService {
      * @return success or error message
      */
     public String updateFile(Path directory, String filename, String newContent) {
-        try {
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
             Map<String, Object> filePass = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
             String owner = filePass.get("user").toString();
-            String salt = filePass.get("salt").toString();
             if (owner == null || !userService.getCurrentUser().equals(owner)) {
                 return "Cannot update file: current user is not the owner";
             }
-            CryptoService cryptoService = new CryptoService();
-            String currentUser = userService.getCurrentUser();
-            String userHashedPassword = userDatabase.getUserByUser(currentUser).get("password").toString();
-            String[] keyAndSalt = cryptoService.generateKey(userHashedPassword, salt);
-            String encryptedContent = cryptoService.encryptText(newContent, keyAndSalt[0]);
+            SecretKey fileKey = resolveFileKey(filePass);
+            upgradeKeyWrapping(filePass, fileKey);
+            // always written as a binary container: legacy Base64 files are migrated on their first write.
+            // The data key comes from the envelope, so the container records no KDF.
+            byte[] encryptedContent = cryptoService.encryptBytes(newContent.getBytes(cryptoService.getConfig().getCharset()), fileKey,
+                    cryptoService.getConfig().isCompressionEnabled());
 
-            String ret = repository.update(directory, filename, encryptedContent);
+            mappedFiles.invalidate(directory.resolve(filename));
+            // the ciphertext goes through the digest while it is written: no second pass over the file for the integrity entry
+            MessageDigest digest = integrityEnabled() ? integrityStore.newDigest(encryptedContent.length) : HashService.newSha256();
+            repository.updateBytes(directory, filename, encryptedContent, digest);
             journalisation.createLog(userService.getCurrentUser(), "UPDATE", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
             if (integrityEnabled()) {
             Path filePath = directory.resolve(filename).normalize();
-                String hash = hashService.sha256(filePath);
-                long size = java.nio.file.Files.size(filePath);
-                integrityStore.appendEntry(filePath, hash, size);
+                integrityStore.appendEntry(filePath, digest, encryptedContent.length);
             }
-            return ret;
+            return "File updated successfully";
         } catch (FileNotFoundException e) {
             try {
                 journalisation.createLog(userService.getCurrentUser(), "UPDATE_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
@@ -445,6 +605,13 @@ public class FileService {
                 // Log error silently
             }
             return "Database error: " + e.getMessage();
+        } catch (CryptoException e) {
+            try {
+                journalisation.createLog(userService.getCurrentUser(), "UPDATE_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            } catch (SQLException se) {
+                return "Crypto error: " + e.getMessage() + " - Database error: " + se.getMessage();
+            }
+            return "Crypto error: " + e.getMessage();
         } catch (UnknowException e) {
             try {
                 journalisation.createLog(userService.getCurrentUser(), "UPDATE_FAILED", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
@@ -452,21 +619,397 @@ public class FileService {
                 return "Unknown error: " + e.getMessage() + " - Database error: " + se.getMessage();
             }
             return "Unknown error: " + e.getMessage();
-        }catch (java.io.IOException e) {
-    return "Cannot compute integrity: " + e.getMessage();
-        } 
+        }
+
+    }
+
+    /**
+     * Replaces the content of a file with the content of a plaintext file from outside the root.
+     * The content is streamed through FileChannels and direct buffers into the segmented format:
+     * it never becomes a String or a byte[], whatever its size.
+     * 
+     * @param directory the directory where the file is located
+     * @param filename the name of the file to replace
+     * @param source the plaintext file to import
+     * @return success or error message
+     */
+    public String importFile(Path directory, String filename, Path source) {
+        Path temp = null;
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
+            String integrityError = checkIntegrity(directory, filename);
+            if (integrityError != null) {
+                return integrityError;
+            }
+            Map<String, Object> filePass = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            if (filePass == null) {
+                return "Cannot import file: file not found: " + filename;
+            }
+            if (!userService.getCurrentUser().equals(filePass.get("user"))) {
+                return "Cannot import file: current user is not the owner";
+            }
+            SecretKey fileKey = resolveFileKey(filePass);
+            upgradeKeyWrapping(filePass, fileKey);
+
+            Path filePath = directory.resolve(filename).normalize();
+            temp = filePath.resolveSibling("." + filename + ".importing");
+            // large files get a tree hash, computed chunk by chunk during the write
+            MessageDigest digest = integrityEnabled() ? integrityStore.newDigest(Files.size(source)) : HashService.newSha256();
+            long size;
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                size = cryptoService.encryptChannel(in, temp, fileKey, digest);
+            }
+            Files.move(temp, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalisation.createLog(userService.getCurrentUser(), "IMPORT", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            if (integrityEnabled()) {
+                integrityStore.appendEntry(filePath, digest, size);
+            }
+            return "File imported successfully";
+        } catch (SQLException e) {
+            return "Database error: " + e.getMessage();
+        } catch (CryptoException e) {
+            logFailure("IMPORT_FAILED", filename);
+            return "Crypto error: " + e.getMessage();
+        } catch (IOException e) {
+            logFailure("IMPORT_FAILED", filename);
+            return "IO error: " + e.getMessage();
+        } finally {
+            deleteTemp(temp);
+        }
+    }
+
+    /**
+     * Decrypts a file into a plaintext file outside the root.
+     * Large files in the segmented format are decrypted on several cores (see {@link ParallelSegmentCipher}),
+     * smaller ones are streamed through FileChannels and direct buffers;
+     * files in the container format are small and decrypted in memory.
+     * 
+     * @param directory the directory where the file is located
+     * @param filename the name of the file to export
+     * @param target the plaintext file to write (created or replaced)
+     * @return success or error message
+     */
+    public String exportFile(Path directory, String filename, Path target) {
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
+            String integrityError = checkIntegrity(directory, filename);
+            if (integrityError != null) {
+                return integrityError;
+            }
+            Map<String, Object> filePass = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            if (filePass == null) {
+                return "Cannot export file: file not found: " + filename;
+            }
+            if (!userService.getCurrentUser().equals(filePass.get("user"))) {
+                return "Cannot export file: current user is not the owner";
+            }
+            SecretKey fileKey = resolveFileKey(filePass);
 
+            Path filePath = directory.resolve(filename).normalize();
+            boolean segmented = isSegmented(filePath);
+            if (segmented && Files.size(filePath) >= ParallelSegmentCipher.MIN_PARALLEL_SIZE) {
+                // removes the target itself if a segment fails
+                cryptoService.decryptFileParallel(filePath, target, fileKey);
+            } else {
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    if (segmented) {
+                        cryptoService.decryptChannel(filePath, out, fileKey);
+                    } else {
+                        byte[] stored = Files.readAllBytes(filePath);
+                        byte[] plain = stored.length == 0 ? stored : decryptContent(stored, fileKey).getBytes(cryptoService.getConfig().getCharset());
+                        out.write(ByteBuffer.wrap(plain));
+                    }
+                } catch (CryptoException e) {
+                    Files.deleteIfExists(target);
+                    throw e;
+                }
+            }
+            journalisation.createLog(userService.getCurrentUser(), "EXPORT", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            return "File exported successfully to " + target;
+        } catch (SQLException e) {
+            return "Database error: " + e.getMessage();
+        } catch (CryptoException e) {
+            logFailure("EXPORT_FAILED", filename);
+            return "Crypto error: " + e.getMessage();
+        } catch (IOException e) {
+            logFailure("EXPORT_FAILED", filename);
+            return "IO error: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads part of a file.
+     * For files in the segmented format only the segments covering the range are decrypted;
+     * other files are small and decrypted entirely. A negative offset counts from the end of
+     * the file (-1024 = the last 1024 bytes). The range is cut on bytes, so a multi-byte
+     * character at its edges may be shown as a replacement character.
+     * 
+     * @param directory the directory where the file is located
+     * @param filename the name of the file to read
+     * @param offset the first byte to read, negative to count from the end
+     * @param length the maximum number of bytes to read
+     * @return the decrypted range or error message
+     */
+    public String readRange(Path directory, String filename, long offset, int length) {
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
+            String integrityError = checkIntegrity(directory, filename);
+            if (integrityError != null) {
+                return integrityError;
+            }
+            Map<String, Object> filePass = filePassword.getFilePasswordByFilename(workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            if (filePass == null) {
+                return "Cannot read file: file not found: " + filename;
+            }
+            if (!userService.getCurrentUser().equals(filePass.get("user"))) {
+                return "Cannot read file: current user is not the owner";
+            }
+            SecretKey fileKey = resolveFileKey(filePass);
+
+            Path filePath = directory.resolve(filename).normalize();
+            byte[] range;
+            if (isSegmented(filePath)) {
+                long start = offset >= 0 ? offset : Math.max(0, cryptoService.plaintextLength(filePath) + offset);
+                range = cryptoService.decryptRange(filePath, fileKey, start, length);
+            } else {
+                byte[] plain = decryptContent(repository.readBytes(directory, filename), fileKey).getBytes(cryptoService.getConfig().getCharset());
+                int start = (int) Math.min(plain.length, offset >= 0 ? offset : Math.max(0, plain.length + offset));
+                range = Arrays.copyOfRange(plain, start, (int) Math.min(plain.length, (long) start + length));
+            }
+            journalisation.createLog(userService.getCurrentUser(), "READ_RANGE", workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+            return new String(range, cryptoService.getConfig().getCharset());
+        } catch (SQLException e) {
+            return "Database error: " + e.getMessage();
+        } catch (CryptoException e) {
+            logFailure("READ_RANGE_FAILED", filename);
+            return "Crypto error: " + e.getMessage();
+        } catch (IOException e) {
+            logFailure("READ_RANGE_FAILED", filename);
+            return "IO error: " + e.getMessage();
+        } catch (FileNotFoundException | FileNotReadableException | IllegalArgumentException | UnknowException e) {
+            logFailure("READ_RANGE_FAILED", filename);
+            return "Cannot read file: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Tells whether a stored file is in the segmented format (see {@link StreamingAead}).
+     */
+    private boolean isSegmented(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(StreamingAead.MAGIC.length);
+            channel.read(magic, 0);
+            return StreamingAead.hasMagic(magic.array());
+        }
+    }
+
+    private void logFailure(String actionType, String filename) {
+        try {
+            journalisation.createLog(userService.getCurrentUser(), actionType, workingContext.displayPath(workingContext.getCurrent()) + "/" + filename);
+        } catch (SQLException se) {
+            // Log error silently
+        }
+    }
+
+    private static void deleteTemp(Path temp) {
+        if (temp == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // best effort: the temporary file is hidden and overwritten by the next import
+        }
+    }
+
+    /**
+     * Re-reads the crypto configuration (.env) and replaces the shared CryptoService.
+     * The current service is kept if the new configuration is invalid.
+     * 
+     * @return success or error message
+     */
+    public String reloadCryptoConfig() {
+        try {
+            this.cryptoService = new CryptoService(CryptoConfig.reload());
+            keyCache.clear();
+            return "Configuration rechargée : " + cryptoService.getConfig();
+        } catch (CryptoException e) {
+            return "Configuration invalide, ancienne configuration conservée : " + e.getMessage();
+        }
+    }
+
+    /**
+     * Re-encrypts every file of the current user with a fresh data key.
+     * Resumes the previous run if it was interrupted.
+     * 
+     * @param threads the number of files processed concurrently
+     * @param bytesPerSecond the I/O budget, 0 for no limit
+     * @param progressListener receives progress snapshots while the job runs
+     * @return a summary or error message
+     */
+    public String rotateKeys(int threads, long bytesPerSecond, Consumer<KeyRotationJob.Progress> progressListener) {
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
+            requireKek();
+            String currentUser = userService.getCurrentUser();
+            String userHashedPassword = userDatabase.getUserByUser(currentUser).get("password").toString();
+            KeyRotationJob job = new KeyRotationJob(workingContext.getRoot(), workingContext, currentUser, userHashedPassword,
+                    userService.getSessionKeks(), userService.getCurrentKdf(), cryptoService, integrityStore, hashService, threads, new IoThrottle(bytesPerSecond), progressListener);
+            KeyRotationJob.Progress progress = job.run();
+            keyCache.invalidateUser(currentUser);
+            String summary = "Rotation terminée : " + progress;
+            if (progress.failed > 0) {
+                summary += "\nFichiers en échec (relancer rotate_keys pour reprendre) :\n  " + String.join("\n  ", progress.errors);
+            }
+            return summary;
+        } catch (SQLException e) {
+            return "Database error: " + e.getMessage();
+        } catch (IOException e) {
+            return "IO error: " + e.getMessage();
+        } catch (CryptoException e) {
+            return "Crypto error: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Rotation interrompue, relancer rotate_keys pour reprendre.";
+        }
+    }
+
+    /**
+     * Verifies every file under the root against the integrity store.
+     * Modified files and files present although marked deleted are journaled as INTEGRITY_MISMATCH.
+     *
+     * @param threads the number of files hashed concurrently
+     * @param rehash true to hash every file, false to trust the verification cache
+     * @param findingListener receives each finding as soon as it is found
+     * @return the summary or an error message
+     */
+    public String verifyIntegrity(int threads, boolean rehash, Consumer<IntegrityVerifier.Finding> findingListener) {
+        if (!integrityEnabled()) {
+            return "Intégrité désactivée";
+        }
+        try (InteractiveActivity.Pause pause = pauseBackgroundJobs()) {
+            String currentUser = userService.getCurrentUser();
+            IntegrityVerifier verifier = new IntegrityVerifier(workingContext.getRoot(), integrityStore, hashService, threads, rehash);
+            IntegrityVerifier.Summary summary = verifier.run(finding -> {
+                journalFinding(currentUser, finding);
+                findingListener.accept(finding);
+            });
+            return (summary.isClean() ? "Vérification terminée, aucune anomalie : " : "Vérification terminée : ") + summary;
+        } catch (IOException e) {
+            return "IO error: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Vérification interrompue.";
+        }
+    }
+
+    /**
+     * Journals modified files and files present although marked deleted as INTEGRITY_MISMATCH.
+     */
+    private void journalFinding(String user, IntegrityVerifier.Finding finding) {
+        if (finding.kind == IntegrityVerifier.Kind.MISMATCH || finding.kind == IntegrityVerifier.Kind.DELETED_PRESENT) {
+            try {
+                journalisation.createLog(user, "INTEGRITY_MISMATCH", "/" + finding.key);
+            } catch (SQLException e) {
+                System.err.println("Journalisation impossible : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Shows the Merkle root hash of the integrity store and the hash of the current directory,
+     * with the files whose entries changed since the previous call.
+     *
+     * @return the hashes and changes, or a message if integrity is disabled
+     */
+    public synchronized String integrityTree() {
+        if (!integrityEnabled()) {
+            return "Intégrité désactivée";
+        }
+        IntegrityMerkleTree tree = integrityStore.getMerkleTree();
+        String current = workingContext.displayPath(workingContext.getCurrent());
+        String dirKey = current.equals("/") ? "" : current.substring(1);
+        StringBuilder out = new StringBuilder("Racine d'intégrité : ").append(tree.rootHash())
+                .append(" (").append(tree.size()).append(" fichiers)");
+        String dirHash = tree.directoryHash(dirKey);
+        out.append("\nRépertoire ").append(current).append(" : ").append(dirHash == null ? "aucun fichier suivi" : dirHash);
+        if (lastIntegrityTree != null) {
+            StringBuilder changes = new StringBuilder();
+            int visited = tree.diff(dirKey, lastIntegrityTree, key -> changes.append("\n  /").append(key));
+            out.append(changes.length() == 0 ? "\nAucun changement depuis le dernier appel" : "\nChangés depuis le dernier appel :" + changes)
+                    .append(" (").append(visited).append(" répertoires comparés)");
+        }
+        lastIntegrityTree = tree.copy();
+        return out.toString();
     }
 
     /**
      * Configures integrity checking for files.
-     * Initializes the HashService and IntegrityStore.
+     * Initializes the HashService and IntegrityStore, and starts the background scrubber and the
+     * watcher of changes made outside the application unless they are disabled.
      * 
      * @param rootDir the root directory for integrity storage
+     * @throws CryptoException if the integrity settings of .env are invalid
      */
     public void configureIntegrity(Path rootDir) {
+        IntegrityConfig config = IntegrityConfig.getInstance();
         this.hashService = new HashService();
-        this.integrityStore = new IntegrityStore(rootDir);
+        this.integrityStore = new IntegrityStore(rootDir, config.getRehashEvery(),
+                TimeUnit.MINUTES.toMillis(config.getRehashMinutes()));
+        if (config.getScrubMbPerSecond() > 0) {
+            try {
+                this.scrubber = new IntegrityScrubber(integrityStore, hashService,
+                        config.getScrubMbPerSecond() * 1024L * 1024L, config.getScrubFilesPerSecond(), interactiveActivity);
+                scrubber.start();
+            } catch (SQLException e) {
+                System.err.println("Scrubber d'intégrité non démarré : " + e.getMessage());
+            }
+        }
+        if (config.isWatchEnabled()) {
+            try {
+                this.watcher = new IntegrityWatcher(rootDir, integrityStore, hashService, mappedFiles, interactiveActivity, finding -> {
+                    journalFinding(WATCHER_USER, finding);
+                    synchronized (integrityAlerts) {
+                        if (integrityAlerts.size() == MAX_INTEGRITY_ALERTS) {
+                            integrityAlerts.removeFirst();
+                        }
+                        integrityAlerts.addLast(finding);
+                    }
+                });
+                watcher.start();
+            } catch (IOException e) {
+                System.err.println("Surveillance de la racine non démarrée : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Takes the changes made outside the application that the watcher found since the previous call.
+     *
+     * @return one line per change, or an empty string if there is none
+     */
+    public String takeIntegrityAlerts() {
+        StringBuilder out = new StringBuilder();
+        synchronized (integrityAlerts) {
+            for (IntegrityVerifier.Finding finding : integrityAlerts) {
+                out.append(out.length() == 0 ? "" : "\n").append("⚠️ Modification hors application : ").append(finding);
+            }
+            integrityAlerts.clear();
+        }
+        return out.toString();
+    }
+
+    /**
+     * Formats the counters of the derived key cache, of the file mappings, of the integrity verification cache, of the background scrubber and of the watcher.
+     *
+     * @return the summaries, with a message in place of the integrity ones if integrity is disabled
+     */
+    public String integrityStats() {
+        String keys = "Cache de clés : " + keyCache.stats() + "\nMappings : " + mappedFiles.stats();
+        if (!integrityEnabled()) {
+            return keys + "\nIntégrité désactivée";
+        }
+        String stats = keys + "\nVérification d'intégrité : " + integrityStore.getVerificationCache().stats();
+        IntegrityScrubber current = scrubber;
+        IntegrityWatcher currentWatcher = watcher;
+        return stats + "\nScrubber : " + (current == null ? "désactivé (INTEGRITY_SCRUB_MB_PER_SECOND=0)" : current.stats())
+                + "\nSurveillance : " + (currentWatcher == null ? "désactivée (INTEGRITY_WATCH=off)" : currentWatcher.stats());
     }
 
 }
\ No newline at end of file
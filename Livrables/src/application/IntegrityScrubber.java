@@ -0,0 +1,343 @@
+package application;
+
+import infrastructures.database.Journalisation;
+import infrastructures.filesystem.IoThrottle;
+import infrastructures.security.ChunkedHash;
+import infrastructures.security.HashService;
+import infrastructures.security.IntegrityStore;
+import infrastructures.security.VerificationCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background scrubber: walks the files tracked by the integrity store over and over and hashes each
+ * one again, so a file tampered with on disk is found even if nobody reads it.
+ *
+ * <ul>
+ *   <li>Two token buckets ({@link IoThrottle}) bound its cost: one for the bytes hashed per second,
+ *       taken block by block while a file is read, one for the files checked per second.</li>
+ *   <li>It steps aside while interactive operations run (see {@link InteractiveActivity}). A file whose
+ *       hashing is overtaken by an operation is abandoned between two blocks, and a difference found while
+ *       an operation started or ended is not reported; the file is simply checked again on the next cycle.</li>
+ *   <li>Its position (cycle and last key checked, files being taken in key order) is saved beside the
+ *       integrity log, so a restart resumes where it stopped instead of starting over.</li>
+ *   <li>Modified files and files present although marked deleted are journaled as INTEGRITY_MISMATCH,
+ *       once per entry: the same difference is not journaled again on every cycle.</li>
+ * </ul>
+ */
+public class IntegrityScrubber {
+    private static final String JOURNAL_USER = "scrubber";
+    private static final long EMPTY_STORE_SLEEP_MILLIS = 5_000;
+    private static final int SAVE_EVERY_FILES = 64;
+    private static final long SAVE_EVERY_MILLIS = 10_000;
+    private static final int MAGIC = 0x53464D53; // "SFMS"
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 1 << 20;
+    /** Outcome of a check abandoned because the application became active. */
+    private static final IntegrityVerifier.Finding ABANDONED = new IntegrityVerifier.Finding(IntegrityVerifier.Kind.ERROR, "", "abandonné");
+
+    private final IntegrityStore integrityStore;
+    private final HashService hashService;
+    private final IoThrottle bytesThrottle;
+    private final IoThrottle filesThrottle;
+    private final Journalisation journalisation;
+    private final Path positionFile;
+    private final InteractiveActivity activity;
+    private final ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+
+    private final Map<String, String> reported = new HashMap<>();
+    private Thread thread;
+    private volatile boolean stopped;
+    private long cycle;
+    private String lastKey = "";
+    private int unsaved;
+    private long lastSave;
+    private long checked;
+    private long bytes;
+    private long findings;
+    private long deferred;
+    private volatile boolean paused;
+
+    /**
+     * Constructs a scrubber, resuming from its saved position.
+     *
+     * @param integrityStore the integrity store whose files are checked
+     * @param hashService the hash service
+     * @param bytesPerSecond the number of bytes hashed per second, 0 or less for no limit
+     * @param filesPerSecond the number of files checked per second, 0 or less for no limit
+     * @param activity the interactive operations the scrubber steps aside for
+     * @throws SQLException if the journal cannot be opened
+     */
+    public IntegrityScrubber(IntegrityStore integrityStore, HashService hashService, long bytesPerSecond, int filesPerSecond,
+                             InteractiveActivity activity) throws SQLException {
+        this.integrityStore = integrityStore;
+        this.hashService = hashService;
+        this.bytesThrottle = new IoThrottle(bytesPerSecond);
+        this.filesThrottle = new IoThrottle(filesPerSecond);
+        this.journalisation = Journalisation.getInstance();
+        this.positionFile = integrityStore.getIntegrityDir().resolve("scrubber.position");
+        this.activity = activity;
+        loadPosition();
+    }
+
+    /**
+     * Starts the scrubber on a daemon thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        stopped = false;
+        thread = new Thread(this::run, "integrity-scrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::savePosition, "integrity-scrubber-save"));
+    }
+
+    /**
+     * Stops the scrubber and saves its position.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the scrubber
+     */
+    public void stop() throws InterruptedException {
+        Thread running;
+        synchronized (this) {
+            running = thread;
+            thread = null;
+        }
+        if (running == null) {
+            return;
+        }
+        stopped = true;
+        running.interrupt();
+        running.join();
+        savePosition();
+    }
+
+    private void run() {
+        try {
+            while (!stopped) {
+                List<String> keys = new ArrayList<>();
+                integrityStore.forEachLastEntry((key, entry) -> keys.add(key));
+                Collections.sort(keys);
+                int from;
+                synchronized (this) {
+                    int index = Collections.binarySearch(keys, lastKey);
+                    from = lastKey.isEmpty() ? 0 : index >= 0 ? index + 1 : -index - 1;
+                }
+                for (int i = from; i < keys.size() && !stopped; i++) {
+                    scrub(keys.get(i));
+                }
+                if (stopped) {
+                    break;
+                }
+                synchronized (this) {
+                    cycle++;
+                    lastKey = "";
+                    unsaved++;
+                }
+                savePosition();
+                if (keys.isEmpty()) {
+                    TimeUnit.MILLISECONDS.sleep(EMPTY_STORE_SLEEP_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop() was called
+        } catch (RuntimeException e) {
+            System.err.println("Scrubber d'intégrité arrêté : " + e.getMessage());
+        }
+    }
+
+    private void scrub(String key) throws InterruptedException {
+        filesThrottle.acquire(1);
+        paused = true;
+        long epoch = activity.awaitIdle();
+        paused = false;
+        Path file = integrityStore.pathOf(key);
+        IntegrityStore.IntegrityEntry entry = integrityStore.loadLastEntry(file);
+        if (entry != null) {
+            IntegrityVerifier.Finding finding = check(key, file, entry, epoch);
+            synchronized (this) {
+                if (finding != ABANDONED) {
+                    checked++;
+                }
+                if (finding == ABANDONED) {
+                    // the application became active while the file was read: checked again on the next cycle
+                    deferred++;
+                } else if (finding == null) {
+                    reported.remove(key);
+                } else if (!activity.stillIdle(epoch)) {
+                    // the file may have been written by the operation: checked again on the next cycle
+                    deferred++;
+                } else {
+                    report(finding, entry);
+                }
+            }
+        }
+        synchronized (this) {
+            lastKey = key;
+            if (++unsaved >= SAVE_EVERY_FILES || System.currentTimeMillis() - lastSave >= SAVE_EVERY_MILLIS) {
+                savePosition();
+            }
+        }
+    }
+
+    private IntegrityVerifier.Finding check(String key, Path file, IntegrityStore.IntegrityEntry entry, long epoch) throws InterruptedException {
+        boolean exists = Files.isRegularFile(file);
+        if ("DELETED".equals(entry.hash)) {
+            return exists ? new IntegrityVerifier.Finding(IntegrityVerifier.Kind.DELETED_PRESENT, key, "présent alors qu'il est marqué supprimé") : null;
+        }
+        if (!exists) {
+            return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.MISSING, key, "attendu " + entry.size + " octets");
+        }
+        VerificationCache cache = integrityStore.getVerificationCache();
+        String cacheKey = integrityStore.keyOf(file);
+        try {
+            // attributes read before the hash: a write during the hash is not recorded as verified
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.size() != entry.size) {
+                cache.invalidate(cacheKey);
+                return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.MISMATCH, key, "taille " + attributes.size() + " au lieu de " + entry.size);
+            }
+            String current = hash(file, entry.hash, epoch);
+            if (current == null) {
+                return ABANDONED;
+            }
+            if (entry.hash.equals(current)) {
+                cache.record(cacheKey, attributes, entry.hash);
+                return null;
+            }
+            cache.invalidate(cacheKey);
+            return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.MISMATCH, key, "contenu modifié");
+        } catch (IOException | RuntimeException e) {
+            if (stopped) {
+                // interrupted by stop() in the middle of a read
+                throw new InterruptedException();
+            }
+            return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.ERROR, key, e.getMessage());
+        }
+    }
+
+    /**
+     * Hashes a file the way its entry was computed (tree hash or SHA-256), one block at a time:
+     * the byte budget is taken before each block, and the read stops as soon as an interactive operation starts.
+     *
+     * @return the entry hash of the file, or null if the hash was abandoned
+     */
+    private String hash(Path file, String entryHash, long epoch) throws IOException, InterruptedException {
+        MessageDigest digest = ChunkedHash.isTreeHash(entryHash)
+                ? new ChunkedHash.TreeDigest(ChunkedHash.chunkSizeOf(entryHash)) : HashService.newSha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long remaining = channel.size();
+            while (true) {
+                bytesThrottle.acquire(Math.min(BLOCK_SIZE, remaining));
+                if (!activity.stillIdle(epoch)) {
+                    return null;
+                }
+                block.clear();
+                int n = channel.read(block);
+                if (n < 0) {
+                    break;
+                }
+                block.flip();
+                digest.update(block);
+                remaining -= n;
+                synchronized (this) {
+                    bytes += n;
+                }
+            }
+        }
+        byte[] hash = digest.digest();
+        return digest instanceof ChunkedHash.TreeDigest ? ((ChunkedHash.TreeDigest) digest).getResult().toEntryHash() : HashService.toHex(hash);
+    }
+
+    private void report(IntegrityVerifier.Finding finding, IntegrityStore.IntegrityEntry entry) {
+        String signature = finding.kind + ":" + entry.hash + ":" + entry.size;
+        if (signature.equals(reported.put(finding.key, signature))) {
+            return;
+        }
+        findings++;
+        if (finding.kind != IntegrityVerifier.Kind.MISMATCH && finding.kind != IntegrityVerifier.Kind.DELETED_PRESENT) {
+            return;
+        }
+        try {
+            journalisation.createLog(JOURNAL_USER, "INTEGRITY_MISMATCH", "/" + finding.key);
+        } catch (SQLException e) {
+            System.err.println("Journalisation impossible : " + e.getMessage());
+        }
+    }
+
+    private synchronized void loadPosition() {
+        if (!Files.exists(positionFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(positionFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            cycle = in.readLong();
+            lastKey = in.readUTF();
+        } catch (IOException e) {
+            // damaged: the scrubber starts a new cycle
+            System.err.println("Position du scrubber ignorée : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the position to disk (temporary file then atomic move). A failure only costs checking some files twice.
+     */
+    private synchronized void savePosition() {
+        lastSave = System.currentTimeMillis();
+        if (unsaved == 0 && Files.exists(positionFile)) {
+            return;
+        }
+        Path temp = positionFile.resolveSibling(positionFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(cycle);
+                out.writeUTF(lastKey);
+            }
+            Files.move(temp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            unsaved = 0;
+        } catch (IOException e) {
+            System.err.println("Position du scrubber non sauvegardée : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Formats the scrubber counters for display.
+     *
+     * @return a one-line summary of the scrubber state
+     */
+    public synchronized String stats() {
+        return String.format("cycle=%d position=%s checked=%d bytes=%d Mo findings=%d deferred=%d%s (budget %s Mo/s, %s fichiers/s)",
+                cycle, lastKey.isEmpty() ? "(début)" : "/" + lastKey, checked, bytes >> 20, findings, deferred,
+                paused ? " en pause" : "", limit(bytesThrottle.getBytesPerSecond() / (1024.0 * 1024.0)), limit(filesThrottle.getBytesPerSecond()));
+    }
+
+    private static String limit(double value) {
+        return value <= 0 ? "illimité" : String.format("%.0f", value);
+    }
+}
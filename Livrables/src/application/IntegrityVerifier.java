@@ -0,0 +1,295 @@
+package application;
+
+import infrastructures.security.HashService;
+import infrastructures.security.IntegrityStore;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Checks every file under the root against its last integrity entry and reconciles both sides:
+ * files whose content no longer matches, tracked files that disappeared, files still present
+ * although their history says they were deleted, and files that were never tracked.
+ *
+ * The walk runs on the calling thread and feeds a bounded queue, so it never gets more than a few
+ * files ahead of the hashing; the files are checked in parallel by the workers of a ForkJoinPool.
+ * Findings are streamed to the listener as soon as they are found (one at a time), and the run ends
+ * with a {@link Summary}.
+ */
+public class IntegrityVerifier {
+    private static final int QUEUE_PER_THREAD = 4;
+    private static final Path END = Path.of("");
+
+    private final Path root;
+    private final IntegrityStore integrityStore;
+    private final HashService hashService;
+    private final int threads;
+    private final boolean rehash;
+
+    private final Object listenerLock = new Object();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<Kind, AtomicLong> counts = new HashMap<>();
+
+    /**
+     * Kind of a reported difference.
+     */
+    public enum Kind {
+        /** the content or size of the file differs from its last entry */
+        MISMATCH,
+        /** the file has an entry but is no longer on disk */
+        MISSING,
+        /** the file is on disk although its last entry marks it deleted */
+        DELETED_PRESENT,
+        /** the file is on disk but has no entry */
+        UNTRACKED,
+        /** the file could not be read */
+        ERROR
+    }
+
+    /**
+     * Constructs a verification of the given root.
+     *
+     * @param root the root directory to walk
+     * @param integrityStore the integrity store of this root
+     * @param hashService the hash service
+     * @param threads the number of files hashed concurrently
+     * @param rehash true to hash every file, false to accept the files the verification cache vouches for
+     */
+    public IntegrityVerifier(Path root, IntegrityStore integrityStore, HashService hashService, int threads, boolean rehash) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.integrityStore = integrityStore;
+        this.hashService = hashService;
+        this.threads = threads;
+        this.rehash = rehash;
+        for (Kind kind : Kind.values()) {
+            counts.put(kind, new AtomicLong());
+        }
+    }
+
+    /**
+     * Runs the verification and blocks until every file has been checked.
+     *
+     * @param listener receives each finding as soon as it is found, never concurrently
+     * @return the summary of the run
+     * @throws IOException if the root cannot be walked
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public Summary run(Consumer<Finding> listener) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Map<String, IntegrityStore.IntegrityEntry> expected = new HashMap<>();
+        integrityStore.forEachLastEntry(expected::put);
+
+        BlockingQueue<Path> queue = new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD);
+        Set<String> seen = new HashSet<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<?>> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> work(queue, expected, listener)));
+            }
+            try {
+                walk(queue, seen, listener);
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    queue.put(END);
+                }
+            }
+            for (ForkJoinTask<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Vérification interrompue : " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        expected.forEach((key, entry) -> {
+            if (!seen.contains(key) && !"DELETED".equals(entry.hash)) {
+                report(listener, new Finding(Kind.MISSING, key, "attendu " + entry.size + " octets"));
+            }
+        });
+        return new Summary(checked.get(), verified.get(), counts, bytes.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Feeds the regular files under the root to the queue.
+     * A file or directory that cannot be read (e.g. removed during the walk) is reported as an ERROR
+     * and the walk goes on with its siblings.
+     */
+    private void walk(BlockingQueue<Path> queue, Set<String> seen, Consumer<Finding> listener) throws IOException, InterruptedException {
+        InterruptedException[] interrupted = new InterruptedException[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!Files.isRegularFile(file) || file.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.CONTINUE;
+                }
+                seen.add(integrityStore.keyOf(file));
+                try {
+                    queue.put(file);
+                    return FileVisitResult.CONTINUE;
+                } catch (InterruptedException e) {
+                    interrupted[0] = e;
+                    return FileVisitResult.TERMINATE;
+                }
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                report(listener, new Finding(Kind.ERROR, integrityStore.keyOf(file), "parcours impossible : " + e));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                if (e != null) {
+                    report(listener, new Finding(Kind.ERROR, integrityStore.keyOf(dir), "parcours interrompu : " + e));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (interrupted[0] != null) {
+            throw interrupted[0];
+        }
+    }
+
+    private void work(BlockingQueue<Path> queue, Map<String, IntegrityStore.IntegrityEntry> expected, Consumer<Finding> listener) {
+        try {
+            for (Path file = queue.take(); file != END; file = queue.take()) {
+                check(file, expected, listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void check(Path file, Map<String, IntegrityStore.IntegrityEntry> expected, Consumer<Finding> listener) {
+        String key = integrityStore.keyOf(file);
+        checked.incrementAndGet();
+        IntegrityStore.IntegrityEntry entry = expected.get(key);
+        if (entry == null) {
+            report(listener, new Finding(Kind.UNTRACKED, key, "aucune entrée d'intégrité"));
+            return;
+        }
+        if ("DELETED".equals(entry.hash)) {
+            report(listener, new Finding(Kind.DELETED_PRESENT, key, "présent alors qu'il est marqué supprimé"));
+            return;
+        }
+        try {
+            long size = Files.size(file);
+            bytes.addAndGet(size);
+            if (integrityStore.matches(file, entry, hashService, rehash)) {
+                verified.incrementAndGet();
+            } else {
+                report(listener, new Finding(Kind.MISMATCH, key, size != entry.size
+                        ? "taille " + size + " au lieu de " + entry.size : describeChange(file)));
+            }
+        } catch (IOException | RuntimeException e) {
+            report(listener, new Finding(Kind.ERROR, key, e.getMessage()));
+        }
+    }
+
+    /**
+     * For a file with a tree hash, tells which chunks changed.
+     */
+    private String describeChange(Path file) {
+        BitSet chunks = integrityStore.changedChunks(file);
+        if (chunks == null || chunks.isEmpty()) {
+            return "contenu modifié";
+        }
+        return "contenu modifié (blocs " + chunks + ")";
+    }
+
+    private void report(Consumer<Finding> listener, Finding finding) {
+        counts.get(finding.kind).incrementAndGet();
+        synchronized (listenerLock) {
+            listener.accept(finding);
+        }
+    }
+
+    /**
+     * One difference between the disk and the integrity store.
+     */
+    public static class Finding {
+        public final Kind kind;
+        public final String key;
+        public final String detail;
+
+        Finding(Kind kind, String key, String detail) {
+            this.kind = kind;
+            this.key = key;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " /" + key + " : " + detail;
+        }
+    }
+
+    /**
+     * Counters of a finished verification.
+     */
+    public static class Summary {
+        public final long checked;
+        public final long verified;
+        public final long mismatched;
+        public final long missing;
+        public final long deletedPresent;
+        public final long untracked;
+        public final long errors;
+        public final long bytes;
+        public final long elapsedNanos;
+
+        Summary(long checked, long verified, Map<Kind, AtomicLong> counts, long bytes, long elapsedNanos) {
+            this.checked = checked;
+            this.verified = verified;
+            this.mismatched = counts.get(Kind.MISMATCH).get();
+            this.missing = counts.get(Kind.MISSING).get();
+            this.deletedPresent = counts.get(Kind.DELETED_PRESENT).get();
+            this.untracked = counts.get(Kind.UNTRACKED).get();
+            this.errors = counts.get(Kind.ERROR).get();
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isClean() {
+            return mismatched == 0 && missing == 0 && deletedPresent == 0 && errors == 0;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : (bytes / (1024.0 * 1024.0)) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d fichiers vérifiés (intacts=%d, modifiés=%d, manquants=%d, supprimés mais présents=%d, "
+                            + "non suivis=%d, erreurs=%d) en %.1f s - %.2f Mo/s",
+                    checked, verified, mismatched, missing, deletedPresent, untracked, errors,
+                    elapsedNanos / 1e9, getMegabytesPerSecond());
+        }
+    }
+}
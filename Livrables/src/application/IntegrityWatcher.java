@@ -0,0 +1,405 @@
+package application;
+
+import infrastructures.security.HashService;
+import infrastructures.security.IntegrityStore;
+import infrastructures.security.MappedFileCache;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Watches the root for changes made outside the application ({@link WatchService}), so a file modified,
+ * created or deleted behind its back is flagged as soon as it happens instead of at its next access.
+ *
+ * <ul>
+ *   <li>Every directory under the root is registered at start, and directories created later are
+ *       registered (with their content) as soon as their creation is seen.</li>
+ *   <li>An event invalidates the memory mapping of the file right away, so no read uses pages mapped
+ *       before the change.</li>
+ *   <li>Events are coalesced: a path is re-verified once no event touched it for {@value #COALESCE_MILLIS} ms,
+ *       however many events a burst (rewrite, copy, unpacked archive) produced.</li>
+ *   <li>Only the flagged paths are re-verified, on a second thread that steps aside while interactive
+ *       operations run (see {@link InteractiveActivity}). Writes made by the application also raise events:
+ *       a file whose size, modification time and file key are still those recorded with its latest entry is
+ *       accepted without hashing it; only a file whose attributes differ is hashed again.</li>
+ *   <li>If the event queue overflows, or a watched directory is deleted or moved, every path known under
+ *       that directory is flagged.</li>
+ * </ul>
+ * Hidden files (temporary files of the application) are ignored, like in {@link IntegrityVerifier}.
+ */
+public class IntegrityWatcher {
+    private static final long COALESCE_MILLIS = 500;
+
+    private final Path root;
+    private final IntegrityStore integrityStore;
+    private final HashService hashService;
+    private final MappedFileCache mappedFiles;
+    private final InteractiveActivity activity;
+    private final Consumer<IntegrityVerifier.Finding> listener;
+
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    /** paths waiting for re-verification, with the time they are due, in due order */
+    private final LinkedHashMap<Path, Long> pending = new LinkedHashMap<>();
+    private WatchService watchService;
+    private Thread eventThread;
+    private Thread verifyThread;
+    private volatile boolean stopped;
+
+    private long events;
+    private long overflows;
+    private long flagged;
+    private long coalesced;
+    private long verified;
+    private long findings;
+    private long deferred;
+
+    /**
+     * Constructs a watcher of the given root.
+     *
+     * @param root the root directory to watch
+     * @param integrityStore the integrity store of this root
+     * @param hashService the hash service
+     * @param mappedFiles the mappings to invalidate when a file changes
+     * @param activity the interactive operations the re-verifications step aside for
+     * @param listener receives each difference found, from the re-verification thread
+     */
+    public IntegrityWatcher(Path root, IntegrityStore integrityStore, HashService hashService, MappedFileCache mappedFiles,
+                            InteractiveActivity activity, Consumer<IntegrityVerifier.Finding> listener) {
+        this.root = root.toAbsolutePath().normalize();
+        this.integrityStore = integrityStore;
+        this.hashService = hashService;
+        this.mappedFiles = mappedFiles;
+        this.activity = activity;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers the directory tree and starts the watcher threads.
+     *
+     * @throws IOException if the root cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (eventThread != null) {
+            return;
+        }
+        watchedDirs.clear();
+        watchService = FileSystems.getDefault().newWatchService();
+        stopped = false;
+        registerTree(root, false);
+        eventThread = daemon(this::watch, "integrity-watcher");
+        verifyThread = daemon(this::verifyLoop, "integrity-watcher-verify");
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Stops the watcher. Paths still waiting for re-verification are dropped: the scrubber or the next
+     * access checks them.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the threads
+     */
+    public void stop() throws InterruptedException {
+        Thread events;
+        Thread verify;
+        synchronized (this) {
+            if (eventThread == null) {
+                return;
+            }
+            stopped = true;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // the threads are interrupted below anyway
+            }
+            events = eventThread;
+            verify = verifyThread;
+            eventThread = null;
+            verifyThread = null;
+        }
+        events.interrupt();
+        verify.interrupt();
+        events.join();
+        verify.join();
+    }
+
+    /**
+     * Registers a directory and every directory below it.
+     *
+     * @param flagFiles true to flag the files found, for a directory created (or moved in) while watching
+     */
+    private void registerTree(Path dir, boolean flagFiles) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = subDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                synchronized (IntegrityWatcher.this) {
+                    watchedDirs.put(key, subDir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (flagFiles) {
+                    flag(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // removed while walking: its deletion event follows
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Cancels the registration of a directory and of every directory below it.
+     *
+     * @return true if the path was a watched directory
+     */
+    private synchronized boolean unregisterTree(Path dir) {
+        boolean found = false;
+        for (Iterator<Map.Entry<WatchKey, Path>> it = watchedDirs.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<WatchKey, Path> entry = it.next();
+            if (entry.getValue().startsWith(dir)) {
+                entry.getKey().cancel();
+                it.remove();
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private void watch() {
+        try {
+            while (!stopped) {
+                WatchKey key = watchService.take();
+                Path dir;
+                synchronized (this) {
+                    dir = watchedDirs.get(key);
+                }
+                if (dir != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        handle(dir, event);
+                    }
+                }
+                if (!key.reset()) {
+                    // directory deleted or moved away: whatever was tracked below it changed
+                    synchronized (this) {
+                        watchedDirs.remove(key);
+                    }
+                    if (dir != null) {
+                        flagTracked(dir);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stop() was called
+        }
+    }
+
+    private void handle(Path dir, WatchEvent<?> event) {
+        synchronized (this) {
+            events++;
+        }
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            synchronized (this) {
+                overflows++;
+            }
+            flagTracked(dir);
+            flagExisting(dir);
+            return;
+        }
+        Path path = dir.resolve((Path) event.context());
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && unregisterTree(path)) {
+            // a directory moved away keeps its watch key (it watches the inode): drop it and flag its files
+            flagTracked(path);
+            return;
+        }
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                registerTree(path, true);
+            } catch (IOException e) {
+                System.err.println("Répertoire non surveillé : " + path + " (" + e.getMessage() + ")");
+            }
+            return;
+        }
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            flag(path);
+        }
+    }
+
+    /**
+     * Flags every tracked file under a directory (events lost or directory gone).
+     */
+    private void flagTracked(Path dir) {
+        String prefix = integrityStore.keyOf(dir);
+        String dirPrefix = prefix.isEmpty() ? "" : prefix + "/";
+        List<String> keys = new ArrayList<>();
+        integrityStore.forEachLastEntry((key, entry) -> {
+            if (key.startsWith(dirPrefix)) {
+                keys.add(key);
+            }
+        });
+        keys.forEach(key -> flag(integrityStore.pathOf(key)));
+    }
+
+    /**
+     * Flags every file on disk under a directory, untracked ones included (events lost).
+     */
+    private void flagExisting(Path dir) {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(Files::isRegularFile).forEach(this::flag);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Répertoire non parcouru : " + dir + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Invalidates the mapping of a file and queues it for re-verification, pushing back its
+     * due time if it is already queued.
+     */
+    private void flag(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        if (normalized.getFileName().toString().startsWith(".") || !normalized.startsWith(root) || normalized.equals(root)) {
+            return;
+        }
+        mappedFiles.invalidate(normalized);
+        boolean merged;
+        synchronized (pending) {
+            merged = pending.remove(normalized) != null;
+            pending.put(normalized, System.currentTimeMillis() + COALESCE_MILLIS);
+            pending.notifyAll();
+        }
+        synchronized (this) {
+            flagged++;
+            if (merged) {
+                coalesced++;
+            }
+        }
+    }
+
+    private void verifyLoop() {
+        try {
+            while (!stopped) {
+                Path file = nextDue();
+                long epoch = activity.awaitIdle();
+                IntegrityVerifier.Finding finding = check(file);
+                if (finding != null && !activity.stillIdle(epoch)) {
+                    // the file may have been written by the operation: checked again once it is over
+                    synchronized (this) {
+                        deferred++;
+                    }
+                    flag(file);
+                    continue;
+                }
+                synchronized (this) {
+                    verified++;
+                    if (finding != null) {
+                        findings++;
+                    }
+                }
+                if (finding != null) {
+                    listener.accept(finding);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop() was called
+        }
+    }
+
+    /**
+     * Waits for the oldest flagged path to be due, i.e. for its burst of events to be over.
+     */
+    private Path nextDue() throws InterruptedException {
+        synchronized (pending) {
+            while (true) {
+                Iterator<Map.Entry<Path, Long>> first = pending.entrySet().iterator();
+                if (!first.hasNext()) {
+                    pending.wait();
+                    continue;
+                }
+                Map.Entry<Path, Long> entry = first.next();
+                long wait = entry.getValue() - System.currentTimeMillis();
+                if (wait <= 0) {
+                    first.remove();
+                    return entry.getKey();
+                }
+                pending.wait(wait);
+            }
+        }
+    }
+
+    private IntegrityVerifier.Finding check(Path file) {
+        String key = integrityStore.keyOf(file);
+        IntegrityStore.IntegrityEntry entry = integrityStore.loadLastEntry(file);
+        boolean exists = Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS);
+        if (entry == null) {
+            return exists ? new IntegrityVerifier.Finding(IntegrityVerifier.Kind.UNTRACKED, key, "créé hors application") : null;
+        }
+        if ("DELETED".equals(entry.hash)) {
+            return exists ? new IntegrityVerifier.Finding(IntegrityVerifier.Kind.DELETED_PRESENT, key, "présent alors qu'il est marqué supprimé") : null;
+        }
+        if (!exists) {
+            return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.MISSING, key, "supprimé hors application");
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (integrityStore.getVerificationCache().isRecorded(key, attributes, entry.hash)
+                    || integrityStore.matches(file, entry, hashService, true)) {
+                return null;
+            }
+            long size = Files.size(file);
+            return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.MISMATCH, key, size != entry.size
+                    ? "taille " + size + " au lieu de " + entry.size : "contenu modifié hors application");
+        } catch (IOException | RuntimeException e) {
+            if (!Files.exists(file)) {
+                return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.MISSING, key, "supprimé hors application");
+            }
+            return new IntegrityVerifier.Finding(IntegrityVerifier.Kind.ERROR, key, e.getMessage());
+        }
+    }
+
+    /**
+     * Formats the watcher counters for display.
+     *
+     * @return a one-line summary of the watcher state
+     */
+    public String stats() {
+        int waiting;
+        synchronized (pending) {
+            waiting = pending.size();
+        }
+        synchronized (this) {
+            return String.format("dirs=%d events=%d overflows=%d flagged=%d coalesced=%d verified=%d findings=%d deferred=%d pending=%d",
+                    watchedDirs.size(), events, overflows, flagged, coalesced, verified, findings, deferred, waiting);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package application;
+
+/**
+ * Tracks the interactive operations in progress, so that background integrity jobs
+ * ({@link IntegrityScrubber}, {@link IntegrityWatcher}) step aside while they run.
+ *
+ * Every operation holds a {@link Pause} while it runs. A background job waits with {@link #awaitIdle()}
+ * until none is held and a short quiet period has passed, and checks with {@link #stillIdle(long)} that
+ * no operation started or ended while it worked: a file that differed from its entry may simply have
+ * been in the middle of being written by the application.
+ */
+public class InteractiveActivity {
+    private static final long QUIET_MILLIS = 1_000;
+
+    private final Object lock = new Object();
+    private int activeOperations;
+    private long epoch;
+    private long quietUntil;
+
+    /**
+     * Marks the start of an interactive operation.
+     * Pauses can overlap: background jobs resume once all of them are closed.
+     *
+     * @return the pause, to close when the operation ends
+     */
+    public Pause pause() {
+        synchronized (lock) {
+            activeOperations++;
+            epoch++;
+        }
+        return new Pause(this);
+    }
+
+    private void resume() {
+        synchronized (lock) {
+            activeOperations--;
+            epoch++;
+            quietUntil = System.currentTimeMillis() + QUIET_MILLIS;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until no interactive operation is running and the quiet period has passed.
+     *
+     * @return the activity epoch at that time, to pass to {@link #stillIdle(long)}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long awaitIdle() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                long wait = activeOperations > 0 ? 0 : quietUntil - System.currentTimeMillis();
+                if (activeOperations == 0 && wait <= 0) {
+                    return epoch;
+                }
+                lock.wait(Math.max(0, wait));
+            }
+        }
+    }
+
+    /**
+     * Tells whether no interactive operation started or ended since {@link #awaitIdle()} returned.
+     *
+     * @param idleEpoch the epoch returned by awaitIdle
+     * @return true if the application did not touch any file in between
+     */
+    public boolean stillIdle(long idleEpoch) {
+        synchronized (lock) {
+            return activeOperations == 0 && epoch == idleEpoch;
+        }
+    }
+
+    /**
+     * Held while an interactive operation runs; closing it more than once has no effect.
+     */
+    public static final class Pause implements AutoCloseable {
+        private final InteractiveActivity activity;
+        private boolean closed;
+
+        private Pause(InteractiveActivity activity) {
+            this.activity = activity;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                activity.resume();
+            }
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package application;
+
+import domain.exception.CryptoException;
+import infrastructures.database.FilePassword;
+import infrastructures.database.Journalisation;
+import infrastructures.database.RotationCheckpoint;
+import infrastructures.filesystem.IoThrottle;
+import infrastructures.security.CipherContainer;
+import infrastructures.security.CryptoService;
+import infrastructures.security.HashService;
+import infrastructures.security.IntegrityStore;
+import infrastructures.security.KdfParameters;
+import infrastructures.security.StreamingAead;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Re-encrypts every file of a user under the root with a fresh data key.
+ *
+ * Files are processed in parallel on a fixed pool and each one goes through:
+ * new key recorded as PENDING in rotation_checkpoint -> content re-encrypted into a temporary
+ * file (in its own format: container in memory, segmented files streamed) and moved over the original -> integrity entry appended -> file_password updated -> DONE.
+ * After a crash, running the job again skips DONE files and finishes PENDING ones: if the file
+ * already decrypts with the pending key only the bookkeeping is replayed, otherwise the file is
+ * rotated again from its current key.
+ */
+public class KeyRotationJob {
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private final Path root;
+    private final WorkingContext workingContext;
+    private final String user;
+    private final String userHashedPassword;
+    private final Map<KdfParameters, SecretKey> keks;
+    private final KdfParameters kdf;
+    private final CryptoService cryptoService;
+    private final FilePassword filePassword;
+    private final RotationCheckpoint checkpoints;
+    private final Journalisation journalisation;
+    private final HashService hashService;
+    private final IntegrityStore integrityStore;
+    private final int threads;
+    private final IoThrottle throttle;
+    private final Consumer<Progress> progressListener;
+
+    private final String job;
+    private final Object dbLock = new Object();
+    private final AtomicLong rotated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private long total;
+    private long startNanos;
+    private long lastReportNanos;
+
+    /**
+     * Constructs a job for the given user.
+     *
+     * @param root the root directory to walk
+     * @param workingContext used to build the file_password key of a file
+     * @param user the owner whose files are rotated
+     * @param userHashedPassword the stored password hash (derives the key of files created before envelope encryption)
+     * @param keks the key-encryption keys of the current session, by KDF parameters
+     * @param kdf the parameters of the KEK new keys are wrapped with
+     * @param cryptoService the crypto service
+     * @param integrityStore the integrity store to keep up to date, or null if integrity is disabled
+     * @param hashService the hash service, or null if integrity is disabled
+     * @param threads the number of files processed concurrently
+     * @param throttle the I/O budget shared by the workers
+     * @param progressListener receives a snapshot about once per second and at the end
+     * @throws SQLException if the database cannot be opened
+     */
+    public KeyRotationJob(Path root, WorkingContext workingContext, String user, String userHashedPassword,
+                          Map<KdfParameters, SecretKey> keks, KdfParameters kdf,
+                          CryptoService cryptoService, IntegrityStore integrityStore, HashService hashService,
+                          int threads, IoThrottle throttle, Consumer<Progress> progressListener) throws SQLException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.workingContext = workingContext;
+        this.user = user;
+        this.userHashedPassword = userHashedPassword;
+        this.keks = keks;
+        this.kdf = kdf;
+        this.cryptoService = cryptoService;
+        this.filePassword = FilePassword.getInstance();
+        this.checkpoints = RotationCheckpoint.getInstance();
+        this.journalisation = Journalisation.getInstance();
+        this.integrityStore = integrityStore;
+        this.hashService = hashService;
+        this.threads = threads;
+        this.throttle = throttle;
+        this.progressListener = progressListener;
+        this.job = "rotate:" + user;
+    }
+
+    /**
+     * Runs (or resumes) the rotation and blocks until every file has been processed.
+     * Checkpoints are removed when the run ends without failure.
+     *
+     * @return the final progress
+     * @throws SQLException if the checkpoints cannot be read
+     * @throws IOException if the root cannot be walked
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public Progress run() throws SQLException, IOException, InterruptedException {
+        Map<String, Map<String, Object>> rows = new HashMap<>();
+        for (Map<String, Object> row : filePassword.getFilePasswordsByUser(user)) {
+            rows.put((String) row.get("filename"), row);
+        }
+        Map<String, Map<String, Object>> done = checkpoints.getCheckpoints(job);
+
+        List<Path> files = walk(rows);
+        // paths the walk could not visit are already counted as failed
+        total = files.size() + failed.get();
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Path file : files) {
+                String key = keyOf(file);
+                executor.submit(() -> rotateSafely(file, key, rows.get(key), done.get(key)));
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                report();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failed.get() == 0) {
+            synchronized (dbLock) {
+                checkpoints.deleteJob(job);
+            }
+        }
+        Progress progress = snapshot();
+        progressListener.accept(progress);
+        return progress;
+    }
+
+    /**
+     * Lists the files of the user under the root. A path that cannot be visited (unreadable directory,
+     * entry deleted during the walk) is reported as failed and the walk goes on: the run keeps its
+     * checkpoints and the next one picks it up.
+     */
+    private List<Path> walk(Map<String, Map<String, Object>> rows) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (Files.isRegularFile(file) && rows.containsKey(keyOf(file))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                fail(workingContext.displayPath(file), "parcours impossible : " + e);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                if (e != null) {
+                    fail(workingContext.displayPath(dir), "parcours interrompu : " + e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private void rotateSafely(Path file, String key, Map<String, Object> row, Map<String, Object> checkpoint) {
+        try {
+            if (checkpoint != null && RotationCheckpoint.STATUS_DONE.equals(checkpoint.get("status"))) {
+                skipped.incrementAndGet();
+            } else {
+                rotate(file, key, row, checkpoint);
+                rotated.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(key, "interrompu");
+        } catch (Exception e) {
+            fail(key, e.getMessage());
+        }
+        report();
+    }
+
+    private void rotate(Path file, String key, Map<String, Object> row, Map<String, Object> checkpoint)
+            throws SQLException, IOException, InterruptedException {
+        if (isSegmented(file)) {
+            rotateSegmented(file, key, row, checkpoint);
+            return;
+        }
+        byte[] stored = Files.readAllBytes(file);
+        throttle.acquire(stored.length);
+        bytes.addAndGet(stored.length);
+
+        // crash after the file was replaced: only the bookkeeping is missing
+        if (checkpoint != null && checkpoint.get("wrapped_key") != null) {
+            String pendingSalt = (String) checkpoint.get("salt");
+            String pendingWrapped = (String) checkpoint.get("wrapped_key");
+            if (pendingWrapped.equals(row.get("wrapped_key")) || decryptsWith(stored, CryptoService.unwrapKey(pendingWrapped, kek(kdf)))) {
+                complete(file, key, row, pendingSalt, pendingWrapped, stored);
+                return;
+            }
+        }
+
+        checkIntegrity(file, key);
+
+        byte[] plain = decrypt(stored, currentKey(row));
+        SecretKey newKey = cryptoService.generateDataKey();
+        String newSalt = CryptoService.generateSalt();
+        String newWrapped = CryptoService.wrapKey(newKey, kek(kdf));
+        synchronized (dbLock) {
+            checkpoints.markPending(job, key, newSalt, newWrapped);
+        }
+
+        // a file that was never written stays empty
+        byte[] encrypted = stored.length == 0 ? stored : cryptoService.encryptBytes(plain, newKey, cryptoService.getConfig().isCompressionEnabled());
+        Path temp = file.resolveSibling("." + file.getFileName() + ".rotating");
+        Files.write(temp, encrypted);
+        throttle.acquire(encrypted.length);
+        bytes.addAndGet(encrypted.length);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        complete(file, key, row, newSalt, newWrapped, encrypted);
+    }
+
+    /**
+     * Rotates a file in the segmented format (written by import): it is re-encrypted segment by segment
+     * into the temporary file (see {@link CryptoService#reencryptChannel}), so it is never loaded in memory
+     * and keeps its format. The integrity hash is computed while the new ciphertext is written.
+     */
+    private void rotateSegmented(Path file, String key, Map<String, Object> row, Map<String, Object> checkpoint)
+            throws SQLException, IOException, InterruptedException {
+        long size = Files.size(file);
+        throttle.acquire(size);
+        bytes.addAndGet(size);
+
+        // crash after the file was replaced: only the bookkeeping is missing
+        if (checkpoint != null && checkpoint.get("wrapped_key") != null) {
+            String pendingSalt = (String) checkpoint.get("salt");
+            String pendingWrapped = (String) checkpoint.get("wrapped_key");
+            if (pendingWrapped.equals(row.get("wrapped_key")) || segmentedDecryptsWith(file, CryptoService.unwrapKey(pendingWrapped, kek(kdf)))) {
+                if (integrityStore != null && hashService != null) {
+                    integrityStore.appendEntryIfChanged(file, hashService);
+                }
+                markRotated(key, row, pendingSalt, pendingWrapped);
+                return;
+            }
+        }
+
+        checkIntegrity(file, key);
+
+        SecretKey oldKey = currentKey(row);
+        SecretKey newKey = cryptoService.generateDataKey();
+        String newSalt = CryptoService.generateSalt();
+        String newWrapped = CryptoService.wrapKey(newKey, kek(kdf));
+        synchronized (dbLock) {
+            checkpoints.markPending(job, key, newSalt, newWrapped);
+        }
+
+        Path temp = file.resolveSibling("." + file.getFileName() + ".rotating");
+        try {
+            MessageDigest digest = integrityStore != null && hashService != null ? integrityStore.newDigest(size) : null;
+            long written = cryptoService.reencryptChannel(file, temp, oldKey, newKey, digest);
+            throttle.acquire(written);
+            bytes.addAndGet(written);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (digest != null) {
+                integrityStore.appendEntry(file, digest, written);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        markRotated(key, row, newSalt, newWrapped);
+    }
+
+    /**
+     * Records the new state of a rotated file: integrity entry, file_password row, checkpoint.
+     * Idempotent, so it can be replayed after a crash.
+     * The integrity entry is computed from the content just written (or read), not by reading the file again.
+     */
+    private void complete(Path file, String key, Map<String, Object> row, String salt, String wrappedKey, byte[] content) throws SQLException, IOException {
+        if (integrityStore != null && hashService != null) {
+            integrityStore.appendEntryIfChanged(file, content, hashService);
+        }
+        markRotated(key, row, salt, wrappedKey);
+    }
+
+    /**
+     * Records the new key of a rotated file in file_password and marks its checkpoint DONE.
+     */
+    private void markRotated(String key, Map<String, Object> row, String salt, String wrappedKey) throws SQLException {
+        synchronized (dbLock) {
+            filePassword.updateKey((int) row.get("id"), salt, wrappedKey, kdf.getAlgorithm(), kdf.getIterations());
+            checkpoints.markDone(job, key);
+            journalisation.createLog(user, "ROTATE_KEY", key);
+        }
+    }
+
+    /**
+     * Journals and refuses a file that no longer matches its last integrity entry.
+     */
+    private void checkIntegrity(Path file, String key) throws SQLException, IOException {
+        String integrityError = verifyIntegrity(file);
+        if (integrityError != null) {
+            synchronized (dbLock) {
+                journalisation.createLog(user, "INTEGRITY_MISMATCH", key);
+            }
+            throw new CryptoException(integrityError);
+        }
+    }
+
+    /**
+     * @return null if the file matches its last integrity entry (or has none), an error message otherwise
+     */
+    private String verifyIntegrity(Path file) throws IOException {
+        if (integrityStore == null || hashService == null) {
+            return null;
+        }
+        IntegrityStore.IntegrityEntry last = integrityStore.loadLastEntry(file);
+        if (last == null) {
+            return null;
+        }
+        if (!integrityStore.matches(file, last, hashService)) {
+            return "Intégrité compromise, fichier non rechiffré";
+        }
+        return null;
+    }
+
+    private SecretKey currentKey(Map<String, Object> row) {
+        String wrapped = (String) row.get("wrapped_key");
+        KdfParameters rowKdf = KdfParameters.fromRow(row);
+        if (wrapped != null) {
+            return CryptoService.unwrapKey(wrapped, kek(rowKdf));
+        }
+        return cryptoService.deriveKey(userHashedPassword, (String) row.get("salt"), rowKdf);
+    }
+
+    private SecretKey kek(KdfParameters parameters) {
+        SecretKey kek = keks.get(parameters);
+        if (kek == null) {
+            throw new CryptoException("No session key for " + parameters);
+        }
+        return kek;
+    }
+
+    private byte[] decrypt(byte[] stored, SecretKey key) {
+        if (stored.length == 0) {
+            return stored;
+        }
+        if (CipherContainer.isContainer(stored)) {
+            return cryptoService.decryptBytes(stored, key);
+        }
+        String legacy = cryptoService.decryptText(new String(stored, StandardCharsets.US_ASCII), CryptoService.convertSecretKeyToString(key));
+        return legacy.getBytes(cryptoService.getConfig().getCharset());
+    }
+
+    private boolean decryptsWith(byte[] stored, SecretKey key) {
+        if (stored.length == 0) {
+            return true;
+        }
+        try {
+            return CipherContainer.isContainer(stored) && cryptoService.decryptBytes(stored, key) != null;
+        } catch (CryptoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether a segmented file is encrypted with the given key.
+     * Authenticating the first segment is enough: every segment key is derived from the file key.
+     */
+    private boolean segmentedDecryptsWith(Path file, SecretKey key) {
+        try {
+            if (cryptoService.plaintextLength(file) == 0) {
+                cryptoService.decryptFile(file, key);
+            } else {
+                cryptoService.decryptRange(file, key, 0, 1);
+            }
+            return true;
+        } catch (CryptoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether a stored file is in the segmented format (see {@link StreamingAead}).
+     */
+    private static boolean isSegmented(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(StreamingAead.MAGIC.length);
+            channel.read(magic, 0);
+            return StreamingAead.hasMagic(magic.array());
+        }
+    }
+
+    private String keyOf(Path file) {
+        return workingContext.displayPath(file.getParent()) + "/" + file.getFileName();
+    }
+
+    private void fail(String key, String message) {
+        failed.incrementAndGet();
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(key + " : " + message);
+        }
+    }
+
+    private void report() {
+        Progress progress;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - lastReportNanos < PROGRESS_INTERVAL_NANOS) {
+                return;
+            }
+            lastReportNanos = now;
+            progress = snapshot();
+        }
+        progressListener.accept(progress);
+    }
+
+    private Progress snapshot() {
+        return new Progress(total, rotated.get(), skipped.get(), failed.get(), bytes.get(),
+                System.nanoTime() - startNanos, new ArrayList<>(errors));
+    }
+
+    /**
+     * Immutable snapshot of the job state.
+     */
+    public static class Progress {
+        public final long total;
+        public final long rotated;
+        public final long skipped;
+        public final long failed;
+        public final long bytes;
+        public final long elapsedNanos;
+        public final List<String> errors;
+
+        Progress(long total, long rotated, long skipped, long failed, long bytes, long elapsedNanos, List<String> errors) {
+            this.total = total;
+            this.rotated = rotated;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.errors = errors;
+        }
+
+        public long getProcessed() {
+            return rotated + skipped + failed;
+        }
+
+        public double getFilesPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : rotated * 1e9 / elapsedNanos;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : (bytes / (1024.0 * 1024.0)) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d fichiers (rechiffrés=%d, déjà faits=%d, échecs=%d) - %.1f fichiers/s, %.2f Mo/s",
+                    getProcessed(), total, rotated, skipped, failed, getFilesPerSecond(), getMegabytesPerSecond());
+        }
+    }
+}
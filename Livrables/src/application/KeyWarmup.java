@@ -0,0 +1,167 @@
+package application;
+
+import domain.exception.CryptoException;
+import infrastructures.security.CryptoService;
+import infrastructures.security.DerivedKeyCache;
+import infrastructures.security.KdfParameters;
+
+import javax.crypto.SecretKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Background key derivations of one session, started right after login so the first
+ * accesses do not pay PBKDF2 on the interactive thread:
+ * <ul>
+ *   <li>the key-encryption keys of older KDF parameters still recorded on file rows
+ *       (see {@link KdfParameters}), which login no longer derives before returning;</li>
+ *   <li>the keys of the most recently used files still in the legacy format (no wrapped key),
+ *       published to the bounded {@link DerivedKeyCache}.</li>
+ * </ul>
+ * Envelope-encrypted files only need an AES unwrap once their KEK is known, so they are not warmed.
+ *
+ * Derivations run on a small pool of daemon threads. {@link #cancel()} (called on logout) interrupts
+ * the pool, and no key is published once it returned: a derivation that finishes late is dropped.
+ */
+public class KeyWarmup {
+    private final String user;
+    private final ExecutorService executor;
+    private final Object publishLock = new Object();
+    private final Set<CompletableFuture<SecretKey>> running = ConcurrentHashMap.newKeySet();
+    private final Map<String, CompletableFuture<SecretKey>> pendingFileKeys = new ConcurrentHashMap<>();
+    private boolean cancelled;
+
+    /**
+     * Constructs the warm-up of a session.
+     *
+     * @param user the user who logged in
+     * @param threads the number of derivations run concurrently
+     */
+    public KeyWarmup(String user, int threads) {
+        this.user = user;
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory daemons = runnable -> {
+            Thread thread = new Thread(runnable, "key-warmup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), daemons);
+    }
+
+    /**
+     * Derives a key in the background.
+     *
+     * @param derivation the derivation to run
+     * @return the future key, cancelled with the warm-up
+     */
+    public CompletableFuture<SecretKey> derive(Supplier<SecretKey> derivation) {
+        CompletableFuture<SecretKey> future = CompletableFuture.supplyAsync(derivation, executor);
+        running.add(future);
+        future.whenComplete((key, error) -> running.remove(future));
+        return future;
+    }
+
+    /**
+     * Derives the keys of legacy files in the background, most recently used first.
+     *
+     * @param rows the file_password rows of the user
+     * @param recentFiles the paths of the files the user used most recently, most recent first
+     * @param limit the maximum number of keys derived
+     * @param userHashedPassword the stored password hash the legacy keys are derived from
+     * @param cryptoService the crypto service
+     * @param keyCache the key store the keys are published to
+     * @return the number of derivations started
+     */
+    public int warmFileKeys(List<Map<String, Object>> rows, List<String> recentFiles, int limit, String userHashedPassword,
+                            CryptoService cryptoService, DerivedKeyCache keyCache) {
+        Map<String, Map<String, Object>> legacyRows = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            if (row.get("wrapped_key") == null) {
+                legacyRows.put((String) row.get("filename"), row);
+            }
+        }
+        int started = 0;
+        for (String file : recentFiles) {
+            Map<String, Object> row = legacyRows.get(file);
+            if (row == null || started >= limit) {
+                continue;
+            }
+            String salt = (String) row.get("salt");
+            KdfParameters kdf = KdfParameters.fromRow(row);
+            CompletableFuture<SecretKey> future = derive(() -> cryptoService.deriveKey(userHashedPassword, salt, kdf));
+            pendingFileKeys.put(salt, future);
+            future.thenAccept(key -> publish(() -> keyCache.put(user, salt, key)))
+                    .whenComplete((ignored, error) -> pendingFileKeys.remove(salt));
+            started++;
+        }
+        return started;
+    }
+
+    /**
+     * Waits for the background derivation of a file key, if one is running.
+     * Lets a read that arrives during the warm-up reuse it instead of deriving the same key twice.
+     *
+     * @param salt the Base64 salt of the file
+     * @return the derived key, or null if no derivation of this key is running or it failed
+     */
+    public SecretKey awaitFileKey(String salt) {
+        CompletableFuture<SecretKey> future = pendingFileKeys.get(salt);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.join();
+        } catch (CancellationException | CompletionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a background key derivation.
+     *
+     * @param future the future returned by {@link #derive}
+     * @return the derived key
+     * @throws CryptoException if the derivation failed or was cancelled by a logout
+     */
+    public static SecretKey await(CompletableFuture<SecretKey> future) {
+        try {
+            return future.join();
+        } catch (CancellationException e) {
+            throw new CryptoException("Key derivation cancelled: please log in again");
+        } catch (CompletionException e) {
+            throw new CryptoException("Key derivation failed: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Stops the warm-up: running derivations are interrupted and nothing is published afterwards.
+     */
+    public void cancel() {
+        synchronized (publishLock) {
+            cancelled = true;
+        }
+        executor.shutdownNow();
+        // queued derivations never run after shutdownNow: cancelling their futures releases the threads waiting on them
+        running.forEach(future -> future.cancel(true));
+        pendingFileKeys.clear();
+    }
+
+    private void publish(Runnable action) {
+        synchronized (publishLock) {
+            if (!cancelled) {
+                action.run();
+            }
+        }
+    }
+}
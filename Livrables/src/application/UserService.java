@@ -1,9 +1,21 @@
 package application;
 
+import domain.exception.CryptoException;
+import infrastructures.database.FilePassword;
+import infrastructures.database.Journalisation;
 import infrastructures.database.User;
+import infrastructures.security.CryptoConfig;
 import infrastructures.security.CryptoService;
+import infrastructures.security.DerivedKeyCache;
+import infrastructures.security.KdfCalibrator;
+import infrastructures.security.KdfParameters;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.SecretKey;
 
 /**
  * Service class for user authentication and management operations.
@@ -11,8 +23,12 @@ import java.util.Map;
 public class UserService {
 
     private User userDatabase;
+    private FilePassword filePassword;
     private static UserService instance;
     private String currentUser;
+    private final Map<KdfParameters, CompletableFuture<SecretKey>> sessionKeks = new ConcurrentHashMap<>();
+    private KdfParameters currentKdf;
+    private KeyWarmup warmup;
 
     /**
      * Private constructor for singleton pattern.
@@ -21,6 +37,7 @@ public class UserService {
      */
     private UserService() throws SQLException {
         this.userDatabase = User.getInstance();
+        this.filePassword = FilePassword.getInstance();
         this.currentUser = null;
     }
 
@@ -76,6 +93,7 @@ public class UserService {
             String hashedPassword = CryptoService.hashPassword(password, salt);
             int userId = userDatabase.createUser(username, hashedPassword, salt);
             if (userId > 0) {
+                userDatabase.updateKekSalt(userId, CryptoService.generateSalt());
                 return "Utilisateur '" + username + "' créé avec succès.";
             } else {
                 return "Erreur: Impossible de créer l'utilisateur.";
@@ -117,9 +135,43 @@ public class UserService {
                 return "Erreur: Mot de passe incorrect.";
             }
 
+            // Derive the key-encryption key once for the session (accounts created before envelope encryption get their salt now)
+            String kekSalt = (String) user.get("kek_salt");
+            if (kekSalt == null) {
+                kekSalt = CryptoService.generateSalt();
+                userDatabase.updateKekSalt((int) user.get("id"), kekSalt);
+            }
+            // One KEK per set of KDF parameters: the calibrated one for new writes, derived now, and the older ones
+            // still recorded on file rows (readable until their next write upgrades them), derived in the background
+            cancelWarmup();
+            CryptoConfig config = CryptoConfig.getInstance();
+            CryptoService cryptoService = new CryptoService(config);
+            KdfParameters kdf = KdfCalibrator.getInstance().getParameters();
+            SecretKey kek = cryptoService.deriveKeyEncryptionKey(password, kekSalt, kdf);
+            List<Map<String, Object>> files = filePassword.getFilePasswordsByUser(username);
+            KeyWarmup sessionWarmup = new KeyWarmup(username, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            Map<KdfParameters, CompletableFuture<SecretKey>> keks = new HashMap<>();
+            keks.put(kdf, CompletableFuture.completedFuture(kek));
+            String sessionKekSalt = kekSalt;
+            for (Map<String, Object> file : files) {
+                KdfParameters fileKdf = KdfParameters.fromRow(file);
+                if (file.get("wrapped_key") != null && !keks.containsKey(fileKdf)) {
+                    keks.put(fileKdf, sessionWarmup.derive(() -> cryptoService.deriveKeyEncryptionKey(password, sessionKekSalt, fileKdf)));
+                }
+            }
+            if (config.getKeyWarmupFiles() > 0) {
+                List<String> recentFiles = Journalisation.getInstance().getRecentFilesByUser(username, config.getKeyWarmupFiles());
+                sessionWarmup.warmFileKeys(files, recentFiles, config.getKeyWarmupFiles(), storedHash, cryptoService, DerivedKeyCache.getInstance());
+            }
+            sessionKeks.putAll(keks);
+            this.currentKdf = kdf;
+            this.warmup = sessionWarmup;
+
             // Set current user
             this.currentUser = username;
             return "Connexion réussie. Bienvenue " + username + ".";
+        } catch (CryptoException e) {
+            return "Erreur: Impossible de dériver la clé de session: " + e.getMessage();
         } catch (SQLException e) {
             System.err.println("Erreur lors de la connexion: " + e.getMessage());
             e.printStackTrace();
@@ -137,6 +189,9 @@ public class UserService {
             return "Erreur: Aucun utilisateur n'est actuellement connecté.";
         }
         String username = currentUser;
+        // stop the warm-up first: once cancelled it no longer publishes keys to the cache
+        cancelWarmup();
+        DerivedKeyCache.getInstance().invalidateUser(username);
         this.currentUser = null;
         return "Déconnexion réussie. Au revoir " + username + ".";
     }
@@ -150,6 +205,76 @@ public class UserService {
         return currentUser;
     }
 
+    /**
+     * Gets the key-encryption key of the current session, derived at login
+     *
+     * @return the KEK of the current user, or null if no user is logged in
+     */
+    public SecretKey getCurrentKek() {
+        return currentKdf == null ? null : getKek(currentKdf);
+    }
+
+    /**
+     * Gets the key-encryption key of the current session derived with the given KDF parameters
+     *
+     * @param kdf the parameters recorded on a file row
+     * @return the matching KEK, or null if no user is logged in or no row used these parameters at login
+     * @throws CryptoException if its background derivation failed
+     */
+    public SecretKey getKek(KdfParameters kdf) {
+        CompletableFuture<SecretKey> kek = sessionKeks.get(kdf);
+        // waits only if the warm-up started after login has not derived it yet
+        return kek == null ? null : KeyWarmup.await(kek);
+    }
+
+    /**
+     * Waits for the key of a legacy file if the warm-up is deriving it.
+     *
+     * @param salt the Base64 salt of the file
+     * @return the key, or null if the warm-up is not deriving it
+     */
+    public SecretKey awaitWarmedFileKey(String salt) {
+        KeyWarmup current = warmup;
+        return current == null ? null : current.awaitFileKey(salt);
+    }
+
+    /**
+     * Gets every key-encryption key of the current session
+     *
+     * @return a copy of the KEKs by KDF parameters, empty if no user is logged in
+     */
+    public Map<KdfParameters, SecretKey> getSessionKeks() {
+        Map<KdfParameters, SecretKey> keks = new HashMap<>();
+        sessionKeks.forEach((kdf, kek) -> keks.put(kdf, KeyWarmup.await(kek)));
+        return keks;
+    }
+
+    /**
+     * Gets the KDF parameters new keys are wrapped with during this session
+     *
+     * @return the calibrated parameters, or null if no user is logged in
+     */
+    public KdfParameters getCurrentKdf() {
+        return currentKdf;
+    }
+
+    private void cancelWarmup() {
+        if (warmup != null) {
+            warmup.cancel();
+            warmup = null;
+        }
+        sessionKeks.clear();
+        currentKdf = null;
+    }
+
+    private SecretKey requireKek(KdfParameters kdf) throws CryptoException {
+        SecretKey kek = getKek(kdf);
+        if (kek == null) {
+            throw new CryptoException("No session key for " + kdf + ": please log in again");
+        }
+        return kek;
+    }
+
     /**
      * Checks if a user is currently logged in
      *
@@ -192,16 +317,35 @@ public class UserService {
                 return "Erreur: L'ancien mot de passe est incorrect.";
             }
 
-            // Update password
+            // Re-wrap every file key under the new KEK: file contents are not re-encrypted
+            CryptoService cryptoService = new CryptoService(CryptoConfig.getInstance());
+            String newKekSalt = CryptoService.generateSalt();
+            KdfParameters kdf = currentKdf;
+            SecretKey newKek = cryptoService.deriveKeyEncryptionKey(newPassword, newKekSalt, kdf);
+            Map<Integer, String> rewrappedKeys = new HashMap<>();
+            List<Map<String, Object>> files = filePassword.getFilePasswordsByUser(currentUser);
+            for (Map<String, Object> file : files) {
+                String wrapped = (String) file.get("wrapped_key");
+                KdfParameters fileKdf = KdfParameters.fromRow(file);
+                SecretKey dataKey = wrapped != null
+                        ? CryptoService.unwrapKey(wrapped, requireKek(fileKdf))
+                        // legacy file: its key was derived from the stored password hash, which is about to change
+                        : cryptoService.deriveKey(storedHash, (String) file.get("salt"), fileKdf);
+                rewrappedKeys.put((int) file.get("id"), CryptoService.wrapKey(dataKey, newKek));
+            }
+
+            // the new hash, both salts and every re-wrapped key are committed together or not at all;
+            // every row ends up wrapped with the calibrated parameters
             String newSalt = CryptoService.generateSalt();
             String newHashedPassword = CryptoService.hashPassword(newPassword, newSalt);
-            int userId = (int) user.get("id");
-            boolean success = userDatabase.updateUser(userId, currentUser, newHashedPassword, newSalt);
-            if (success) {
-                return "Mot de passe changé avec succès.";
-            } else {
-                return "Erreur: Impossible de changer le mot de passe.";
-            }
+            userDatabase.updatePasswordAndKeys((int) user.get("id"), newHashedPassword, newSalt, newKekSalt, rewrappedKeys,
+                    kdf.getAlgorithm(), kdf.getIterations());
+            DerivedKeyCache.getInstance().invalidateUser(currentUser);
+            sessionKeks.clear();
+            sessionKeks.put(kdf, CompletableFuture.completedFuture(newKek));
+            return "Mot de passe changé avec succès.";
+        } catch (CryptoException e) {
+            return "Erreur: Impossible de rechiffrer les clés des fichiers: " + e.getMessage();
         } catch (SQLException e) {
             System.err.println("Erreur lors du changement de mot de passe: " + e.getMessage());
             e.printStackTrace();
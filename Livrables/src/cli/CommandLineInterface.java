@@ -1,9 +1,11 @@
 package cli;
 import java.util.Scanner;
+import java.nio.file.Paths;
 import application.FileService;
 import java.sql.SQLException;
 import application.WorkingContext;
 import application.UserService;
+import domain.exception.CryptoException;
 
 /**
  * Command line interface for the Secure File Manager application.
@@ -32,6 +34,9 @@ public class CommandLineInterface {
         } catch (SQLException e) {
             System.err.println("Erreur lors de l'initialisation de la base de données: " + e.getMessage());
             System.exit(1);
+        } catch (CryptoException e) {
+            System.err.println("Erreur dans la configuration cryptographique (.env): " + e.getMessage());
+            System.exit(1);
         }
     }
     
@@ -49,6 +54,10 @@ public class CommandLineInterface {
         System.out.println(this.MenuRenderer.displayWelcome());
         System.out.println(this.MenuRenderer.displayHelp());
         while (true) {
+            String alerts = fileService.takeIntegrityAlerts();
+            if (!alerts.isEmpty()) {
+                System.out.println(alerts);
+            }
             System.out.print("sfm:" + context.pwd() + "[" + userService.getCurrentUser() + "]> ");
             String line = scanner.nextLine().trim();
 
@@ -103,6 +112,30 @@ public class CommandLineInterface {
                     display = "Contenu du fichier mis à jour.";
                     break;
 
+                case "head":
+                case "tail":
+                    System.out.print("Entrez le nom du fichier à lire: ");
+                    String rangeName = scanner.nextLine().trim();
+                    System.out.print("Nombre d'octets à afficher (défaut 1024): ");
+                    int byteCount = parseOrDefault(scanner.nextLine().trim(), 1024);
+                    long offset = cmd.equals("head") ? 0 : -byteCount;
+                    display = fileService.readRange(context.getCurrent(), rangeName, offset, byteCount);
+                    break;
+
+                case "import":
+                    System.out.print("Entrez le nom du fichier à remplacer: ");
+                    String importName = scanner.nextLine().trim();
+                    System.out.print("Entrez le chemin du fichier en clair à importer: ");
+                    display = fileService.importFile(context.getCurrent(), importName, Paths.get(scanner.nextLine().trim()));
+                    break;
+
+                case "export":
+                    System.out.print("Entrez le nom du fichier à exporter: ");
+                    String exportName = scanner.nextLine().trim();
+                    System.out.print("Entrez le chemin du fichier en clair à écrire: ");
+                    display = fileService.exportFile(context.getCurrent(), exportName, Paths.get(scanner.nextLine().trim()));
+                    break;
+
                 case "cd":
                     System.out.print("Entrez le chemin du répertoire (.. pour remonter): ");
                     String path = scanner.nextLine().trim();
@@ -130,6 +163,34 @@ public class CommandLineInterface {
                     }
                     break;
 
+                case "reload_config":
+                    display = fileService.reloadCryptoConfig();
+                    break;
+
+                case "rotate_keys":
+                    System.out.print("Nombre de fichiers traités en parallèle (défaut 4): ");
+                    int threads = Math.max(1, parseOrDefault(scanner.nextLine().trim(), 4));
+                    System.out.print("Budget d'E/S en Mo/s (0 = illimité): ");
+                    long budget = parseOrDefault(scanner.nextLine().trim(), 0) * 1024L * 1024L;
+                    display = fileService.rotateKeys(threads, budget, progress -> System.out.println("  " + progress));
+                    break;
+
+                case "verify":
+                    System.out.print("Nombre de fichiers vérifiés en parallèle (défaut 4): ");
+                    int verifyThreads = Math.max(1, parseOrDefault(scanner.nextLine().trim(), 4));
+                    System.out.print("Recalculer le hash de tous les fichiers, même inchangés ? (o/N): ");
+                    boolean rehash = scanner.nextLine().trim().toLowerCase().startsWith("o");
+                    display = fileService.verifyIntegrity(verifyThreads, rehash, finding -> System.out.println("  " + finding));
+                    break;
+
+                case "integrity_root":
+                    display = fileService.integrityTree();
+                    break;
+
+                case "integrity_stats":
+                    display = fileService.integrityStats();
+                    break;
+
                 case "exit":
                     System.out.println("Au revoir.");
                     return;
@@ -145,6 +206,21 @@ public class CommandLineInterface {
         }
     }
 
+    /**
+     * Parses a number typed by the user
+     * @param input the typed text
+     * @param defaultValue the value used when the text is empty or not a positive number
+     * @return the parsed number or the default value
+     */
+    private int parseOrDefault(String input, int defaultValue) {
+        try {
+            int value = Integer.parseInt(input);
+            return value >= 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Ensures that a user is authenticated before allowing access to the system
      * @return true if authentication is successful, false otherwise
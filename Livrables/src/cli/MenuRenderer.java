@@ -61,10 +61,18 @@ public class MenuRenderer {
         help += "  delete - supprimer un fichier\n";
         help += "  update - mettre à jour le contenu d'un fichier\n";
         help += "  read  - lire le contenu d'un fichier\n";
+        help += "  head / tail - afficher le début / la fin d'un fichier sans le déchiffrer entièrement\n";
+        help += "  import - remplacer le contenu d'un fichier par un fichier en clair (gros fichiers)\n";
+        help += "  export - déchiffrer un fichier vers un fichier en clair\n";
         help += "  cd    - changer de répertoire\n";
         help += "  login - se connecter\n";
         help += "  register - créer un compte\n";
         help += "  logout - se déconnecter\n";
+        help += "  reload_config - recharger la configuration cryptographique (.env)\n";
+        help += "  rotate_keys - rechiffrer tous ses fichiers avec de nouvelles clés (reprend après interruption)\n";
+        help += "  verify - vérifier l'intégrité de tous les fichiers de la racine\n";
+        help += "  integrity_root - afficher l'empreinte Merkle de la racine et du répertoire courant, et ce qui a changé depuis\n";
+        help += "  integrity_stats - afficher les compteurs du cache de clés, le taux de vérifications d'intégrité évitées (cache), l'avancement du scrubber et la surveillance de la racine\n";
         help += "  exit  - quitter\n";
         return help;
     }
@@ -1,5 +1,7 @@
 package domain.model;
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Interface for encryption and decryption operations.
@@ -53,4 +55,25 @@ public interface Encrypt {
      * @throws Exception if file decryption fails
      */
     File decryptFile(File file,String key) throws  Exception;
+
+    /**
+     * Encrypts a stream using the provided key.
+     * The content is processed in fixed-size segments and is never fully loaded in memory.
+     * 
+     * @param input the plaintext stream
+     * @param output the stream receiving the encrypted content
+     * @param key the encryption key
+     * @throws Exception if stream encryption fails
+     */
+    void encryptStream(InputStream input, OutputStream output, String key) throws Exception;
+    
+    /**
+     * Decrypts a stream using the provided key.
+     * 
+     * @param input the encrypted stream
+     * @param output the stream receiving the decrypted content
+     * @param key the decryption key
+     * @throws Exception if stream decryption fails
+     */
+    void decryptStream(InputStream input, OutputStream output, String key) throws Exception;
 }
\ No newline at end of file
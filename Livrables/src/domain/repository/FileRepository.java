@@ -4,6 +4,7 @@ import domain.exception.FileNotFoundException;
 import domain.exception.FileNotReadableException;   
 import domain.exception.UnknowException;   
 import java.nio.file.Path;
+import java.security.MessageDigest;
 
 /**
  * Interface for file repository operations.
@@ -88,4 +89,45 @@ public interface FileRepository {
      * @throws UnknowException for any other errors
      */
     String update(Path directory, String filename, String newContent) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException;
-}
+
+    /**
+     * Reads the raw content of a file.
+     * 
+     * @param directory the directory path
+     * @param filename the name of the file to read
+     * @return the bytes of the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws FileNotReadableException if the file cannot be read
+     * @throws IllegalArgumentException if the filename is invalid
+     * @throws UnknowException for any other errors
+     */
+    byte[] readBytes(Path directory, String filename) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException;
+    
+    /**
+     * Replaces the raw content of a file.
+     * 
+     * @param directory the directory path
+     * @param filename the name of the file to update
+     * @param newContent the new bytes of the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws FileNotReadableException if the file cannot be written
+     * @throws IllegalArgumentException if the filename is invalid
+     * @throws UnknowException for any other errors
+     */
+    void updateBytes(Path directory, String filename, byte[] newContent) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException;
+
+    /**
+     * Replaces the raw content of a file, feeding every byte written to a digest.
+     * The caller gets the hash of the new content from the write itself, without reading the file back.
+     * 
+     * @param directory the directory path
+     * @param filename the name of the file to update
+     * @param newContent the new bytes of the file
+     * @param digest the digest updated with the bytes as they are written
+     * @throws FileNotFoundException if the file does not exist
+     * @throws FileNotReadableException if the file cannot be written
+     * @throws IllegalArgumentException if the filename is invalid
+     * @throws UnknowException for any other errors
+     */
+    void updateBytes(Path directory, String filename, byte[] newContent, MessageDigest digest) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException;
+}
\ No newline at end of file
@@ -2,12 +2,24 @@ package infrastructures.database;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DatabaseConnection {
 
+    /**
+     * Work run inside a transaction on the shared connection.
+     */
+    @FunctionalInterface
+    public interface Transaction {
+        void run(Connection connection) throws SQLException;
+    }
+
     private static DatabaseConnection instance;
     private Connection connection;
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     private static final String DATABASE_NAME = "db_challenge_technique.db";
     private static final String DATABASE_URL = "jdbc:sqlite:" + DATABASE_NAME;
@@ -30,10 +42,71 @@ public class DatabaseConnection {
         return connection;
     }
 
+    /**
+     * Runs work in a single transaction on the shared connection: committed if it completes, rolled back
+     * if it throws. The write lock is held throughout, so writes made by other threads (background
+     * journal entries) wait for the transaction to end instead of being committed or rolled back with it.
+     *
+     * @param work the statements to run
+     * @throws SQLException if a database access error occurs; nothing is changed in that case
+     */
+    public void inTransaction(Transaction work) throws SQLException {
+        writeLock.lock();
+        try {
+            Connection transactional = getConnection();
+            boolean autoCommit = transactional.getAutoCommit();
+            try {
+                transactional.setAutoCommit(false);
+                work.run(transactional);
+                transactional.commit();
+            } catch (SQLException | RuntimeException e) {
+                transactional.rollback();
+                throw e;
+            } finally {
+                transactional.setAutoCommit(autoCommit);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lock held by {@link #inTransaction}: a write that may come from another thread than the
+     * one running transactions takes it so it is never made inside someone else's transaction.
+     *
+     * @return the write lock of the shared connection
+     */
+    public ReentrantLock getWriteLock() {
+        return writeLock;
+    }
+
     public void closeConnection() throws SQLException {
         if (connection != null && !connection.isClosed()) {
             connection.close();
             System.out.println("Connexion SQLite fermée");
         }
     }
+
+    /**
+     * Adds a column to an existing table if it is not there yet.
+     * Used to migrate databases created by earlier versions (CREATE TABLE IF NOT EXISTS keeps the old schema).
+     *
+     * @param table the table name
+     * @param column the column name
+     * @param definition the column type and constraints, e.g. "TEXT"
+     * @throws SQLException if the schema cannot be read or altered
+     */
+    public void ensureColumn(String table, String column, String definition) throws SQLException {
+        try (Statement statement = getConnection().createStatement();
+             ResultSet columns = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (columns.next()) {
+                if (column.equalsIgnoreCase(columns.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        try (Statement statement = getConnection().createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
 }
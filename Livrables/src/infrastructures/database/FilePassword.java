@@ -13,6 +13,9 @@ public class FilePassword {
     private static final String COLUMN_FILENAME = "filename";
     private static final String COLUMN_USER = "user";
     private static final String COLUMN_SALT = "salt";
+    private static final String COLUMN_WRAPPED_KEY = "wrapped_key";
+    private static final String COLUMN_KDF_ALGORITHM = "kdf_algorithm";
+    private static final String COLUMN_KDF_ITERATIONS = "kdf_iterations";
 
     private DatabaseConnection databaseConnection;
     private static FilePassword instance;
@@ -37,10 +40,17 @@ public class FilePassword {
                 COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 COLUMN_FILENAME + " TEXT NOT NULL, " +
                 COLUMN_USER + " TEXT NOT NULL, " +
-                COLUMN_SALT + " TEXT NOT NULL" +
+                COLUMN_SALT + " TEXT NOT NULL, " +
+                COLUMN_WRAPPED_KEY + " TEXT, " +
+                COLUMN_KDF_ALGORITHM + " TEXT, " +
+                COLUMN_KDF_ITERATIONS + " INTEGER" +
                 ")";
 
         initializeTableWithRetry(createTableSQL, 0);
+        databaseConnection.ensureColumn(TABLE_NAME, COLUMN_WRAPPED_KEY, "TEXT");
+        // rows created before these columns keep NULL: their keys were derived with the legacy parameters
+        databaseConnection.ensureColumn(TABLE_NAME, COLUMN_KDF_ALGORITHM, "TEXT");
+        databaseConnection.ensureColumn(TABLE_NAME, COLUMN_KDF_ITERATIONS, "INTEGER");
     }
 
     private void initializeTableWithRetry(String createTableSQL, int attempt) throws SQLException {
@@ -67,15 +77,49 @@ public class FilePassword {
      * @throws SQLException if a database access error occurs
      */
     public int createFilePassword(String filename, String user, String salt) throws SQLException {
+        return createFilePassword(filename, user, salt, null);
+    }
+
+    /**
+     * Creates a new file password entry holding a wrapped data key (CREATE)
+     *
+     * @param filename   the filename
+     * @param user       the user who owns the password
+     * @param salt       the salt for the file
+     * @param wrappedKey the file data key wrapped with the user's key-encryption key (Base64), or null
+     * @return the id of the created entry, or -1 if an error occurs
+     * @throws SQLException if a database access error occurs
+     */
+    public int createFilePassword(String filename, String user, String salt, String wrappedKey) throws SQLException {
+        return createFilePassword(filename, user, salt, wrappedKey, null, null);
+    }
+
+    /**
+     * Creates a new file password entry holding a wrapped data key and the KDF parameters of its key-encryption key (CREATE)
+     *
+     * @param filename      the filename
+     * @param user          the user who owns the password
+     * @param salt          the salt for the file
+     * @param wrappedKey    the file data key wrapped with the user's key-encryption key (Base64), or null
+     * @param kdfAlgorithm  the PBKDF2 algorithm the key-encryption key was derived with, or null for the legacy one
+     * @param kdfIterations the PBKDF2 iteration count, or null for the legacy one
+     * @return the id of the created entry, or -1 if an error occurs
+     * @throws SQLException if a database access error occurs
+     */
+    public int createFilePassword(String filename, String user, String salt, String wrappedKey, String kdfAlgorithm, Integer kdfIterations) throws SQLException {
         String insertSQL = "INSERT INTO " + TABLE_NAME + " (" +
                 COLUMN_FILENAME + ", " +
                 COLUMN_USER + ", " +
-                COLUMN_SALT + ") VALUES (?, ?, ?)";
+                COLUMN_SALT + ", " +
+                COLUMN_WRAPPED_KEY + ", " +
+                COLUMN_KDF_ALGORITHM + ", " +
+                COLUMN_KDF_ITERATIONS + ") VALUES (?, ?, ?, ?, ?, ?)";
         
-        return createFilePasswordWithRetry(insertSQL, filename, user, salt, 0);
+        return createFilePasswordWithRetry(insertSQL, filename, user, salt, wrappedKey, kdfAlgorithm, kdfIterations, 0);
     }
 
-    private int createFilePasswordWithRetry(String insertSQL, String filename, String user, String salt, int attempt) throws SQLException {
+    private int createFilePasswordWithRetry(String insertSQL, String filename, String user, String salt, String wrappedKey,
+                                            String kdfAlgorithm, Integer kdfIterations, int attempt) throws SQLException {
         if (attempt > 3) {
             throw new SQLException("File password creation failed: Timeout after multiple attempts");
         }
@@ -87,6 +131,9 @@ public class FilePassword {
             preparedStatement.setString(1, filename);
             preparedStatement.setString(2, user);
             preparedStatement.setString(3, salt);
+            preparedStatement.setString(4, wrappedKey);
+            preparedStatement.setString(5, kdfAlgorithm);
+            preparedStatement.setObject(6, kdfIterations);
 
             preparedStatement.executeUpdate();
 
@@ -98,7 +145,7 @@ public class FilePassword {
             }
             throw new SQLException("Creating file password failed, no ID obtained.");
         } catch (SQLTimeoutException e) {
-            return createFilePasswordWithRetry(insertSQL, filename, user, salt, attempt + 1);
+            return createFilePasswordWithRetry(insertSQL, filename, user, salt, wrappedKey, kdfAlgorithm, kdfIterations, attempt + 1);
         }
     }
 
@@ -164,6 +211,108 @@ public class FilePassword {
         }
     }
 
+    /**
+     * Retrieves every file password entry owned by a user (READ)
+     *
+     * @param user the owner
+     * @return the entries, possibly empty
+     */
+    public List<Map<String, Object>> getFilePasswordsByUser(String user) throws SQLException {
+        String selectSQL = "SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_USER + " = ?";
+        return getFilePasswordsByUserWithRetry(selectSQL, user, 0);
+    }
+
+    private List<Map<String, Object>> getFilePasswordsByUserWithRetry(String selectSQL, String user, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("File password retrieval failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(selectSQL);
+            preparedStatement.setString(1, user);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<Map<String, Object>> entries = new ArrayList<>();
+            while (resultSet.next()) {
+                entries.add(mapResultSetToMap(resultSet));
+            }
+            return entries;
+        } catch (SQLTimeoutException e) {
+            return getFilePasswordsByUserWithRetry(selectSQL, user, attempt + 1);
+        }
+    }
+
+    /**
+     * Replaces the wrapped data keys of several entries in a single transaction (UPDATE)
+     *
+     * @param wrappedKeys the new wrapped key (Base64) of each entry, by entry id
+     * @throws SQLException if a database access error occurs; no entry is changed in that case
+     */
+    public void updateWrappedKeys(Map<Integer, String> wrappedKeys) throws SQLException {
+        String updateSQL = "UPDATE " + TABLE_NAME + " SET " + COLUMN_WRAPPED_KEY + " = ? WHERE " + COLUMN_ID + " = ?";
+        updateWrappedKeys(updateSQL, wrappedKeys, false, null, null);
+    }
+
+    /**
+     * Replaces the wrapped data keys of several entries and records the KDF parameters of the
+     * key-encryption key they are now wrapped with, in a single transaction (UPDATE)
+     *
+     * @param wrappedKeys   the new wrapped key (Base64) of each entry, by entry id
+     * @param kdfAlgorithm  the PBKDF2 algorithm of the key-encryption key, or null for the legacy one
+     * @param kdfIterations the PBKDF2 iteration count of the key-encryption key, or null for the legacy one
+     * @throws SQLException if a database access error occurs; no entry is changed in that case
+     */
+    public void updateWrappedKeys(Map<Integer, String> wrappedKeys, String kdfAlgorithm, Integer kdfIterations) throws SQLException {
+        String updateSQL = "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_WRAPPED_KEY + " = ?, " +
+                COLUMN_KDF_ALGORITHM + " = ?, " +
+                COLUMN_KDF_ITERATIONS + " = ? WHERE " + COLUMN_ID + " = ?";
+        updateWrappedKeys(updateSQL, wrappedKeys, true, kdfAlgorithm, kdfIterations);
+    }
+
+    private void updateWrappedKeys(String updateSQL, Map<Integer, String> wrappedKeys, boolean withKdf,
+                                   String kdfAlgorithm, Integer kdfIterations) throws SQLException {
+        databaseConnection.inTransaction(connection ->
+                writeWrappedKeys(connection, updateSQL, wrappedKeys, withKdf, kdfAlgorithm, kdfIterations));
+    }
+
+    /**
+     * Replaces the wrapped data keys and KDF parameters of several entries inside a transaction
+     * run by the caller on the shared connection (see {@link User#updatePasswordAndKeys}).
+     * Does not commit nor roll back.
+     *
+     * @param connection    the connection the caller's transaction runs on
+     * @param wrappedKeys   the new wrapped key (Base64) of each entry, by entry id
+     * @param kdfAlgorithm  the PBKDF2 algorithm of the key-encryption key
+     * @param kdfIterations the PBKDF2 iteration count of the key-encryption key
+     * @throws SQLException if a database access error occurs
+     */
+    void writeWrappedKeys(Connection connection, Map<Integer, String> wrappedKeys, String kdfAlgorithm, Integer kdfIterations) throws SQLException {
+        String updateSQL = "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_WRAPPED_KEY + " = ?, " +
+                COLUMN_KDF_ALGORITHM + " = ?, " +
+                COLUMN_KDF_ITERATIONS + " = ? WHERE " + COLUMN_ID + " = ?";
+        writeWrappedKeys(connection, updateSQL, wrappedKeys, true, kdfAlgorithm, kdfIterations);
+    }
+
+    private void writeWrappedKeys(Connection connection, String updateSQL, Map<Integer, String> wrappedKeys, boolean withKdf,
+                                  String kdfAlgorithm, Integer kdfIterations) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(updateSQL)) {
+            for (Map.Entry<Integer, String> entry : wrappedKeys.entrySet()) {
+                int index = 1;
+                preparedStatement.setString(index++, entry.getValue());
+                if (withKdf) {
+                    preparedStatement.setString(index++, kdfAlgorithm);
+                    preparedStatement.setObject(index++, kdfIterations);
+                }
+                preparedStatement.setInt(index, entry.getKey());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
     /**
      * Updates a file password entry (UPDATE)
      *
@@ -200,6 +349,59 @@ public class FilePassword {
         return false;
     }
 
+    /**
+     * Replaces the salt and wrapped data key of an entry after its file was re-encrypted (UPDATE)
+     *
+     * @param id         the id of the entry to update
+     * @param salt       the new salt
+     * @param wrappedKey the new wrapped data key (Base64)
+     * @return true if the update succeeded, false otherwise
+     */
+    public boolean updateKey(int id, String salt, String wrappedKey) throws SQLException {
+        return updateKey(id, salt, wrappedKey, null, null);
+    }
+
+    /**
+     * Replaces the salt, wrapped data key and KDF parameters of an entry after its file was re-encrypted (UPDATE)
+     *
+     * @param id            the id of the entry to update
+     * @param salt          the new salt
+     * @param wrappedKey    the new wrapped data key (Base64)
+     * @param kdfAlgorithm  the PBKDF2 algorithm of the key-encryption key, or null for the legacy one
+     * @param kdfIterations the PBKDF2 iteration count of the key-encryption key, or null for the legacy one
+     * @return true if the update succeeded, false otherwise
+     */
+    public boolean updateKey(int id, String salt, String wrappedKey, String kdfAlgorithm, Integer kdfIterations) throws SQLException {
+        String updateSQL = "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_SALT + " = ?, " +
+                COLUMN_WRAPPED_KEY + " = ?, " +
+                COLUMN_KDF_ALGORITHM + " = ?, " +
+                COLUMN_KDF_ITERATIONS + " = ? WHERE " + COLUMN_ID + " = ?";
+        return updateKeyWithRetry(updateSQL, id, salt, wrappedKey, kdfAlgorithm, kdfIterations, 0);
+    }
+
+    private boolean updateKeyWithRetry(String updateSQL, int id, String salt, String wrappedKey, String kdfAlgorithm,
+                                       Integer kdfIterations, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("File password update failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(updateSQL);
+
+            preparedStatement.setString(1, salt);
+            preparedStatement.setString(2, wrappedKey);
+            preparedStatement.setString(3, kdfAlgorithm);
+            preparedStatement.setObject(4, kdfIterations);
+            preparedStatement.setInt(5, id);
+
+            return preparedStatement.executeUpdate() > 0;
+        } catch (SQLTimeoutException e) {
+            return updateKeyWithRetry(updateSQL, id, salt, wrappedKey, kdfAlgorithm, kdfIterations, attempt + 1);
+        }
+    }
+
     /**
      * Deletes a file password entry (DELETE)
      *
@@ -277,6 +479,9 @@ public class FilePassword {
         map.put(COLUMN_FILENAME, resultSet.getString(COLUMN_FILENAME));
         map.put(COLUMN_USER, resultSet.getString(COLUMN_USER));
         map.put(COLUMN_SALT, resultSet.getString(COLUMN_SALT));
+        map.put(COLUMN_WRAPPED_KEY, resultSet.getString(COLUMN_WRAPPED_KEY));
+        map.put(COLUMN_KDF_ALGORITHM, resultSet.getString(COLUMN_KDF_ALGORITHM));
+        map.put(COLUMN_KDF_ITERATIONS, resultSet.getObject(COLUMN_KDF_ITERATIONS));
         return map;
     }
 }
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class Journalisation {
@@ -78,7 +79,14 @@ public class Journalisation {
                 COLUMN_ACTION_TYPE + ", " +
                 COLUMN_FILE + ") VALUES (?, ?, ?, ?)";
         
-        return createLogWithRetry(insertSQL, user, actionType, file, 0);
+        // the integrity scrubber and watcher journal from their own threads: never inside a key transaction
+        ReentrantLock writeLock = databaseConnection.getWriteLock();
+        writeLock.lock();
+        try {
+            return createLogWithRetry(insertSQL, user, actionType, file, 0);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     private int createLogWithRetry(String insertSQL, String user, String actionType, String file, int attempt) throws SQLException {
@@ -140,6 +148,42 @@ public class Journalisation {
         }
     }
 
+    /**
+     * Retrieves the files a user accessed most recently, most recent first (READ)
+     *
+     * @param user  the user
+     * @param limit the maximum number of files returned
+     * @return the paths of the files, as recorded in the log
+     */
+    public List<String> getRecentFilesByUser(String user, int limit) throws SQLException {
+        String selectSQL = "SELECT " + COLUMN_FILE + ", MAX(" + COLUMN_DATE + ") AS last_access FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_USER + " = ? AND " + COLUMN_ACTION_TYPE + " IN ('READ', 'READ_RANGE', 'UPDATE', 'CREATE', 'IMPORT', 'EXPORT')" +
+                " GROUP BY " + COLUMN_FILE + " ORDER BY last_access DESC LIMIT ?";
+        return getRecentFilesByUserWithRetry(selectSQL, user, limit, 0);
+    }
+
+    private List<String> getRecentFilesByUserWithRetry(String selectSQL, String user, int limit, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("Log retrieval failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(selectSQL);
+            preparedStatement.setString(1, user);
+            preparedStatement.setInt(2, limit);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            List<String> files = new ArrayList<>();
+            while (resultSet.next()) {
+                files.add(resultSet.getString(COLUMN_FILE));
+            }
+            return files;
+        } catch (SQLTimeoutException e) {
+            return getRecentFilesByUserWithRetry(selectSQL, user, limit, attempt + 1);
+        }
+    }
+
     /**
      * Updates a journalisation entry (UPDATE)
      *
@@ -0,0 +1,206 @@
+package infrastructures.database;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checkpoints of the key rotation job, one row per file and per job.
+ * A file is PENDING once its new key has been chosen (the new salt and wrapped key are kept
+ * here before the file is replaced) and DONE once file_password points to the new key.
+ */
+public class RotationCheckpoint {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_DONE = "DONE";
+
+    private static final String TABLE_NAME = "rotation_checkpoint";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_JOB = "job";
+    private static final String COLUMN_FILENAME = "filename";
+    private static final String COLUMN_STATUS = "status";
+    private static final String COLUMN_SALT = "salt";
+    private static final String COLUMN_WRAPPED_KEY = "wrapped_key";
+
+    private DatabaseConnection databaseConnection;
+    private static RotationCheckpoint instance;
+
+    private RotationCheckpoint() throws SQLException {
+        this.databaseConnection = DatabaseConnection.getInstance();
+        initializeTable();
+    }
+
+    public static synchronized RotationCheckpoint getInstance() throws SQLException {
+        if (instance == null) {
+            instance = new RotationCheckpoint();
+        }
+        return instance;
+    }
+
+    /**
+     * Initializes the rotation_checkpoint table if it does not exist
+     */
+    private void initializeTable() throws SQLException {
+        String createTableSQL = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_JOB + " TEXT NOT NULL, " +
+                COLUMN_FILENAME + " TEXT NOT NULL, " +
+                COLUMN_STATUS + " TEXT NOT NULL, " +
+                COLUMN_SALT + " TEXT, " +
+                COLUMN_WRAPPED_KEY + " TEXT, " +
+                "UNIQUE (" + COLUMN_JOB + ", " + COLUMN_FILENAME + ")" +
+                ")";
+
+        initializeTableWithRetry(createTableSQL, 0);
+    }
+
+    private void initializeTableWithRetry(String createTableSQL, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("Table initialization failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            Statement statement = connection.createStatement();
+            statement.execute(createTableSQL);
+        } catch (SQLTimeoutException e) {
+            initializeTableWithRetry(createTableSQL, attempt + 1);
+        }
+    }
+
+    /**
+     * Records the new key of a file before the file is replaced (INSERT or UPDATE)
+     *
+     * @param job        the job name
+     * @param filename   the file path as stored in file_password
+     * @param salt       the new salt
+     * @param wrappedKey the new wrapped data key (Base64)
+     * @throws SQLException if a database access error occurs
+     */
+    public void markPending(String job, String filename, String salt, String wrappedKey) throws SQLException {
+        String upsertSQL = "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+                COLUMN_JOB + ", " +
+                COLUMN_FILENAME + ", " +
+                COLUMN_STATUS + ", " +
+                COLUMN_SALT + ", " +
+                COLUMN_WRAPPED_KEY + ") VALUES (?, ?, ?, ?, ?)";
+
+        upsertWithRetry(upsertSQL, job, filename, STATUS_PENDING, salt, wrappedKey, 0);
+    }
+
+    /**
+     * Marks a file as fully rotated (UPDATE)
+     *
+     * @param job      the job name
+     * @param filename the file path as stored in file_password
+     * @throws SQLException if a database access error occurs
+     */
+    public void markDone(String job, String filename) throws SQLException {
+        String upsertSQL = "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+                COLUMN_JOB + ", " +
+                COLUMN_FILENAME + ", " +
+                COLUMN_STATUS + ", " +
+                COLUMN_SALT + ", " +
+                COLUMN_WRAPPED_KEY + ") VALUES (?, ?, ?, NULL, NULL)";
+
+        upsertWithRetry(upsertSQL, job, filename, STATUS_DONE, null, null, 0);
+    }
+
+    private void upsertWithRetry(String upsertSQL, String job, String filename, String status, String salt, String wrappedKey, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("Checkpoint update failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(upsertSQL);
+
+            preparedStatement.setString(1, job);
+            preparedStatement.setString(2, filename);
+            preparedStatement.setString(3, status);
+            if (salt != null) {
+                preparedStatement.setString(4, salt);
+                preparedStatement.setString(5, wrappedKey);
+            }
+
+            preparedStatement.executeUpdate();
+        } catch (SQLTimeoutException e) {
+            upsertWithRetry(upsertSQL, job, filename, status, salt, wrappedKey, attempt + 1);
+        }
+    }
+
+    /**
+     * Retrieves the checkpoints of a job (READ)
+     *
+     * @param job the job name
+     * @return the checkpoints by filename, empty if the job never ran or has completed
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<String, Map<String, Object>> getCheckpoints(String job) throws SQLException {
+        String selectSQL = "SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_JOB + " = ?";
+        return getCheckpointsWithRetry(selectSQL, job, 0);
+    }
+
+    private Map<String, Map<String, Object>> getCheckpointsWithRetry(String selectSQL, String job, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("Checkpoint retrieval failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(selectSQL);
+            preparedStatement.setString(1, job);
+
+            ResultSet resultSet = preparedStatement.executeQuery();
+            Map<String, Map<String, Object>> checkpoints = new HashMap<>();
+            while (resultSet.next()) {
+                Map<String, Object> checkpoint = mapResultSetToMap(resultSet);
+                checkpoints.put((String) checkpoint.get(COLUMN_FILENAME), checkpoint);
+            }
+            return checkpoints;
+        } catch (SQLTimeoutException e) {
+            return getCheckpointsWithRetry(selectSQL, job, attempt + 1);
+        }
+    }
+
+    /**
+     * Deletes every checkpoint of a job once it has completed (DELETE)
+     *
+     * @param job the job name
+     * @return the number of deleted rows
+     * @throws SQLException if a database access error occurs
+     */
+    public int deleteJob(String job) throws SQLException {
+        String deleteSQL = "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_JOB + " = ?";
+        return deleteJobWithRetry(deleteSQL, job, 0);
+    }
+
+    private int deleteJobWithRetry(String deleteSQL, String job, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("Checkpoint deletion failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(deleteSQL);
+            preparedStatement.setString(1, job);
+            return preparedStatement.executeUpdate();
+        } catch (SQLTimeoutException e) {
+            return deleteJobWithRetry(deleteSQL, job, attempt + 1);
+        }
+    }
+
+    /**
+     * Maps a ResultSet row to a Map
+     */
+    private Map<String, Object> mapResultSetToMap(ResultSet resultSet) throws SQLException {
+        Map<String, Object> map = new HashMap<>();
+        map.put(COLUMN_ID, resultSet.getInt(COLUMN_ID));
+        map.put(COLUMN_JOB, resultSet.getString(COLUMN_JOB));
+        map.put(COLUMN_FILENAME, resultSet.getString(COLUMN_FILENAME));
+        map.put(COLUMN_STATUS, resultSet.getString(COLUMN_STATUS));
+        map.put(COLUMN_SALT, resultSet.getString(COLUMN_SALT));
+        map.put(COLUMN_WRAPPED_KEY, resultSet.getString(COLUMN_WRAPPED_KEY));
+        return map;
+    }
+}
@@ -11,6 +11,7 @@ public class User {
     private static final String COLUMN_USER = "user";
     private static final String COLUMN_PASSWORD = "password";
     private static final String COLUMN_SALT = "salt";
+    private static final String COLUMN_KEK_SALT = "kek_salt";
 
     private DatabaseConnection databaseConnection;
     private static User instance;
@@ -35,10 +36,12 @@ public class User {
                 COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 COLUMN_USER + " TEXT NOT NULL UNIQUE, " +
                 COLUMN_PASSWORD + " TEXT NOT NULL, " +
-                COLUMN_SALT + " TEXT NOT NULL" +
+                COLUMN_SALT + " TEXT NOT NULL, " +
+                COLUMN_KEK_SALT + " TEXT" +
                 ")";
 
         initializeTableWithRetry(createTableSQL, 0);
+        databaseConnection.ensureColumn(TABLE_NAME, COLUMN_KEK_SALT, "TEXT");
     }
 
     private void initializeTableWithRetry(String createTableSQL, int attempt) throws SQLException {
@@ -209,6 +212,70 @@ public class User {
         return false;
     }
 
+    /**
+     * Sets the salt of the user's key-encryption key (UPDATE)
+     *
+     * @param id      the id of the user
+     * @param kekSalt the salt (Base64) used to derive the key-encryption key from the password
+     * @return true if the update succeeded, false otherwise
+     */
+    public boolean updateKekSalt(int id, String kekSalt) throws SQLException {
+        String updateSQL = "UPDATE " + TABLE_NAME + " SET " + COLUMN_KEK_SALT + " = ? WHERE " + COLUMN_ID + " = ?";
+        return updateKekSaltWithRetry(updateSQL, id, kekSalt, 0);
+    }
+
+    private boolean updateKekSaltWithRetry(String updateSQL, int id, String kekSalt, int attempt) throws SQLException {
+        if (attempt > 3) {
+            throw new SQLException("User update failed: Timeout after multiple attempts");
+        }
+
+        try {
+            Connection connection = databaseConnection.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(updateSQL);
+
+            preparedStatement.setString(1, kekSalt);
+            preparedStatement.setInt(2, id);
+
+            return preparedStatement.executeUpdate() > 0;
+        } catch (SQLTimeoutException e) {
+            return updateKekSaltWithRetry(updateSQL, id, kekSalt, attempt + 1);
+        }
+    }
+
+    /**
+     * Replaces the password hash, the password salt and the key-encryption key salt of a user together with
+     * the data keys of the user's files re-wrapped under the new key-encryption key, in a single transaction (UPDATE)
+     *
+     * @param id             the id of the user
+     * @param hashedPassword the new hashed password
+     * @param salt           the salt of the new hash
+     * @param kekSalt        the salt (Base64) of the new key-encryption key
+     * @param wrappedKeys    the data keys wrapped under the new key-encryption key, by file_password id
+     * @param kdfAlgorithm   the PBKDF2 algorithm of the new key-encryption key
+     * @param kdfIterations  the PBKDF2 iteration count of the new key-encryption key
+     * @throws SQLException if a database access error occurs; nothing is changed in that case
+     */
+    public void updatePasswordAndKeys(int id, String hashedPassword, String salt, String kekSalt, Map<Integer, String> wrappedKeys,
+                                      String kdfAlgorithm, Integer kdfIterations) throws SQLException {
+        String updateSQL = "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_PASSWORD + " = ?, " +
+                COLUMN_SALT + " = ?, " +
+                COLUMN_KEK_SALT + " = ? WHERE " + COLUMN_ID + " = ?";
+        FilePassword filePassword = FilePassword.getInstance();
+        databaseConnection.inTransaction(connection -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(updateSQL)) {
+                preparedStatement.setString(1, hashedPassword);
+                preparedStatement.setString(2, salt);
+                preparedStatement.setString(3, kekSalt);
+                preparedStatement.setInt(4, id);
+                if (preparedStatement.executeUpdate() == 0) {
+                    throw new SQLException("User update failed: no user with id " + id);
+                }
+            }
+            filePassword.writeWrappedKeys(connection, wrappedKeys, kdfAlgorithm, kdfIterations);
+        });
+    }
+
     /**
      * Deletes a user entry (DELETE)
      *
@@ -286,6 +353,7 @@ public class User {
         map.put(COLUMN_USER, resultSet.getString(COLUMN_USER));
         map.put(COLUMN_PASSWORD, resultSet.getString(COLUMN_PASSWORD));
         map.put(COLUMN_SALT, resultSet.getString(COLUMN_SALT));
+        map.put(COLUMN_KEK_SALT, resultSet.getString(COLUMN_KEK_SALT));
         return map;
     }
 }
@@ -0,0 +1,61 @@
+package infrastructures.filesystem;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the I/O throughput of background jobs.
+ * The bucket holds at most one second of budget; a caller that takes more than what is
+ * available goes into debt and sleeps until the debt is paid back, so the average rate
+ * stays at the budget whatever the size of the requests.
+ * Shared by all the worker threads of a job.
+ */
+public class IoThrottle {
+    private final long bytesPerSecond;
+    private double available;
+    private long lastRefill;
+
+    /**
+     * Constructs a throttle.
+     *
+     * @param bytesPerSecond the I/O budget, 0 or less for no limit
+     */
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = Math.max(0, bytesPerSecond);
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return a throttle that never waits
+     */
+    public static IoThrottle unlimited() {
+        return new IoThrottle(0);
+    }
+
+    /**
+     * Takes bytes from the budget, sleeping if the budget is exhausted.
+     *
+     * @param bytes the number of bytes about to be read or written
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(bytesPerSecond, available + (now - lastRefill) * (bytesPerSecond / 1e9));
+            lastRefill = now;
+            available -= bytes;
+            waitNanos = available >= 0 ? 0 : (long) (-available * 1e9 / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
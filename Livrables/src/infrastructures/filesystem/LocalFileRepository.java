@@ -5,10 +5,18 @@ import domain.exception.FileNotReadableException;
 import domain.exception.UnknowException;
 import domain.repository.FileRepository;
 
+import infrastructures.security.DigestingChannel;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,6 +28,7 @@ public class LocalFileRepository implements FileRepository {
     private static final String RESET = "\u001B[0m";
     private static final String BLUE = "\u001B[34m";
     private static final String WHITE = "\u001B[37m";
+    private static final int WRITE_CHUNK_SIZE = 64 * 1024;
 
     /**
      * Creates a new file in the specified directory.
@@ -210,4 +219,101 @@ public class LocalFileRepository implements FileRepository {
             throw new UnknowException("Unknown error while updating file: " + filename);
         }
     }
+
+    /**
+     * Reads the raw content of a file, without any String conversion.
+     * 
+     * @param directory the directory path containing the file
+     * @param filename the name of the file to read
+     * @return the bytes of the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws FileNotReadableException if the file is not readable
+     * @throws IllegalArgumentException if the filename is invalid
+     * @throws UnknowException for any other file system errors
+     */
+    @Override
+    public byte[] readBytes(Path directory, String filename) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException {
+        if(filename == null || filename.trim().isEmpty() || directory == null) {
+            throw new IllegalArgumentException("Filename cannot be null or empty");
+        }
+        Path file = directory.resolve(filename);
+        if(!Files.exists(file)) {
+            throw new FileNotFoundException("File not found: " + filename);
+        }
+        if(!Files.isReadable(file)) {
+            throw new FileNotReadableException("File not readable: " + filename);
+        }
+
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UnknowException("Unknown error while reading file: " + filename);
+        }
+    }
+
+    /**
+     * Replaces the raw content of a file.
+     * 
+     * @param directory the directory path containing the file
+     * @param filename the name of the file to update
+     * @param newContent the new bytes of the file
+     * @throws FileNotFoundException if the file does not exist
+     * @throws FileNotReadableException if the file is not writable
+     * @throws IllegalArgumentException if the filename is invalid
+     * @throws UnknowException for any other file system errors
+     */
+    @Override
+    public void updateBytes(Path directory, String filename, byte[] newContent) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException {
+        updateBytes(directory, filename, newContent, null);
+    }
+
+    /**
+     * Replaces the raw content of a file, feeding every byte written to a digest.
+     * 
+     * @param directory the directory path containing the file
+     * @param filename the name of the file to update
+     * @param newContent the new bytes of the file
+     * @param digest the digest updated with the bytes as they are written, or null
+     * @throws FileNotFoundException if the file does not exist
+     * @throws FileNotReadableException if the file cannot be written
+     * @throws IllegalArgumentException if the filename is invalid
+     * @throws UnknowException for any other file system errors
+     */
+    @Override
+    public void updateBytes(Path directory, String filename, byte[] newContent, MessageDigest digest) throws FileNotFoundException, FileNotReadableException, IllegalArgumentException, UnknowException {
+        if(filename == null || filename.trim().isEmpty() || directory == null) {
+            throw new IllegalArgumentException("Filename cannot be null or empty");
+        }
+        Path file = directory.resolve(filename);
+        if(!Files.exists(file)) {
+            throw new FileNotFoundException("File not found: " + filename);
+        }
+        if(!Files.isWritable(file)) {
+            throw new FileNotReadableException("File not writable: " + filename);
+        }
+
+        // written to a temporary file then moved over the original: the file is never truncated under
+        // a reader's memory mapping (SIGBUS), and a failed write leaves the previous content in place
+        Path temp = file.resolveSibling("." + filename + ".writing");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                WritableByteChannel out = digest == null ? channel : new DigestingChannel(channel, digest);
+                // written by slices: a single large heap buffer would be copied into an equally large temporary direct buffer
+                for (int offset = 0; offset < newContent.length; offset += WRITE_CHUNK_SIZE) {
+                    ByteBuffer buffer = ByteBuffer.wrap(newContent, offset, Math.min(WRITE_CHUNK_SIZE, newContent.length - offset));
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // hidden file, overwritten by the next update
+            }
+            throw new UnknowException("Unknown error while updating file: " + filename);
+        }
+    }
 }
\ No newline at end of file
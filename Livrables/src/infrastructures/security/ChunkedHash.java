@@ -0,0 +1,313 @@
+package infrastructures.security;
+
+import domain.exception.UnknowException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Tree hash of a large file: the content is cut into fixed-size chunks, each chunk is hashed on its own
+ * (leaf = SHA-256(0x00 | chunk)) and the root is the hash of the leaves
+ * (root = SHA-256(0x01 | chunk size | file size | leaves)).
+ *
+ * The leaves are independent, so a whole file is hashed in parallel on the ForkJoin pool of the caller;
+ * with the leaves of a previous hash, only the chunks known to have changed are hashed again
+ * ({@link #rehash}), and comparing two sets of leaves tells which chunks differ ({@link #changedChunks}).
+ *
+ * In an integrity entry the root is written as "tree:&lt;chunk size&gt;:&lt;root hex&gt;", so it is never
+ * taken for the plain SHA-256 of the file.
+ */
+public final class ChunkedHash {
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+    /** Files from this size on get a tree hash: below it, one sequential SHA-256 is as fast. */
+    public static final long TREE_THRESHOLD = 64L << 20;
+    private static final String PREFIX = "tree:";
+    private static final int DIGEST_BYTES = 32;
+    private static final int READ_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_SIZE));
+
+    private final int chunkSize;
+    private final long size;
+    private final byte[] leaves;
+    private final byte[] root;
+
+    ChunkedHash(int chunkSize, long size, byte[] leaves) {
+        this.chunkSize = chunkSize;
+        this.size = size;
+        this.leaves = leaves;
+        this.root = rootOf(chunkSize, size, leaves);
+    }
+
+    /**
+     * Hashes a file, its chunks in parallel.
+     *
+     * @param file the file to hash
+     * @param chunkSize the size of the chunks
+     * @return the tree hash of the file
+     * @throws UnknowException if the file cannot be read
+     */
+    public static ChunkedHash compute(Path file, int chunkSize) {
+        return rehash(file, chunkSize, null, null);
+    }
+
+    /**
+     * Hashes a file again, reusing the leaves of its previous hash for the chunks that did not change.
+     * Chunks past the previous end of the file, and the previous last chunk if it was partial, are always hashed.
+     *
+     * @param file the file to hash
+     * @param previous the previous hash of the file
+     * @param dirtyChunks the indexes of the chunks written since the previous hash
+     * @return the tree hash of the file
+     * @throws UnknowException if the file cannot be read
+     */
+    public static ChunkedHash rehash(Path file, ChunkedHash previous, BitSet dirtyChunks) {
+        return rehash(file, previous.chunkSize, previous, dirtyChunks);
+    }
+
+    private static ChunkedHash rehash(Path file, int chunkSize, ChunkedHash previous, BitSet dirtyChunks) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = chunkCount(size, chunkSize);
+            byte[] leaves = new byte[count * DIGEST_BYTES];
+            int reusable = 0;
+            if (previous != null) {
+                // only chunks that were full and still are: a partial last chunk may have been extended or cut
+                reusable = (int) (Math.min(previous.size, size) / chunkSize);
+                System.arraycopy(previous.leaves, 0, leaves, 0, reusable * DIGEST_BYTES);
+            }
+            int firstFresh = reusable;
+            IntStream.range(0, count)
+                    .filter(i -> i >= firstFresh || dirtyChunks.get(i))
+                    .parallel()
+                    .forEach(i -> readLeaf(channel, i, chunkSize, size, leaves));
+            return new ChunkedHash(chunkSize, size, leaves);
+        } catch (IOException | UncheckedIOException e) {
+            throw new UnknowException("Impossible de lire le fichier pour calculer le hash : " + file);
+        }
+    }
+
+    private static void readLeaf(FileChannel channel, int index, int chunkSize, long size, byte[] leaves) {
+        MessageDigest digest = HashService.newSha256();
+        digest.update((byte) 0);
+        ByteBuffer buffer = BUFFERS.get();
+        long position = (long) index * chunkSize;
+        long end = Math.min(size, position + chunkSize);
+        try {
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("file shrank while it was hashed");
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+            }
+            digest.digest(leaves, index * DIGEST_BYTES, DIGEST_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes content already in memory, its chunks in parallel.
+     *
+     * @param content the content to hash
+     * @param chunkSize the size of the chunks
+     * @return the tree hash of the content
+     */
+    public static ChunkedHash of(byte[] content, int chunkSize) {
+        int count = chunkCount(content.length, chunkSize);
+        byte[] leaves = new byte[count * DIGEST_BYTES];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            MessageDigest digest = HashService.newSha256();
+            digest.update((byte) 0);
+            int from = i * chunkSize;
+            digest.update(content, from, Math.min(chunkSize, content.length - from));
+            System.arraycopy(digest.digest(), 0, leaves, i * DIGEST_BYTES, DIGEST_BYTES);
+        });
+        return new ChunkedHash(chunkSize, content.length, leaves);
+    }
+
+    private static int chunkCount(long size, int chunkSize) {
+        long count = (size + chunkSize - 1) / chunkSize;
+        if (count * DIGEST_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many chunks, use a larger chunk size");
+        }
+        return (int) count;
+    }
+
+    private static byte[] rootOf(int chunkSize, long size, byte[] leaves) {
+        MessageDigest digest = HashService.newSha256();
+        digest.update((byte) 1);
+        digest.update(ByteBuffer.allocate(12).putInt(chunkSize).putLong(size).flip());
+        digest.update(leaves);
+        return digest.digest();
+    }
+
+    /**
+     * Lists the chunks whose leaves differ from another hash of the same file.
+     *
+     * @param other the other hash, with the same chunk size
+     * @return the indexes of the chunks that differ, including chunks present in only one of the hashes
+     */
+    public BitSet changedChunks(ChunkedHash other) {
+        BitSet changed = new BitSet();
+        int count = Math.max(getChunkCount(), other.getChunkCount());
+        for (int i = 0; i < count; i++) {
+            if (other.chunkSize != chunkSize || i >= getChunkCount() || i >= other.getChunkCount()
+                    || !Arrays.equals(leaves, i * DIGEST_BYTES, (i + 1) * DIGEST_BYTES, other.leaves, i * DIGEST_BYTES, (i + 1) * DIGEST_BYTES)) {
+                changed.set(i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Formats the root for an integrity entry.
+     *
+     * @return "tree:&lt;chunk size&gt;:&lt;root hex&gt;"
+     */
+    public String toEntryHash() {
+        return PREFIX + chunkSize + ":" + HashService.toHex(root);
+    }
+
+    /**
+     * Tells whether an integrity entry hash is a tree hash.
+     */
+    public static boolean isTreeHash(String entryHash) {
+        return entryHash.startsWith(PREFIX);
+    }
+
+    /**
+     * Reads the chunk size of a tree hash written by {@link #toEntryHash()}.
+     *
+     * @throws IllegalArgumentException if the hash is not a tree hash
+     */
+    public static int chunkSizeOf(String entryHash) {
+        int colon = entryHash.indexOf(':', PREFIX.length());
+        if (!isTreeHash(entryHash) || colon == -1) {
+            throw new IllegalArgumentException("Not a tree hash: " + entryHash);
+        }
+        return Integer.parseInt(entryHash.substring(PREFIX.length(), colon));
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkCount() {
+        return leaves.length / DIGEST_BYTES;
+    }
+
+    byte[] leaves() {
+        return leaves;
+    }
+
+    /**
+     * Sequential form of the tree hash, fed like any MessageDigest: lets the hash of a large file be
+     * computed while it is written (see {@link DigestingChannel}), one chunk after the other.
+     * {@code digest()} returns the root; the full result, leaves included, is then available from {@link #getResult()}.
+     */
+    public static final class TreeDigest extends MessageDigest {
+        private final int chunkSize;
+        private final MessageDigest leaf = HashService.newSha256();
+        private byte[] leaves = new byte[16 * DIGEST_BYTES];
+        private int count;
+        private int inChunk;
+        private long size;
+        private ChunkedHash result;
+
+        public TreeDigest(int chunkSize) {
+            super("SFM-TREE-SHA-256");
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("Chunk size must be positive");
+            }
+            this.chunkSize = chunkSize;
+            engineReset();
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            engineUpdate(new byte[]{input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            engineUpdate(ByteBuffer.wrap(input, offset, len));
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            while (input.hasRemaining()) {
+                int take = Math.min(input.remaining(), chunkSize - inChunk);
+                ByteBuffer part = input.slice().limit(take);
+                leaf.update(part);
+                input.position(input.position() + take);
+                inChunk += take;
+                size += take;
+                if (inChunk == chunkSize) {
+                    closeChunk();
+                }
+            }
+        }
+
+        private void closeChunk() {
+            if ((count + 1) * DIGEST_BYTES > leaves.length) {
+                leaves = Arrays.copyOf(leaves, leaves.length * 2);
+            }
+            System.arraycopy(leaf.digest(), 0, leaves, count * DIGEST_BYTES, DIGEST_BYTES);
+            count++;
+            inChunk = 0;
+            leaf.update((byte) 0);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            if (inChunk > 0) {
+                closeChunk();
+            }
+            result = new ChunkedHash(chunkSize, size, Arrays.copyOf(leaves, count * DIGEST_BYTES));
+            engineReset();
+            return result.root.clone();
+        }
+
+        @Override
+        protected void engineReset() {
+            leaf.reset();
+            leaf.update((byte) 0);
+            count = 0;
+            inChunk = 0;
+            size = 0;
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return DIGEST_BYTES;
+        }
+
+        /**
+         * Gets the hash completed by the last call to {@code digest()}.
+         *
+         * @return the tree hash, or null if digest() was not called yet
+         */
+        public ChunkedHash getResult() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of an encrypted file (replaces the former Base64 text).
+ *
+ * magic 0x89 "SFM" (4) | version (1) | algorithm (1) | flags (1) | tag length (1)
+ * | kdf (1) | kdf iterations (4) | salt length (1) | salt | nonce length (1) | nonce
+ * | ciphertext | tag
+ *
+ * Everything before the ciphertext is the header; it is passed to GCM as additional
+ * authenticated data, so any change to it makes decryption fail.
+ */
+public final class CipherContainer {
+    public static final byte[] MAGIC = {(byte) 0x89, 'S', 'F', 'M'};
+    public static final byte VERSION = 1;
+    public static final byte ALGORITHM_AES_GCM = 1;
+    public static final byte KDF_NONE = 0;
+    public static final byte KDF_PBKDF2_HMAC_SHA256 = 1;
+    /** Low bits of the flags: codec applied to the plaintext before encryption (see {@link ContentCodec}). */
+    public static final int FLAG_CODEC_MASK = 0x0F;
+
+    private static final int FIXED_HEADER_LENGTH = 4 + 1 + 1 + 1 + 1 + 1 + 4 + 1 + 1;
+
+    private final byte algorithm;
+    private final byte flags;
+    private final int tagLengthBytes;
+    private final byte kdf;
+    private final int kdfIterations;
+    private final byte[] salt;
+    private final byte[] nonce;
+    private final int headerLength;
+
+    private CipherContainer(byte algorithm, byte flags, int tagLengthBytes, byte kdf, int kdfIterations,
+                            byte[] salt, byte[] nonce, int headerLength) {
+        this.algorithm = algorithm;
+        this.flags = flags;
+        this.tagLengthBytes = tagLengthBytes;
+        this.kdf = kdf;
+        this.kdfIterations = kdfIterations;
+        this.salt = salt;
+        this.nonce = nonce;
+        this.headerLength = headerLength;
+    }
+
+    /**
+     * Tells whether the content starts with the container magic.
+     * Legacy files are Base64 text and can never start with 0x89, which is outside that alphabet.
+     *
+     * @param data the raw file content
+     * @return true if the content is a binary container
+     */
+    public static boolean isContainer(byte[] data) {
+        if (data == null || data.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serializes a header.
+     *
+     * @return the header bytes, also used as AAD
+     */
+    public static byte[] header(byte flags, int tagLengthBytes, byte kdf, int kdfIterations, byte[] salt, byte[] nonce) {
+        if (salt.length > 255 || nonce.length > 255) {
+            throw new CryptoException("Salt and nonce must be shorter than 256 bytes");
+        }
+        return ByteBuffer.allocate(FIXED_HEADER_LENGTH + salt.length + nonce.length)
+                .put(MAGIC)
+                .put(VERSION)
+                .put(ALGORITHM_AES_GCM)
+                .put(flags)
+                .put((byte) tagLengthBytes)
+                .put(kdf)
+                .putInt(kdfIterations)
+                .put((byte) salt.length)
+                .put(salt)
+                .put((byte) nonce.length)
+                .put(nonce)
+                .array();
+    }
+
+    /**
+     * Parses the header at the start of the content.
+     *
+     * @param data the raw file content
+     * @return the parsed header
+     * @throws CryptoException if the header is malformed or uses an unknown version or algorithm
+     */
+    public static CipherContainer parse(byte[] data) throws CryptoException {
+        if (!isContainer(data)) {
+            throw new CryptoException("Not an encrypted container");
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.position(MAGIC.length);
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new CryptoException("Unsupported container version: " + version);
+            }
+            byte algorithm = buffer.get();
+            if (algorithm != ALGORITHM_AES_GCM) {
+                throw new CryptoException("Unsupported container algorithm: " + algorithm);
+            }
+            byte flags = buffer.get();
+            int tagLengthBytes = buffer.get() & 0xFF;
+            byte kdf = buffer.get();
+            int kdfIterations = buffer.getInt();
+            byte[] salt = new byte[buffer.get() & 0xFF];
+            buffer.get(salt);
+            byte[] nonce = new byte[buffer.get() & 0xFF];
+            buffer.get(nonce);
+            if (buffer.remaining() < tagLengthBytes) {
+                throw new CryptoException("Truncated container: missing authentication tag");
+            }
+            return new CipherContainer(algorithm, flags, tagLengthBytes, kdf, kdfIterations, salt, nonce, buffer.position());
+        } catch (BufferUnderflowException e) {
+            throw new CryptoException("Truncated container header");
+        }
+    }
+
+    public byte getAlgorithm() {
+        return algorithm;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public byte getCodec() {
+        return (byte) (flags & FLAG_CODEC_MASK);
+    }
+
+    public int getTagLengthBytes() {
+        return tagLengthBytes;
+    }
+
+    public byte getKdf() {
+        return kdf;
+    }
+
+    public int getKdfIterations() {
+        return kdfIterations;
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    public byte[] getNonce() {
+        return nonce.clone();
+    }
+
+    /**
+     * @return the offset of the ciphertext, i.e. the length of the AAD
+     */
+    public int getHeaderLength() {
+        return headerLength;
+    }
+}
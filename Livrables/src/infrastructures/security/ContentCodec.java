@@ -0,0 +1,127 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression applied before encryption (compress-then-encrypt).
+ * The codec is recorded in the flags of the {@link CipherContainer} header, which is authenticated.
+ *
+ * Compressing random or already compressed data only costs CPU, so a few samples of the
+ * content are deflated first and the whole content is compressed only if they shrink enough.
+ * A compressed payload is: original length (4) | raw deflate stream.
+ */
+public final class ContentCodec {
+    public static final byte CODEC_NONE = 0;
+    public static final byte CODEC_DEFLATE = 1;
+
+    private static final int MIN_SIZE = 512;
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int SAMPLE_COUNT = 3;
+    private static final double MAX_RATIO = 0.9;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private ContentCodec() {
+    }
+
+    /**
+     * Compresses the content if it is worth it.
+     *
+     * @param plain the content to store
+     * @return the compressed payload, or null if the content should be stored as is
+     */
+    public static byte[] compressIfUseful(byte[] plain) {
+        if (plain.length < MIN_SIZE || sampledRatio(plain) > MAX_RATIO) {
+            return null;
+        }
+        byte[] compressed = deflate(plain, 0, plain.length, 4);
+        if (compressed.length > plain.length * MAX_RATIO) {
+            return null;
+        }
+        ByteBuffer.wrap(compressed).putInt(plain.length);
+        return compressed;
+    }
+
+    /**
+     * Restores the content of a compressed payload.
+     *
+     * @param payload the payload produced by {@link #compressIfUseful}
+     * @param maxLength the largest original length accepted (guards against decompression bombs)
+     * @return the original content
+     * @throws CryptoException if the payload is malformed
+     */
+    public static byte[] decompress(byte[] payload, int maxLength) throws CryptoException {
+        if (payload.length < 4) {
+            throw new CryptoException("Truncated compressed content");
+        }
+        int length = ByteBuffer.wrap(payload).getInt();
+        if (length < 0 || length > maxLength) {
+            throw new CryptoException("Invalid compressed content length: " + length);
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(payload, 4, payload.length - 4);
+        byte[] plain = new byte[length];
+        try {
+            int written = 0;
+            while (written < length && !inflater.finished()) {
+                int n = inflater.inflate(plain, written, length - written);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                written += n;
+            }
+            if (written != length || !inflater.finished()) {
+                throw new CryptoException("Corrupted compressed content");
+            }
+            return plain;
+        } catch (DataFormatException e) {
+            throw new CryptoException("Corrupted compressed content: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deflates a few evenly spaced samples and returns their compressed/original ratio.
+     */
+    static double sampledRatio(byte[] plain) {
+        if (plain.length <= SAMPLE_SIZE * SAMPLE_COUNT) {
+            int sample = Math.min(plain.length, SAMPLE_SIZE);
+            return (double) deflate(plain, 0, sample, 0).length / sample;
+        }
+        long in = 0;
+        long out = 0;
+        long step = (plain.length - SAMPLE_SIZE) / (SAMPLE_COUNT - 1);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            int offset = (int) (i * step);
+            out += deflate(plain, offset, SAMPLE_SIZE, 0).length;
+            in += SAMPLE_SIZE;
+        }
+        return (double) out / in;
+    }
+
+    /**
+     * Deflates a range into a new array, leaving {@code reserved} free bytes at its start.
+     */
+    private static byte[] deflate(byte[] data, int offset, int length, int reserved) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        byte[] out = new byte[reserved + length / 2 + 64];
+        int written = reserved;
+        while (!deflater.finished()) {
+            if (written == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            written += deflater.deflate(out, written, out.length - written);
+        }
+        return written == out.length ? out : Arrays.copyOf(out, written);
+    }
+}
@@ -0,0 +1,280 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.crypto.Cipher;
+
+/**
+ * Immutable, validated cryptographic configuration read from the .env file.
+ * The file is parsed once; later calls to {@link #getInstance()} return the same object
+ * until {@link #reload()} is called explicitly.
+ */
+public final class CryptoConfig {
+    private static final String DEFAULT_ENV_PATH = ".env";
+    static final int MISSING = Integer.MIN_VALUE;
+
+    private static volatile CryptoConfig instance;
+
+    private final String aesGcmAlgo;
+    private final int tagLengthBits;
+    private final int ivLengthBytes;
+    private final int aesKeyBits;
+    private final int saltLengthBytes;
+    private final Charset charset;
+    private final boolean compression;
+    private final String kdfAlgorithm;
+    private final int kdfTargetMillis;
+    private final int keyWarmupFiles;
+
+    private CryptoConfig(String aesGcmAlgo, int tagLengthBits, int ivLengthBytes, int aesKeyBits,
+                         int saltLengthBytes, Charset charset, boolean compression, String kdfAlgorithm, int kdfTargetMillis,
+                         int keyWarmupFiles) {
+        this.aesGcmAlgo = aesGcmAlgo;
+        this.tagLengthBits = tagLengthBits;
+        this.ivLengthBytes = ivLengthBytes;
+        this.aesKeyBits = aesKeyBits;
+        this.saltLengthBytes = saltLengthBytes;
+        this.charset = charset;
+        this.compression = compression;
+        this.kdfAlgorithm = kdfAlgorithm;
+        this.kdfTargetMillis = kdfTargetMillis;
+        this.keyWarmupFiles = keyWarmupFiles;
+    }
+
+    /**
+     * Gets the configuration loaded from .env, loading it on first use.
+     *
+     * @return the current configuration
+     * @throws CryptoException if the file is missing or invalid
+     */
+    public static CryptoConfig getInstance() throws CryptoException {
+        CryptoConfig config = instance;
+        if (config == null) {
+            synchronized (CryptoConfig.class) {
+                if (instance == null) {
+                    instance = load(Paths.get(DEFAULT_ENV_PATH));
+                }
+                config = instance;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Re-reads .env and replaces the current configuration.
+     * The previous configuration stays in place if the new one is invalid.
+     *
+     * @return the new configuration
+     * @throws CryptoException if the file is missing or invalid
+     */
+    public static synchronized CryptoConfig reload() throws CryptoException {
+        CryptoConfig config = load(Paths.get(DEFAULT_ENV_PATH));
+        instance = config;
+        return config;
+    }
+
+    /**
+     * Reads and validates a configuration file.
+     *
+     * @param envFile the properties file to read
+     * @return the validated configuration
+     * @throws CryptoException if the file cannot be read or a value is invalid
+     */
+    public static CryptoConfig load(Path envFile) throws CryptoException {
+        return fromProperties(readProperties(envFile));
+    }
+
+    /**
+     * Reads a properties file (.env).
+     *
+     * @param envFile the properties file to read
+     * @return the loaded properties
+     * @throws CryptoException if the file cannot be read
+     */
+    static Properties readProperties(Path envFile) throws CryptoException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(envFile)) {
+            props.load(in);
+        } catch (IOException e) {
+            throw new CryptoException("Error loading configuration from " + envFile + ": " + e.getMessage());
+        }
+        return props;
+    }
+
+    /**
+     * Builds and validates a configuration from already loaded properties.
+     * Every problem is reported at once.
+     *
+     * @param props the properties (AESGCM_ALGO, TAG_LENGTH_BITS, IV_LENGTH_BYTES, AES_KEY_BITS, SALT_LENGTH_BYTES, CHARSET_NAME,
+     *              COMPRESSION = deflate | none, KDF_ALGORITHM = PBKDF2WithHmacSHA256 | PBKDF2WithHmacSHA512,
+     *              KDF_TARGET_MS = time budget of one key derivation, used to calibrate the iteration count,
+     *              KEY_WARMUP_FILES = number of recently used files whose keys are derived in the background after login, 0 to disable;
+     *              the integrity settings are read by {@link IntegrityConfig})
+     * @return the validated configuration
+     * @throws CryptoException if a value is missing or invalid
+     */
+    public static CryptoConfig fromProperties(Properties props) throws CryptoException {
+        List<String> errors = new ArrayList<>();
+
+        String algo = required(props, "AESGCM_ALGO", errors);
+        int tagLengthBits = requiredInt(props, "TAG_LENGTH_BITS", errors);
+        int ivLengthBytes = requiredInt(props, "IV_LENGTH_BYTES", errors);
+        int aesKeyBits = requiredInt(props, "AES_KEY_BITS", errors);
+        int saltLengthBytes = requiredInt(props, "SALT_LENGTH_BYTES", errors);
+        String charsetName = props.getProperty("CHARSET_NAME", "UTF-8").trim();
+        String compression = props.getProperty("COMPRESSION", "deflate").trim().toLowerCase();
+        String kdfAlgorithm = props.getProperty("KDF_ALGORITHM", KdfParameters.PBKDF2_HMAC_SHA256).trim();
+
+        if (algo != null && !"AES/GCM/NoPadding".equals(algo)) {
+            errors.add("AESGCM_ALGO must be AES/GCM/NoPadding (got " + algo + ")");
+        }
+        if (tagLengthBits != MISSING && (tagLengthBits < 96 || tagLengthBits > 128 || tagLengthBits % 8 != 0)) {
+            errors.add("TAG_LENGTH_BITS must be one of 96, 104, 112, 120, 128 (got " + tagLengthBits + ")");
+        }
+        if (ivLengthBytes != MISSING && ivLengthBytes < 12) {
+            errors.add("IV_LENGTH_BYTES must be at least 12 (got " + ivLengthBytes + ")");
+        }
+        if (aesKeyBits != MISSING && aesKeyBits != 128 && aesKeyBits != 192 && aesKeyBits != 256) {
+            errors.add("AES_KEY_BITS must be 128, 192 or 256 (got " + aesKeyBits + ")");
+        }
+        if (saltLengthBytes != MISSING && saltLengthBytes < 16) {
+            errors.add("SALT_LENGTH_BYTES must be at least 16 (got " + saltLengthBytes + ")");
+        }
+        if (!"deflate".equals(compression) && !"none".equals(compression)) {
+            errors.add("COMPRESSION must be deflate or none (got " + compression + ")");
+        }
+        if (!KdfParameters.PBKDF2_HMAC_SHA256.equals(kdfAlgorithm) && !KdfParameters.PBKDF2_HMAC_SHA512.equals(kdfAlgorithm)) {
+            errors.add("KDF_ALGORITHM must be " + KdfParameters.PBKDF2_HMAC_SHA256 + " or " + KdfParameters.PBKDF2_HMAC_SHA512
+                    + " (got " + kdfAlgorithm + ")");
+        }
+        int kdfTargetMillis = intSetting(props, "KDF_TARGET_MS", KdfCalibrator.DEFAULT_TARGET_MILLIS, 10, 10_000, errors);
+        int keyWarmupFiles = intSetting(props, "KEY_WARMUP_FILES", 32, 0, 10_000, errors);
+        Charset charset = null;
+        try {
+            charset = Charset.forName(charsetName);
+        } catch (IllegalArgumentException e) {
+            errors.add("CHARSET_NAME is not a supported charset (got " + charsetName + ")");
+        }
+
+        if (errors.isEmpty()) {
+            try {
+                Cipher.getInstance(algo);
+            } catch (GeneralSecurityException e) {
+                errors.add(algo + " is not available on this JVM");
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new CryptoException("Invalid crypto configuration: " + String.join("; ", errors));
+        }
+        return new CryptoConfig(algo, tagLengthBits, ivLengthBytes, aesKeyBits, saltLengthBytes, charset,
+                "deflate".equals(compression), kdfAlgorithm, kdfTargetMillis, keyWarmupFiles);
+    }
+
+    private static String required(Properties props, String name, List<String> errors) {
+        String value = props.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            errors.add(name + " is missing");
+            return null;
+        }
+        return value.trim();
+    }
+
+    private static int requiredInt(Properties props, String name, List<String> errors) {
+        String value = required(props, name, errors);
+        if (value == null) {
+            return MISSING;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            errors.add(name + " must be an integer (got " + value + ")");
+            return MISSING;
+        }
+    }
+
+    /**
+     * Reads an optional integer setting and checks its range.
+     * A problem is added to the errors instead of being thrown, so every one is reported at once.
+     *
+     * @param props the properties
+     * @param name the setting name
+     * @param defaultValue the value used when the setting is absent
+     * @param min the smallest accepted value
+     * @param max the largest accepted value
+     * @param errors the problems found so far
+     * @return the value, or {@link #MISSING} if it is invalid
+     */
+    static int intSetting(Properties props, String name, int defaultValue, int min, int max, List<String> errors) {
+        String value = props.getProperty(name, String.valueOf(defaultValue)).trim();
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < min || parsed > max) {
+                errors.add(name + " must be between " + min + " and " + max + " (got " + parsed + ")");
+                return MISSING;
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            errors.add(name + " must be an integer (got " + value + ")");
+            return MISSING;
+        }
+    }
+
+    public String getAesGcmAlgo() {
+        return aesGcmAlgo;
+    }
+
+    public int getTagLengthBits() {
+        return tagLengthBits;
+    }
+
+    public int getIvLengthBytes() {
+        return ivLengthBytes;
+    }
+
+    public int getAesKeyBits() {
+        return aesKeyBits;
+    }
+
+    public int getSaltLengthBytes() {
+        return saltLengthBytes;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compression;
+    }
+
+    public String getKdfAlgorithm() {
+        return kdfAlgorithm;
+    }
+
+    public int getKdfTargetMillis() {
+        return kdfTargetMillis;
+    }
+
+    public int getKeyWarmupFiles() {
+        return keyWarmupFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "CryptoConfig{algo=" + aesGcmAlgo + ", tag=" + tagLengthBits + " bits, iv=" + ivLengthBytes
+                + " bytes, key=" + aesKeyBits + " bits, salt=" + saltLengthBytes + " bytes, charset=" + charset
+                + ", compression=" + (compression ? "deflate" : "none") + ", kdf=" + kdfAlgorithm
+                + ", kdfTarget=" + kdfTargetMillis + " ms, keyWarmup=" + keyWarmupFiles + " files}";
+    }
+}
@@ -0,0 +1,150 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread holders for the JCA primitives used on the hot path.
+ * Cipher, MessageDigest, Mac and SecretKeyFactory instances are not thread-safe but are
+ * reusable, so each thread keeps one instance per algorithm instead of going through the
+ * provider lookup on every call. Callers must fully initialise (or reset) the instance they get.
+ */
+public final class CryptoPrimitives {
+    private static final int RANDOM_BUFFER_SIZE = 512;
+
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, MessageDigest>> DIGESTS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, SecretKeyFactory>> KEY_FACTORIES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<BufferedRandom> RANDOM = ThreadLocal.withInitial(BufferedRandom::new);
+
+    private CryptoPrimitives() {
+    }
+
+    /**
+     * Gets the Cipher of the current thread for a transformation.
+     *
+     * @param transformation the transformation, e.g. "AES/GCM/NoPadding"
+     * @return a Cipher that must be initialised before use
+     * @throws CryptoException if the transformation is unavailable
+     */
+    public static Cipher cipher(String transformation) throws CryptoException {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            try {
+                cipher = Cipher.getInstance(transformation);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Cipher unavailable: " + transformation + " - " + e.getMessage());
+            }
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * Gets the MessageDigest of the current thread for an algorithm, already reset.
+     *
+     * @param algorithm the digest algorithm, e.g. "SHA-256"
+     * @return a reset MessageDigest
+     * @throws CryptoException if the algorithm is unavailable
+     */
+    public static MessageDigest digest(String algorithm) throws CryptoException {
+        Map<String, MessageDigest> digests = DIGESTS.get();
+        MessageDigest digest = digests.get(algorithm);
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Digest unavailable: " + algorithm + " - " + e.getMessage());
+            }
+            digests.put(algorithm, digest);
+        }
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * Gets the Mac of the current thread for an algorithm.
+     *
+     * @param algorithm the MAC algorithm, e.g. "HmacSHA256"
+     * @return a Mac that must be initialised before use
+     * @throws CryptoException if the algorithm is unavailable
+     */
+    public static Mac mac(String algorithm) throws CryptoException {
+        Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get(algorithm);
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("MAC unavailable: " + algorithm + " - " + e.getMessage());
+            }
+            macs.put(algorithm, mac);
+        }
+        return mac;
+    }
+
+    /**
+     * Gets the SecretKeyFactory of the current thread for an algorithm.
+     *
+     * @param algorithm the key derivation algorithm, e.g. "PBKDF2WithHmacSHA256"
+     * @return the SecretKeyFactory
+     * @throws CryptoException if the algorithm is unavailable
+     */
+    public static SecretKeyFactory keyFactory(String algorithm) throws CryptoException {
+        Map<String, SecretKeyFactory> factories = KEY_FACTORIES.get();
+        SecretKeyFactory factory = factories.get(algorithm);
+        if (factory == null) {
+            try {
+                factory = SecretKeyFactory.getInstance(algorithm);
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException("Key factory unavailable: " + algorithm + " - " + e.getMessage());
+            }
+            factories.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Fills the array with random bytes from the current thread's buffered generator.
+     * Each buffered byte is handed out exactly once, so two calls never share output.
+     *
+     * @param bytes the array to fill
+     */
+    public static void nextBytes(byte[] bytes) {
+        RANDOM.get().nextBytes(bytes);
+    }
+
+    /**
+     * A SecureRandom seeded once per thread, drawn in blocks to amortise the generator calls.
+     */
+    private static final class BufferedRandom {
+        private final SecureRandom random = new SecureRandom();
+        private final byte[] buffer = new byte[RANDOM_BUFFER_SIZE];
+        private int position = RANDOM_BUFFER_SIZE;
+
+        void nextBytes(byte[] bytes) {
+            if (bytes.length > RANDOM_BUFFER_SIZE) {
+                random.nextBytes(bytes);
+                return;
+            }
+            if (position + bytes.length > RANDOM_BUFFER_SIZE) {
+                random.nextBytes(buffer);
+                position = 0;
+            }
+            System.arraycopy(buffer, position, bytes, 0, bytes.length);
+            Arrays.fill(buffer, position, position + bytes.length, (byte) 0);
+            position += bytes.length;
+        }
+    }
+}
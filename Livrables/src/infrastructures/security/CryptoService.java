@@ -4,40 +4,57 @@ import javax.crypto.*;
 import javax.crypto.spec.*;
 import java.util.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.*;
 import java.io.*;
 import java.nio.file.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import domain.model.Encrypt;
 import domain.exception.CryptoException;
 import domain.exception.HashException;
-import static java.lang.System.exit;
 
 public class CryptoService implements Encrypt {
-    private static class ValueUtils {
-        public static String AESGCM_ALGO;
-        public static int TAG_LENGTH_BIT;
-        public static int IV_LENGTH_BYTE;
-        public static int AES_KEY_BIT;
-        public static int SALT_LENGTH_BYTE;
+    public static final int PBKDF2_ITERATIONS = 65536;
+    private static final int MAX_CONTENT_LENGTH = Integer.MAX_VALUE - 8;
 
-    }
+    private final CryptoConfig config;
+    private final StreamingAead streamingAead;
+    private final MappedFileCache mappedFiles;
+    private final ParallelSegmentCipher parallelCipher;
 
+    /**
+     * Builds a CryptoService on the configuration loaded at startup.
+     * @throws CryptoException if the configuration is missing or invalid
+     */
     public CryptoService() throws CryptoException {
-        try {
-            String envPath = ".env";
-            Properties props = new Properties();
-            props.load(new FileInputStream(envPath));
-            
-            ValueUtils.AESGCM_ALGO = props.getProperty("AESGCM_ALGO");
-            ValueUtils.TAG_LENGTH_BIT = Integer.parseInt(props.getProperty("TAG_LENGTH_BITS"));
-            ValueUtils.IV_LENGTH_BYTE = Integer.parseInt(props.getProperty("IV_LENGTH_BYTES"));
-            ValueUtils.AES_KEY_BIT = Integer.parseInt(props.getProperty("AES_KEY_BITS"));
-            ValueUtils.SALT_LENGTH_BYTE = Integer.parseInt(props.getProperty("SALT_LENGTH_BYTES"));
-        } catch (IOException e) {
-            throw new CryptoException("Error loading configuration from .env file: " + e.getMessage());
-        }
+        this(CryptoConfig.getInstance());
+    }
+
+    /**
+     * Builds a CryptoService on the given configuration.
+     * The service holds no mutable state and can be shared between threads.
+     * @param config The validated configuration
+     */
+    public CryptoService(CryptoConfig config) {
+        this.config = config;
+        this.streamingAead = new StreamingAead(StreamingAead.DEFAULT_SEGMENT_SIZE);
+        this.mappedFiles = MappedFileCache.getInstance();
+        this.parallelCipher = new ParallelSegmentCipher();
+    }
+
+    /**
+     * Get the configuration this service was built with
+     * @return the configuration
+     */
+    public CryptoConfig getConfig() {
+        return config;
     }
 
     /**
@@ -47,7 +64,7 @@ public class CryptoService implements Encrypt {
      */
     public static byte[] getRandomNonce(int numBytes) {
         byte[] nonce = new byte[numBytes];
-        new SecureRandom().nextBytes(nonce);
+        CryptoPrimitives.nextBytes(nonce);
         return nonce;
     }
 
@@ -59,12 +76,37 @@ public class CryptoService implements Encrypt {
      * @throws CryptoException
      */
     public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt) throws CryptoException {
+        return getAESKeyFromPassword(password, salt, CryptoConfig.getInstance().getAesKeyBits());
+    }
+
+    /**
+     * Generate AES key of the given size from a password and salt
+     * @param password The password to derive the key from
+     * @param salt The salt to use in key derivation
+     * @param keyBits The size of the key in bits
+     * @return SecretKey derived from the password and salt
+     * @throws CryptoException
+     */
+    public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt, int keyBits) throws CryptoException {
+        return getAESKeyFromPassword(password, salt, keyBits, KdfParameters.LEGACY);
+    }
+
+    /**
+     * Generate AES key of the given size from a password and salt, with explicit KDF parameters
+     * @param password The password to derive the key from
+     * @param salt The salt to use in key derivation
+     * @param keyBits The size of the key in bits
+     * @param kdf The PBKDF2 algorithm and iteration count (see {@link KdfCalibrator})
+     * @return SecretKey derived from the password and salt
+     * @throws CryptoException
+     */
+    public static SecretKey getAESKeyFromPassword(char[] password, byte[] salt, int keyBits, KdfParameters kdf) throws CryptoException {
         try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(password, salt, 65536, ValueUtils.AES_KEY_BIT);
+            SecretKeyFactory factory = CryptoPrimitives.keyFactory(kdf.getAlgorithm());
+            KeySpec spec = new PBEKeySpec(password, salt, kdf.getIterations(), keyBits);
             SecretKey secret = new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
             return secret;
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+        } catch (InvalidKeySpecException e) {
             throw new CryptoException("Error generating AES key from password: " + e.getMessage());
         }
     }
@@ -107,13 +149,13 @@ public class CryptoService implements Encrypt {
      */
     public String encryptText(String value, String key) throws CryptoException {
         try {
-            byte[] plainText = value.getBytes();
+            byte[] plainText = value.getBytes(config.getCharset());
 
-            byte[] iv = getRandomNonce(ValueUtils.IV_LENGTH_BYTE);
+            byte[] iv = getRandomNonce(config.getIvLengthBytes());
             SecretKey secretkey = convertStringToSecretKey(key);
 
-            Cipher cipher = Cipher.getInstance(ValueUtils.AESGCM_ALGO);
-            cipher.init(Cipher.ENCRYPT_MODE, secretkey, new GCMParameterSpec(ValueUtils.TAG_LENGTH_BIT, iv));
+            Cipher cipher = CryptoPrimitives.cipher(config.getAesGcmAlgo());
+            cipher.init(Cipher.ENCRYPT_MODE, secretkey, new GCMParameterSpec(config.getTagLengthBits(), iv));
 
             byte[] encryptedText = cipher.doFinal(plainText);
             byte[] encryptedTextWithIv = ByteBuffer.allocate(iv.length + encryptedText.length)
@@ -145,17 +187,17 @@ public class CryptoService implements Encrypt {
             }
             ByteBuffer bufferEncryptedText = ByteBuffer.wrap(decode);
 
-            byte[] iv = new byte[ValueUtils.IV_LENGTH_BYTE];
+            byte[] iv = new byte[config.getIvLengthBytes()];
             bufferEncryptedText.get(iv);
 
             byte[] cipherText = new byte[bufferEncryptedText.remaining()];
             bufferEncryptedText.get(cipherText);
 
-            Cipher cipher = Cipher.getInstance(ValueUtils.AESGCM_ALGO);
+            Cipher cipher = CryptoPrimitives.cipher(config.getAesGcmAlgo());
             SecretKey secretKey = convertStringToSecretKey(key);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(ValueUtils.TAG_LENGTH_BIT, iv));
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(config.getTagLengthBits(), iv));
             byte[] plainText = cipher.doFinal(cipherText);
-            return new String(plainText, StandardCharsets.UTF_8);
+            return new String(plainText, config.getCharset());
         } catch (CryptoException e) {
             throw e;
         } catch (HashException e) {
@@ -166,34 +208,317 @@ public class CryptoService implements Encrypt {
     }
 
     /**
-     * Encrypt a file using AES-GCM
+     * Encrypt bytes into a binary container (see {@link CipherContainer})
+     * The header and the ciphertext are written into a single array, without Base64 or String copies.
+     * @param plainText The plaintext bytes
+     * @param key The AES data key of the file
+     * @return The container bytes
+     * @throws CryptoException
+     */
+    public byte[] encryptBytes(byte[] plainText, SecretKey key) throws CryptoException {
+        return encryptBytes(plainText, key, false);
+    }
+
+    /**
+     * Encrypt bytes into a binary container, compressing them first when allowed and worth it
+     * The codec actually used is recorded in the header flags. Data keys come from the envelope
+     * (see {@link #wrapKey}), not from a password, so the header always records {@link CipherContainer#KDF_NONE}.
+     * @param plainText The plaintext bytes
+     * @param key The AES data key of the file
+     * @param compress true to try compression (see {@link ContentCodec})
+     * @return The container bytes
+     * @throws CryptoException
+     */
+    public byte[] encryptBytes(byte[] plainText, SecretKey key, boolean compress) throws CryptoException {
+        try {
+            byte codec = ContentCodec.CODEC_NONE;
+            if (compress) {
+                byte[] compressed = ContentCodec.compressIfUseful(plainText);
+                if (compressed != null) {
+                    plainText = compressed;
+                    codec = ContentCodec.CODEC_DEFLATE;
+                }
+            }
+            int tagLength = config.getTagLengthBits() / 8;
+            byte[] nonce = getRandomNonce(config.getIvLengthBytes());
+            byte[] header = CipherContainer.header(codec, tagLength, CipherContainer.KDF_NONE, 0, new byte[0], nonce);
+
+            Cipher cipher = CryptoPrimitives.cipher(config.getAesGcmAlgo());
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(config.getTagLengthBits(), nonce));
+            cipher.updateAAD(header);
+            byte[] output = new byte[header.length + cipher.getOutputSize(plainText.length)];
+            System.arraycopy(header, 0, output, 0, header.length);
+            cipher.doFinal(plainText, 0, plainText.length, output, header.length);
+            return output;
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Error encrypting content: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt a binary container produced by {@link #encryptBytes}, decompressing it if needed
+     * @param container The container bytes
+     * @param key The AES key of the file
+     * @return The plaintext bytes
+     * @throws CryptoException if the container is malformed or fails authentication
+     */
+    public byte[] decryptBytes(byte[] container, SecretKey key) throws CryptoException {
+        if (StreamingAead.hasMagic(container)) {
+            return decryptSegmentedBytes(container, key);
+        }
+        CipherContainer header = CipherContainer.parse(container);
+        byte codec = header.getCodec();
+        if (codec != ContentCodec.CODEC_NONE && codec != ContentCodec.CODEC_DEFLATE) {
+            throw new CryptoException("Unsupported container codec: " + codec);
+        }
+        byte[] payload;
+        try {
+            Cipher cipher = CryptoPrimitives.cipher(config.getAesGcmAlgo());
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(header.getTagLengthBytes() * 8, header.getNonce()));
+            cipher.updateAAD(container, 0, header.getHeaderLength());
+            payload = cipher.doFinal(container, header.getHeaderLength(), container.length - header.getHeaderLength());
+        } catch (Exception e) {
+            throw new CryptoException("Error decrypting content: " + e.getMessage());
+        }
+        return codec == ContentCodec.CODEC_DEFLATE ? ContentCodec.decompress(payload, MAX_CONTENT_LENGTH) : payload;
+    }
+
+    /**
+     * Decrypt content in the segmented format (written by {@link #encryptChannel}) already loaded in memory
+     */
+    private byte[] decryptSegmentedBytes(byte[] stored, SecretKey key) throws CryptoException {
+        try {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream(stored.length);
+            streamingAead.decrypt(key, Channels.newChannel(new ByteArrayInputStream(stored)), Channels.newChannel(plain));
+            return plain.toByteArray();
+        } catch (IOException e) {
+            throw new CryptoException("Error decrypting content: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encrypt everything readable from a channel into a file, in the segmented format
+     * The content goes from the channel to the file through direct buffers: it is never copied
+     * into a byte[] or a String. The file is written in place (callers use a temporary file).
+     * @param in The plaintext source, e.g. a FileChannel
+     * @param target The encrypted file (created or truncated)
+     * @param key The AES key of the file
+     * @return The size of the encrypted file
+     * @throws CryptoException
+     */
+    public long encryptChannel(ReadableByteChannel in, Path target, SecretKey key) throws CryptoException {
+        return encryptChannel(in, target, key, null);
+    }
+
+    /**
+     * Encrypt everything readable from a channel into a file, feeding the ciphertext to a digest as it is written
+     * The hash of the encrypted file then comes out of the write, without reading the file back.
+     * @param in The plaintext source, e.g. a FileChannel
+     * @param target The encrypted file (created or truncated)
+     * @param key The AES key of the file
+     * @param digest The digest updated with every byte written to the file, or null
+     * @return The size of the encrypted file
+     * @throws CryptoException
+     */
+    public long encryptChannel(ReadableByteChannel in, Path target, SecretKey key, MessageDigest digest) throws CryptoException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            return streamingAead.encrypt(key, in, digest == null ? out : new DigestingChannel(out, digest));
+        } catch (IOException e) {
+            throw new CryptoException("Error encrypting file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt a file in the segmented format into a channel
+     * Each segment is authenticated before it is written to the channel.
+     * Large files are decrypted from a memory mapping (see {@link MappedFileCache}), small ones through a FileChannel.
+     * @param source The encrypted file
+     * @param out The plaintext destination, e.g. a FileChannel
+     * @param key The AES key of the file
+     * @return The number of plaintext bytes written
+     * @throws CryptoException if the file is not in the segmented format or fails authentication
+     */
+    public long decryptChannel(Path source, WritableByteChannel out, SecretKey key) throws CryptoException {
+        try {
+            ByteBuffer mapped = mappedFiles.map(source);
+            if (mapped != null) {
+                try {
+                    return StreamingAead.decrypt(key, mapped, out);
+                } catch (InternalError e) {
+                    // the file was truncated under the mapping; part of it may already be written to out
+                    mappedFiles.invalidate(source);
+                    throw new CryptoException("File changed while being decrypted: " + source.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            throw new CryptoException("Error decrypting file: " + e.getMessage());
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return streamingAead.decrypt(key, in, out);
+        } catch (IOException e) {
+            throw new CryptoException("Error decrypting file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-encrypt a file in the segmented format under another key, into a new file in the same format
+     * The plaintext goes from {@link #decryptChannel} to {@link #encryptChannel} through a pipe, one segment
+     * at a time: it is never written to disk nor held in memory as a whole. The target must not be used
+     * if this method throws, since the encryption side only sees the end of the pipe.
+     * @param source The encrypted file
+     * @param target The re-encrypted file (created or truncated)
+     * @param oldKey The AES key the source is encrypted with
+     * @param newKey The AES key of the target
+     * @param digest The digest updated with every byte written to the target, or null
+     * @return The size of the re-encrypted file
+     * @throws CryptoException if the source is not in the segmented format or fails authentication
+     */
+    public long reencryptChannel(Path source, Path target, SecretKey oldKey, SecretKey newKey, MessageDigest digest) throws CryptoException {
+        Pipe pipe;
+        try {
+            pipe = Pipe.open();
+        } catch (IOException e) {
+            throw new CryptoException("Error re-encrypting file: " + e.getMessage());
+        }
+        FutureTask<Long> decryption = new FutureTask<>(() -> {
+            try (Pipe.SinkChannel sink = pipe.sink()) {
+                return decryptChannel(source, sink, oldKey);
+            }
+        });
+        Thread decryptor = new Thread(decryption, "reencrypt-" + source.getFileName());
+        decryptor.setDaemon(true);
+        decryptor.start();
+        long size;
+        try (Pipe.SourceChannel plain = pipe.source()) {
+            size = encryptChannel(plain, target, newKey, digest);
+        } catch (IOException e) {
+            throw new CryptoException("Error re-encrypting file: " + e.getMessage());
+        }
+        try {
+            decryption.get();
+            return size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CryptoException("Re-encryption interrupted: " + source.getFileName());
+        } catch (ExecutionException e) {
+            // the encryption side saw the pipe close early: the target is truncated
+            Throwable cause = e.getCause();
+            if (cause instanceof CryptoException) {
+                throw (CryptoException) cause;
+            }
+            throw new CryptoException("Error re-encrypting file: " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt a file in the segmented format into another file, segments being spread over the cores
+     * Meant for files of at least {@link ParallelSegmentCipher#MIN_PARALLEL_SIZE} bytes; the target is removed if a segment fails authentication.
+     * @param source The encrypted file
+     * @param target The plaintext file (created or truncated)
+     * @param key The AES key of the file
+     * @return The size of the plaintext file
+     * @throws CryptoException if the file is not in the segmented format or fails authentication
+     */
+    public long decryptFileParallel(Path source, Path target, SecretKey key) throws CryptoException {
+        try {
+            return parallelCipher.decryptFile(source, target, key);
+        } catch (IOException e) {
+            throw new CryptoException("Error decrypting file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt a whole file in the segmented format into memory
+     * Files of at least {@link MappedFileCache#MIN_MAPPED_SIZE} bytes are decrypted straight from a
+     * mapping reused across reads; smaller files are read through a FileChannel.
+     * @param source The encrypted file
+     * @param key The AES key of the file
+     * @return The plaintext
+     * @throws CryptoException if the file is not in the segmented format or fails authentication
+     */
+    public byte[] decryptFile(Path source, SecretKey key) throws CryptoException {
+        long length = plaintextLength(source);
+        if (length > MAX_CONTENT_LENGTH) {
+            throw new CryptoException("File too large to be decrypted in memory: " + length + " bytes");
+        }
+        ByteBuffer plain = ByteBuffer.allocate((int) length);
+        decryptChannel(source, new WritableByteChannel() {
+            public int write(ByteBuffer src) {
+                int n = src.remaining();
+                plain.put(src);
+                return n;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        }, key);
+        return plain.array();
+    }
+
+    /**
+     * Decrypt part of a file in the segmented format
+     * Only the segments covering the range are read and authenticated.
+     * @param source The encrypted file
+     * @param key The AES key of the file
+     * @param offset The first plaintext byte
+     * @param length The maximum number of bytes to return
+     * @return The bytes of the range (shorter at the end of the file)
+     * @throws CryptoException if the file is not in the segmented format or a segment fails authentication
+     */
+    public byte[] decryptRange(Path source, SecretKey key, long offset, int length) throws CryptoException {
+        try {
+            ByteBuffer mapped = mappedFiles.map(source);
+            if (mapped != null) {
+                try {
+                    return StreamingAead.decryptRange(key, mapped, offset, length);
+                } catch (InternalError e) {
+                    mappedFiles.invalidate(source);
+                }
+            }
+        } catch (IOException e) {
+            throw new CryptoException("Error decrypting file: " + e.getMessage());
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return StreamingAead.decryptRange(key, in, offset, length);
+        } catch (IOException e) {
+            throw new CryptoException("Error decrypting file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the plaintext length of a file in the segmented format, without decrypting it
+     * @param source The encrypted file
+     * @return The plaintext length
+     * @throws CryptoException if the file is not in the segmented format
+     */
+    public long plaintextLength(Path source) throws CryptoException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            return StreamingAead.plaintextLength(in);
+        } catch (IOException e) {
+            throw new CryptoException("Error reading file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encrypt a file using segmented AES-GCM (see {@link StreamingAead})
+     * The file is processed segment by segment, so memory use does not depend on its size.
      * @param file The file to encrypt
      * @param key The Base64 encoded string representation of the SecretKey
      * @return The encrypted file
      * @throws CryptoException
      */
     public File encryptFile(File file, String key) throws CryptoException {
-        try {
-            String pathOutput = file.getAbsolutePath() + ".encrypted";
-            Path path = Paths.get(pathOutput);
-            SecretKey secretKey = convertStringToSecretKey(key);
-            byte[] iv = getRandomNonce(ValueUtils.IV_LENGTH_BYTE);
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(ValueUtils.TAG_LENGTH_BIT, iv));
-
-            FileInputStream inputStream = new FileInputStream(file);
-            byte[] inputBytes = new byte[(int) file.length()];
-            inputStream.read(inputBytes);
-            byte[] outputBytes = cipher.doFinal(inputBytes);
-
-            File fileEncryptOut = new File(path.toUri());
-            FileOutputStream outputStream = new FileOutputStream(fileEncryptOut);
-            outputStream.write(iv);
-            outputStream.write(outputBytes);
-
-            inputStream.close();
-            outputStream.close();
-            return fileEncryptOut;
+        Path output = Paths.get(file.getAbsolutePath() + ".encrypted");
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            streamingAead.encrypt(convertStringToSecretKey(key), in, out);
+            return output.toFile();
         } catch (CryptoException e) {
             throw e;
         } catch (Exception e) {
@@ -202,39 +527,106 @@ public class CryptoService implements Encrypt {
     }
 
     /**
-     * Decrypt a file using AES-GCM
+     * Decrypt a file produced by {@link #encryptFile}
+     * Files written before the segmented format (IV + single GCM block) are still accepted.
+     * The partial output is removed if a segment fails authentication.
      * @param file The file to decrypt
      * @param key The Base64 encoded string representation of the SecretKey
      * @return The decrypted file
      * @throws CryptoException
      */
     public File decryptFile(File file, String key) throws CryptoException {
+        Path output = Paths.get(file.getAbsolutePath() + ".decrypted");
         try {
-            String pathOutput = file.getAbsolutePath() + ".decrypted";
-            Path path = Paths.get(pathOutput);
-            SecretKey secretKey = convertStringToSecretKey(key);
-            FileInputStream inputStream = new FileInputStream(file);
-            byte[] iv = new byte[ValueUtils.IV_LENGTH_BYTE];
-            inputStream.read(iv);
-            byte[] inputBytes = new byte[(int) (file.length() - iv.length)];
-            inputStream.read(inputBytes);
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(ValueUtils.TAG_LENGTH_BIT, iv));
-            byte[] outputBytes = cipher.doFinal(inputBytes);
-
-            File fileEncryptOut = new File(path.toUri());
-            FileOutputStream outputStream = new FileOutputStream(fileEncryptOut);
-            outputStream.write(outputBytes);
-            inputStream.close();
-            outputStream.close();
-            return fileEncryptOut;
+            if (!isSegmentedFile(file.toPath())) {
+                return decryptLegacyFile(file, key, output);
+            }
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                streamingAead.decrypt(convertStringToSecretKey(key), in, out);
+            }
+            return output.toFile();
         } catch (CryptoException e) {
+            deleteQuietly(output);
             throw e;
         } catch (Exception e) {
+            deleteQuietly(output);
             throw new CryptoException("Error decrypting file: " + e.getMessage());
         }
     }
 
+    /**
+     * Encrypt a stream using segmented AES-GCM (see {@link StreamingAead})
+     * @param input The plaintext stream, read until its end
+     * @param output The stream receiving the ciphertext
+     * @param key The Base64 encoded string representation of the SecretKey
+     * @throws CryptoException
+     */
+    public void encryptStream(InputStream input, OutputStream output, String key) throws CryptoException {
+        try {
+            streamingAead.encrypt(convertStringToSecretKey(key), Channels.newChannel(input), Channels.newChannel(output));
+            output.flush();
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Error encrypting stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypt a stream produced by {@link #encryptStream}
+     * @param input The ciphertext stream, read until its end
+     * @param output The stream receiving the plaintext, one authenticated segment at a time
+     * @param key The Base64 encoded string representation of the SecretKey
+     * @throws CryptoException
+     */
+    public void decryptStream(InputStream input, OutputStream output, String key) throws CryptoException {
+        try {
+            streamingAead.decrypt(convertStringToSecretKey(key), Channels.newChannel(input), Channels.newChannel(output));
+            output.flush();
+        } catch (CryptoException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoException("Error decrypting stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Check whether a file starts with the segmented format header
+     */
+    private boolean isSegmentedFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(StreamingAead.MAGIC.length);
+            StreamingAead.readFully(channel, magic);
+            return StreamingAead.hasMagic(magic.array());
+        }
+    }
+
+    /**
+     * Decrypt a file in the previous format (IV followed by a single GCM ciphertext)
+     */
+    private File decryptLegacyFile(File file, String key, Path output) throws Exception {
+        SecretKey secretKey = convertStringToSecretKey(key);
+        byte[] content = Files.readAllBytes(file.toPath());
+        int ivLength = config.getIvLengthBytes();
+        if (content.length < ivLength) {
+            throw new CryptoException("Encrypted file is too short: " + file);
+        }
+        Cipher cipher = CryptoPrimitives.cipher(config.getAesGcmAlgo());
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(config.getTagLengthBits(), content, 0, ivLength));
+        byte[] outputBytes = cipher.doFinal(content, ivLength, content.length - ivLength);
+        Files.write(output, outputBytes);
+        return output.toFile();
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // best effort: the caller already reports the original failure
+        }
+    }
+
     /**
      * Generate a new AES key
      * @param initialValue The text to generate a key from
@@ -243,8 +635,8 @@ public class CryptoService implements Encrypt {
      */
     public String[] generateKey(String initialValue) throws CryptoException {
         try {
-            byte[] salt = getRandomNonce(ValueUtils.SALT_LENGTH_BYTE);
-            SecretKey secretKey = getAESKeyFromPassword(initialValue.toCharArray(), salt);
+            byte[] salt = getRandomNonce(config.getSaltLengthBytes());
+            SecretKey secretKey = getAESKeyFromPassword(initialValue.toCharArray(), salt, config.getAesKeyBits());
             return new String[] {convertSecretKeyToString(secretKey), Base64.getEncoder().encodeToString(salt)};
         } catch (CryptoException e) {
             throw e;
@@ -255,8 +647,7 @@ public class CryptoService implements Encrypt {
 
     public String[] generateKey(String initialValue, String saltStr) throws CryptoException {
         try {
-            byte[] salt = Base64.getDecoder().decode(saltStr);
-            SecretKey secretKey = getAESKeyFromPassword(initialValue.toCharArray(), salt);
+            SecretKey secretKey = deriveKey(initialValue, saltStr);
             return new String[] {convertSecretKeyToString(secretKey), saltStr};
         } catch (CryptoException e) {
             throw e;
@@ -265,13 +656,108 @@ public class CryptoService implements Encrypt {
         }
     }
 
+    /**
+     * Derive the AES key of a file from a text and its stored salt
+     * @param initialValue The text to derive the key from
+     * @param saltStr The Base64 encoded salt of the file
+     * @return The derived SecretKey
+     * @throws CryptoException
+     */
+    public SecretKey deriveKey(String initialValue, String saltStr) throws CryptoException {
+        return deriveKey(initialValue, saltStr, KdfParameters.LEGACY);
+    }
+
+    /**
+     * Derive the AES key of a file from a text, its stored salt and its stored KDF parameters
+     * @param initialValue The text to derive the key from
+     * @param saltStr The Base64 encoded salt of the file
+     * @param kdf The KDF parameters recorded with the salt
+     * @return the derived key
+     * @throws CryptoException
+     */
+    public SecretKey deriveKey(String initialValue, String saltStr, KdfParameters kdf) throws CryptoException {
+        try {
+            byte[] salt = Base64.getDecoder().decode(saltStr);
+            return getAESKeyFromPassword(initialValue.toCharArray(), salt, config.getAesKeyBits(), kdf);
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Invalid Base64 salt: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Derive the key-encryption key of a user from the password typed at login.
+     * Done once per session: file keys are then unwrapped with it instead of running PBKDF2 per file.
+     * @param password The plain password of the user
+     * @param kekSaltStr The Base64 encoded KEK salt stored with the user
+     * @return The key-encryption key
+     * @throws CryptoException
+     */
+    public SecretKey deriveKeyEncryptionKey(String password, String kekSaltStr) throws CryptoException {
+        return deriveKey(password, kekSaltStr);
+    }
+
+    /**
+     * Derive the key-encryption key of a user with explicit KDF parameters.
+     * A user has one KEK per set of parameters still recorded on their file rows.
+     * @param password The plain password of the user
+     * @param kekSaltStr The Base64 encoded KEK salt of the user
+     * @param kdf The KDF parameters
+     * @return the key-encryption key
+     * @throws CryptoException
+     */
+    public SecretKey deriveKeyEncryptionKey(String password, String kekSaltStr, KdfParameters kdf) throws CryptoException {
+        return deriveKey(password, kekSaltStr, kdf);
+    }
+
+    /**
+     * Generate a random data key for a file
+     * @return a fresh AES key of the configured size
+     */
+    public SecretKey generateDataKey() {
+        byte[] key = getRandomNonce(config.getAesKeyBits() / 8);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Wrap a file data key with a key-encryption key (AES Key Wrap, RFC 3394)
+     * @param dataKey The key to protect
+     * @param kek The key-encryption key of the owner
+     * @return Base64 encoded wrapped key
+     * @throws CryptoException
+     */
+    public static String wrapKey(SecretKey dataKey, SecretKey kek) throws CryptoException {
+        try {
+            Cipher cipher = CryptoPrimitives.cipher("AESWrap");
+            cipher.init(Cipher.WRAP_MODE, kek);
+            return Base64.getEncoder().encodeToString(cipher.wrap(dataKey));
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Error wrapping data key: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unwrap a file data key
+     * @param wrappedKey The Base64 encoded wrapped key
+     * @param kek The key-encryption key of the owner
+     * @return The data key
+     * @throws CryptoException if the KEK is wrong or the wrapped key was altered
+     */
+    public static SecretKey unwrapKey(String wrappedKey, SecretKey kek) throws CryptoException {
+        try {
+            Cipher cipher = CryptoPrimitives.cipher("AESWrap");
+            cipher.init(Cipher.UNWRAP_MODE, kek);
+            return (SecretKey) cipher.unwrap(Base64.getDecoder().decode(wrappedKey), "AES", Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new CryptoException("Error unwrapping data key: " + e.getMessage());
+        }
+    }
+
     /**
      * Génère un salt aléatoire (base64)
      */
     public static String generateSalt() {
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16]; // 128 bits
-        random.nextBytes(salt);
+        CryptoPrimitives.nextBytes(salt);
         return Base64.getEncoder().encodeToString(salt);
     }
 
@@ -279,13 +765,9 @@ public class CryptoService implements Encrypt {
      * Hash un mot de passe avec un salt (SHA-256)
      */
     public static String hashPassword(String password, String salt) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(Base64.getDecoder().decode(salt));
-            byte[] hashedPassword = md.digest(password.getBytes());
-            return Base64.getEncoder().encodeToString(hashedPassword);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
-        }
+        MessageDigest md = CryptoPrimitives.digest("SHA-256");
+        md.update(Base64.getDecoder().decode(salt));
+        byte[] hashedPassword = md.digest(password.getBytes());
+        return Base64.getEncoder().encodeToString(hashedPassword);
     }
 }
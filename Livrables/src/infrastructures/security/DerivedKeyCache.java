@@ -0,0 +1,192 @@
+package infrastructures.security;
+
+import javax.crypto.SecretKey;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Session-scoped cache of PBKDF2-derived file keys.
+ * Entries are keyed by (user, file salt), bounded in size (least recently used first)
+ * and expire after a fixed time-to-live.
+ */
+public class DerivedKeyCache {
+    private static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final long DEFAULT_TTL_MILLIS = 15 * 60 * 1000L;
+
+    private static DerivedKeyCache instance;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<CacheKey, CachedKey> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructs a cache with the given bounds.
+     *
+     * @param maxEntries the maximum number of keys kept in memory
+     * @param ttlMillis the time-to-live of an entry in milliseconds
+     */
+    public DerivedKeyCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the shared instance of DerivedKeyCache.
+     *
+     * @return the DerivedKeyCache instance
+     */
+    public static synchronized DerivedKeyCache getInstance() {
+        if (instance == null) {
+            instance = new DerivedKeyCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cached key for (user, salt), deriving and caching it on a miss.
+     * The derivation runs outside the lock so a slow PBKDF2 does not block other lookups.
+     *
+     * @param user the owner of the key
+     * @param salt the Base64 salt of the file
+     * @param loader the derivation to run on a miss
+     * @return the derived key
+     */
+    public SecretKey getOrDerive(String user, String salt, Supplier<SecretKey> loader) {
+        CacheKey cacheKey = new CacheKey(user, salt);
+        synchronized (this) {
+            CachedKey cached = entries.get(cacheKey);
+            if (cached != null && !isExpired(cached, System.nanoTime())) {
+                hits++;
+                return cached.key;
+            }
+            if (cached != null) {
+                entries.remove(cacheKey);
+                evictions++;
+            }
+            misses++;
+        }
+        SecretKey derived = loader.get();
+        put(user, salt, derived);
+        return derived;
+    }
+
+    /**
+     * Stores a key that was derived elsewhere (e.g. when a file is created).
+     *
+     * @param user the owner of the key
+     * @param salt the Base64 salt of the file
+     * @param key the derived key
+     */
+    public synchronized void put(String user, String salt, SecretKey key) {
+        entries.put(new CacheKey(user, salt), new CachedKey(key, System.nanoTime()));
+        evictOverflow();
+    }
+
+    /**
+     * Removes every key belonging to the given user.
+     *
+     * @param user the user whose keys are dropped
+     */
+    public synchronized void invalidateUser(String user) {
+        Iterator<CacheKey> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (Objects.equals(it.next().user, user)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes every cached key.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Formats the cache counters for display.
+     *
+     * @return a one-line summary of the cache state
+     */
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0.0 : (100.0 * hits) / lookups;
+        return String.format("entries=%d/%d hits=%d misses=%d evictions=%d hitRate=%.1f%%",
+                entries.size(), maxEntries, hits, misses, evictions, hitRate);
+    }
+
+    private boolean isExpired(CachedKey cached, long now) {
+        return now - cached.createdAt > ttlNanos;
+    }
+
+    private void evictOverflow() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<CacheKey, CachedKey>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<CacheKey, CachedKey> entry = it.next();
+            if (entries.size() > maxEntries || isExpired(entry.getValue(), now)) {
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private static final class CacheKey {
+        private final String user;
+        private final String salt;
+
+        private CacheKey(String user, String salt) {
+            this.user = user;
+            this.salt = salt;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return Objects.equals(user, other.user) && Objects.equals(salt, other.salt);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, salt);
+        }
+    }
+
+    private static final class CachedKey {
+        private final SecretKey key;
+        private final long createdAt;
+
+        private CachedKey(SecretKey key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package infrastructures.security;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Write-through channel that feeds every byte written to a SHA-256 digest and counts them,
+ * so the integrity hash and size of a file come out of the write itself instead of
+ * a second pass over the file once it is written.
+ * Only the bytes the underlying channel actually accepted are digested.
+ */
+public final class DigestingChannel implements WritableByteChannel {
+    private final WritableByteChannel out;
+    private final MessageDigest digest;
+    private long size;
+
+    /**
+     * Wraps a channel, feeding a new SHA-256 digest (see {@link HashService#newSha256()}).
+     *
+     * @param out the channel the bytes are written to
+     */
+    public DigestingChannel(WritableByteChannel out) {
+        this(out, HashService.newSha256());
+    }
+
+    /**
+     * Wraps a channel, feeding the given digest.
+     *
+     * @param out the channel the bytes are written to
+     * @param digest the digest updated with every byte written
+     */
+    public DigestingChannel(WritableByteChannel out, MessageDigest digest) {
+        this.out = out;
+        this.digest = digest;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int start = src.position();
+        int written = out.write(src);
+        if (written > 0) {
+            ByteBuffer accepted = src.duplicate();
+            accepted.position(start).limit(start + written);
+            digest.update(accepted);
+            size += written;
+        }
+        return written;
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return the size of the written content
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Completes the digest of everything written. Call it once, after the last write.
+     *
+     * @return the SHA-256 of the written content, in hexadecimal (same format as {@link HashService#sha256})
+     */
+    public String hexDigest() {
+        return HashService.toHex(digest.digest());
+    }
+
+    @Override
+    public boolean isOpen() {
+        return out.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -1,23 +1,42 @@
 package infrastructures.security;
+import domain.exception.CryptoException;
 import domain.exception.UnknowException;
 
 import java.io.IOException;
-import java.nio.file.Files; // permet de lire le contenu d'un fichier
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel; // lecture du fichier par blocs
 import java.nio.file.Path; // représente un chemin de fichier
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest; // pour le calcul des hash
-import java.security.NoSuchAlgorithmException; // gère les exceptions si l'algorithme de hash n'est pas disponible
+import java.security.NoSuchAlgorithmException;
 
 
 public class HashService {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // un buffer direct par thread : la mémoire utilisée ne dépend pas de la taille du fichier
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
     /**
      * Calcule le hash SHA-256 d'un fichier et le retourne en hexadécimal.
+     * Le fichier est lu par blocs de 64 Ko dans un buffer direct réutilisé, sans être chargé en mémoire.
      */
     public String sha256(Path file) {
-        try {
-            byte[] content = Files.readAllBytes(file);
-            return sha256(content);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = CryptoPrimitives.digest("SHA-256"); // instance réutilisée par thread
+            ByteBuffer buffer = BUFFERS.get();
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return toHex(digest.digest());
         } catch (IOException e) {
             throw new UnknowException("Impossible de lire le fichier pour calculer le hash : " + file);
+        } catch (CryptoException e) {
+            throw new UnknowException("SHA-256 indisponible sur cette JVM.");
         }
     }
 
@@ -26,19 +45,37 @@ public class HashService {
      */
     public String sha256(byte[] data) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            MessageDigest digest = CryptoPrimitives.digest("SHA-256"); // instance réutilisée par thread
             byte[] hash = digest.digest(data);
             return toHex(hash);
+        } catch (CryptoException e) {
+            throw new UnknowException("SHA-256 indisponible sur cette JVM.");
+        }
+    }
+
+    /**
+     * Crée une instance SHA-256 dédiée, pour un hash calculé au fil d'une écriture.
+     * L'instance par thread de CryptoPrimitives ne convient pas : un autre hash calculé
+     * sur le même thread pendant l'écriture la réinitialiserait.
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new UnknowException("SHA-256 indisponible sur cette JVM.");
         }
     }
 
-    private String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    /**
+     * Convertit des bytes en hexadécimal minuscule, avec une table de correspondance
+     * (un seul tableau de caractères alloué, pas de String.format par octet).
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[2 * i + 1] = HEX[bytes[i] & 0x0F];
         }
-        return sb.toString();
+        return new String(chars);
     }
 }
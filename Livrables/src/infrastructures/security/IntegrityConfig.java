@@ -0,0 +1,120 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Immutable, validated integrity configuration read from the same .env file as {@link CryptoConfig}:
+ * verification cache, background scrubber and watcher of the root.
+ * The file is parsed once, on first use.
+ */
+public final class IntegrityConfig {
+    private static final String DEFAULT_ENV_PATH = ".env";
+
+    private static volatile IntegrityConfig instance;
+
+    private final int rehashEvery;
+    private final int rehashMinutes;
+    private final int scrubMbPerSecond;
+    private final int scrubFilesPerSecond;
+    private final boolean watch;
+
+    private IntegrityConfig(int rehashEvery, int rehashMinutes, int scrubMbPerSecond, int scrubFilesPerSecond, boolean watch) {
+        this.rehashEvery = rehashEvery;
+        this.rehashMinutes = rehashMinutes;
+        this.scrubMbPerSecond = scrubMbPerSecond;
+        this.scrubFilesPerSecond = scrubFilesPerSecond;
+        this.watch = watch;
+    }
+
+    /**
+     * Gets the configuration loaded from .env, loading it on first use.
+     *
+     * @return the current configuration
+     * @throws CryptoException if the file is missing or invalid
+     */
+    public static IntegrityConfig getInstance() throws CryptoException {
+        IntegrityConfig config = instance;
+        if (config == null) {
+            synchronized (IntegrityConfig.class) {
+                if (instance == null) {
+                    instance = load(Paths.get(DEFAULT_ENV_PATH));
+                }
+                config = instance;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Reads and validates a configuration file.
+     *
+     * @param envFile the properties file to read
+     * @return the validated configuration
+     * @throws CryptoException if the file cannot be read or a value is invalid
+     */
+    public static IntegrityConfig load(Path envFile) throws CryptoException {
+        return fromProperties(CryptoConfig.readProperties(envFile));
+    }
+
+    /**
+     * Builds and validates a configuration from already loaded properties.
+     * Every setting is optional; every problem is reported at once.
+     *
+     * @param props the properties (INTEGRITY_REHASH_EVERY / INTEGRITY_REHASH_MINUTES = number of checks / minutes after which
+     *              a file whose attributes did not change is hashed again, 0 to hash on every check,
+     *              INTEGRITY_SCRUB_MB_PER_SECOND / INTEGRITY_SCRUB_FILES_PER_SECOND = budget of the background integrity scrubber,
+     *              0 Mo/s to disable it,
+     *              INTEGRITY_WATCH = on | off, watch the root for changes made outside the application)
+     * @return the validated configuration
+     * @throws CryptoException if a value is invalid
+     */
+    public static IntegrityConfig fromProperties(Properties props) throws CryptoException {
+        List<String> errors = new ArrayList<>();
+
+        int rehashEvery = CryptoConfig.intSetting(props, "INTEGRITY_REHASH_EVERY", VerificationCache.DEFAULT_REHASH_EVERY, 0, 1_000_000, errors);
+        int rehashMinutes = CryptoConfig.intSetting(props, "INTEGRITY_REHASH_MINUTES", (int) (VerificationCache.DEFAULT_REHASH_MILLIS / 60_000), 0, 10_080, errors);
+        int scrubMbPerSecond = CryptoConfig.intSetting(props, "INTEGRITY_SCRUB_MB_PER_SECOND", 4, 0, 10_000, errors);
+        int scrubFilesPerSecond = CryptoConfig.intSetting(props, "INTEGRITY_SCRUB_FILES_PER_SECOND", 20, 1, 100_000, errors);
+        String watch = props.getProperty("INTEGRITY_WATCH", "on").trim().toLowerCase();
+
+        if (!"on".equals(watch) && !"off".equals(watch)) {
+            errors.add("INTEGRITY_WATCH must be on or off (got " + watch + ")");
+        }
+        if (!errors.isEmpty()) {
+            throw new CryptoException("Invalid integrity configuration: " + String.join("; ", errors));
+        }
+        return new IntegrityConfig(rehashEvery, rehashMinutes, scrubMbPerSecond, scrubFilesPerSecond, "on".equals(watch));
+    }
+
+    public int getRehashEvery() {
+        return rehashEvery;
+    }
+
+    public int getRehashMinutes() {
+        return rehashMinutes;
+    }
+
+    public int getScrubMbPerSecond() {
+        return scrubMbPerSecond;
+    }
+
+    public int getScrubFilesPerSecond() {
+        return scrubFilesPerSecond;
+    }
+
+    public boolean isWatchEnabled() {
+        return watch;
+    }
+
+    @Override
+    public String toString() {
+        return "IntegrityConfig{rehash=" + rehashEvery + " checks/" + rehashMinutes + " min, scrub="
+                + scrubMbPerSecond + " MB/s/" + scrubFilesPerSecond + " files/s, watch=" + (watch ? "on" : "off") + "}";
+    }
+}
@@ -0,0 +1,356 @@
+package infrastructures.security;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Latest integrity entry of every tracked path, kept in flat arrays rather than one object per entry:
+ * an open-addressing table (linear probing) of keys, with the SHA-256 of each entry stored as 32 raw bytes
+ * and its size and timestamp as primitive longs. Hashes that are not a lowercase SHA-256 hex string
+ * (e.g. "DELETED") are kept as text.
+ *
+ * The index can be saved as a snapshot tagged with the log position it covers, written and read
+ * through a memory mapping, so a restart only replays the log records that follow that position.
+ *
+ * Not thread-safe: {@link IntegrityLog} guards it.
+ */
+public final class IntegrityIndex {
+    private static final byte[] MAGIC = "SFMIIDX1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER = MAGIC.length + 4 + 8 + 4 + 4;
+    private static final int DIGEST_BYTES = 32;
+    private static final byte KIND_SHA256 = 1;
+    private static final byte KIND_DELETED = 2;
+    private static final byte KIND_TEXT = 3;
+    private static final String DELETED = "DELETED";
+
+    private String[] keys;
+    private byte[] kinds;
+    private byte[] digests;
+    private String[] texts;
+    private long[] sizes;
+    private long[] timestamps;
+    private int count;
+
+    public IntegrityIndex() {
+        this(64);
+    }
+
+    private IntegrityIndex(int expected) {
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expected * 2 - 1)) << 1));
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        kinds = new byte[capacity];
+        digests = new byte[capacity * DIGEST_BYTES];
+        texts = new String[capacity];
+        sizes = new long[capacity];
+        timestamps = new long[capacity];
+        count = 0;
+    }
+
+    /**
+     * Applies a log record: an entry replaces the previous one of its path, a clear removes the path.
+     *
+     * @param record the record read from or appended to the log
+     */
+    public void apply(IntegrityLog.Record record) {
+        if (record.type == IntegrityLog.TYPE_CLEAR) {
+            remove(record.key);
+        } else {
+            put(record.key, record.hash, record.size, record.timestamp);
+        }
+    }
+
+    /**
+     * Records the latest entry of a path.
+     */
+    public void put(String key, String hash, long size, long timestamp) {
+        int slot = claim(key);
+        texts[slot] = null;
+        if (isSha256Hex(hash)) {
+            kinds[slot] = KIND_SHA256;
+            int base = slot * DIGEST_BYTES;
+            for (int i = 0; i < DIGEST_BYTES; i++) {
+                digests[base + i] = (byte) ((Character.digit(hash.charAt(2 * i), 16) << 4) | Character.digit(hash.charAt(2 * i + 1), 16));
+            }
+        } else if (DELETED.equals(hash)) {
+            kinds[slot] = KIND_DELETED;
+        } else {
+            kinds[slot] = KIND_TEXT;
+            texts[slot] = hash;
+        }
+        sizes[slot] = size;
+        timestamps[slot] = timestamp;
+    }
+
+    /**
+     * Finds the slot of a path, adding the path if it is not in the index yet.
+     */
+    private int claim(String key) {
+        if ((count + 1) * 4 > keys.length * 3) {
+            grow();
+        }
+        int slot = slotOf(key);
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            count++;
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the latest entry of a path.
+     *
+     * @param key the normalized path
+     * @return the entry, or null if the path has none
+     */
+    public IntegrityLog.Record get(String key) {
+        int slot = slotOf(key);
+        return keys[slot] == null ? null : recordAt(slot);
+    }
+
+    /**
+     * Removes a path (backward-shift deletion, so probing never needs tombstones).
+     */
+    public void remove(String key) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        if (keys[slot] == null) {
+            return;
+        }
+        count--;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = mix(keys[next].hashCode()) & mask;
+            // the entry may move into the hole only if its home slot is not between the hole and its position
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+        }
+        keys[hole] = null;
+        texts[hole] = null;
+        kinds[hole] = 0;
+    }
+
+    /**
+     * Gets the number of paths in the index.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Visits the latest entry of every path, in no particular order.
+     */
+    public void forEach(Consumer<IntegrityLog.Record> visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                visitor.accept(recordAt(slot));
+            }
+        }
+    }
+
+    private IntegrityLog.Record recordAt(int slot) {
+        String hash;
+        if (kinds[slot] == KIND_SHA256) {
+            hash = HashService.toHex(Arrays.copyOfRange(digests, slot * DIGEST_BYTES, (slot + 1) * DIGEST_BYTES));
+        } else if (kinds[slot] == KIND_DELETED) {
+            hash = DELETED;
+        } else {
+            hash = texts[slot];
+        }
+        return IntegrityLog.Record.entry(keys[slot], hash, sizes[slot], timestamps[slot]);
+    }
+
+    private int slotOf(String key) {
+        int mask = keys.length - 1;
+        int slot = mix(key.hashCode()) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        kinds[to] = kinds[from];
+        texts[to] = texts[from];
+        sizes[to] = sizes[from];
+        timestamps[to] = timestamps[from];
+        System.arraycopy(digests, from * DIGEST_BYTES, digests, to * DIGEST_BYTES, DIGEST_BYTES);
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        byte[] oldKinds = kinds;
+        byte[] oldDigests = digests;
+        String[] oldTexts = texts;
+        long[] oldSizes = sizes;
+        long[] oldTimestamps = timestamps;
+        int oldCount = count;
+        allocate(oldKeys.length * 2);
+        for (int from = 0; from < oldKeys.length; from++) {
+            if (oldKeys[from] != null) {
+                int to = slotOf(oldKeys[from]);
+                keys[to] = oldKeys[from];
+                kinds[to] = oldKinds[from];
+                texts[to] = oldTexts[from];
+                sizes[to] = oldSizes[from];
+                timestamps[to] = oldTimestamps[from];
+                System.arraycopy(oldDigests, from * DIGEST_BYTES, digests, to * DIGEST_BYTES, DIGEST_BYTES);
+            }
+        }
+        count = oldCount;
+    }
+
+    private static boolean isSha256Hex(String hash) {
+        if (hash.length() != DIGEST_BYTES * 2) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves the index, tagged with the log position it covers: written to a temporary file through
+     * a memory mapping, forced to disk, then moved over the previous snapshot.
+     *
+     * @param file the snapshot file
+     * @param segment the number of the log segment the position is in
+     * @param offset the offset in that segment following the last record applied
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(Path file, int segment, long offset) throws IOException {
+        long bodyLength = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null) {
+                bodyLength += 2 + keys[slot].getBytes(StandardCharsets.UTF_8).length + 1 + 8 + 8;
+                if (kinds[slot] == KIND_SHA256) {
+                    bodyLength += DIGEST_BYTES;
+                } else if (kinds[slot] == KIND_TEXT) {
+                    bodyLength += 1 + texts[slot].getBytes(StandardCharsets.US_ASCII).length;
+                }
+            }
+        }
+        if (HEADER + bodyLength > Integer.MAX_VALUE) {
+            throw new IOException("integrity index too large for a snapshot");
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + bodyLength);
+            out.position(HEADER);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == null) {
+                    continue;
+                }
+                byte[] key = keys[slot].getBytes(StandardCharsets.UTF_8);
+                out.putShort((short) key.length).put(key).put(kinds[slot]);
+                if (kinds[slot] == KIND_SHA256) {
+                    out.put(digests, slot * DIGEST_BYTES, DIGEST_BYTES);
+                } else if (kinds[slot] == KIND_TEXT) {
+                    byte[] text = texts[slot].getBytes(StandardCharsets.US_ASCII);
+                    out.put((byte) text.length).put(text);
+                }
+                out.putLong(sizes[slot]).putLong(timestamps[slot]);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(out.slice(HEADER, (int) bodyLength));
+            out.position(0);
+            out.put(MAGIC).putInt(segment).putLong(offset).putInt(count).putInt((int) crc.getValue());
+            out.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot through a memory mapping.
+     *
+     * @param file the snapshot file
+     * @return the snapshot, or null if there is none or it is damaged
+     */
+    public static Snapshot readSnapshot(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (!in.slice(0, MAGIC.length).equals(ByteBuffer.wrap(MAGIC))) {
+                return null;
+            }
+            in.position(MAGIC.length);
+            int segment = in.getInt();
+            long offset = in.getLong();
+            int entries = in.getInt();
+            int expectedCrc = in.getInt();
+            CRC32C crc = new CRC32C();
+            crc.update(in.slice(HEADER, (int) length - HEADER));
+            if ((int) crc.getValue() != expectedCrc || entries < 0) {
+                return null;
+            }
+            IntegrityIndex index = new IntegrityIndex(entries);
+            for (int i = 0; i < entries; i++) {
+                byte[] key = new byte[Short.toUnsignedInt(in.getShort())];
+                in.get(key);
+                int slot = index.claim(new String(key, StandardCharsets.UTF_8));
+                byte kind = in.get();
+                index.kinds[slot] = kind;
+                if (kind == KIND_SHA256) {
+                    in.get(index.digests, slot * DIGEST_BYTES, DIGEST_BYTES);
+                } else if (kind == KIND_TEXT) {
+                    byte[] text = new byte[Byte.toUnsignedInt(in.get())];
+                    in.get(text);
+                    index.texts[slot] = new String(text, StandardCharsets.US_ASCII);
+                } else if (kind != KIND_DELETED) {
+                    return null;
+                }
+                index.sizes[slot] = in.getLong();
+                index.timestamps[slot] = in.getLong();
+            }
+            return new Snapshot(index, segment, offset);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An index read from disk and the log position it covers.
+     */
+    public static final class Snapshot {
+        public final IntegrityIndex index;
+        public final int segment;
+        public final long offset;
+
+        private Snapshot(IntegrityIndex index, int segment, long offset) {
+            this.index = index;
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+}
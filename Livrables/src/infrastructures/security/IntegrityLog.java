@@ -0,0 +1,446 @@
+package infrastructures.security;
+
+import domain.exception.UnknowException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the integrity history, split into numbered segment files.
+ *
+ * Each segment starts with an 8-byte magic and holds records laid out as
+ * <pre>
+ *   length (4) | crc32c of the payload (4) | payload
+ *   payload = type (1) | timestamp millis (8) | size (8) | key length (2) | key (UTF-8) | hash length (1) | hash (ASCII)
+ * </pre>
+ * An append writes one record at the end of the current segment, whatever the length of the history.
+ * A new segment is started once the current one reaches the size limit.
+ *
+ * A crash can leave a partial record at the end of the last segment: it is detected on open
+ * (short record or checksum mismatch) and cut off, so the log always ends on a complete record.
+ *
+ * The latest entry of every path is served by an {@link IntegrityIndex}, loaded on first lookup from
+ * the snapshot saved in the log directory plus the records appended after it, then kept up to date
+ * by every append. The snapshot is saved again when a segment is complete and every
+ * {@value #SNAPSHOT_INTERVAL} records, so a restart never replays more than that.
+ *
+ * One instance per directory is shared by the whole process (see {@link #open(Path)}).
+ */
+public final class IntegrityLog {
+    public static final long DEFAULT_SEGMENT_BYTES = 8L << 20;
+    public static final byte TYPE_ENTRY = 1;
+    public static final byte TYPE_CLEAR = 2;
+
+    private static final byte[] MAGIC = "SFMILOG1".getBytes(StandardCharsets.US_ASCII);
+    private static final int RECORD_HEADER = 8;
+    private static final int FIXED_PAYLOAD = 1 + 8 + 8 + 2 + 1;
+    private static final int MAX_KEY_BYTES = 0xFFFF;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{6})\\.log");
+    private static final int SNAPSHOT_INTERVAL = 10_000;
+    private static final String SNAPSHOT_NAME = "index.snapshot";
+    private static final Map<Path, IntegrityLog> OPEN = new HashMap<>();
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private int segmentNumber;
+    private long segmentSize;
+    private long truncatedBytes;
+    private IntegrityIndex index;
+    private int recordsSinceSnapshot;
+
+    private IntegrityLog(Path dir, long segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens the log of a directory with the default segment size.
+     *
+     * @param dir the directory of the segments, created if needed
+     * @return the log of this directory, shared by every caller
+     * @throws UnknowException if the directory or its last segment cannot be opened
+     */
+    public static IntegrityLog open(Path dir) {
+        return open(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Opens the log of a directory, recovering its last segment if the previous run stopped mid-append.
+     *
+     * @param dir the directory of the segments, created if needed
+     * @param segmentBytes the size from which a new segment is started (ignored if the log is already open)
+     * @return the log of this directory, shared by every caller
+     * @throws UnknowException if the directory or its last segment cannot be opened
+     */
+    public static synchronized IntegrityLog open(Path dir, long segmentBytes) {
+        Path key = dir.toAbsolutePath().normalize();
+        IntegrityLog log = OPEN.get(key);
+        if (log == null) {
+            log = new IntegrityLog(key, Math.max(MAGIC.length + RECORD_HEADER + FIXED_PAYLOAD, segmentBytes));
+            log.recover();
+            OPEN.put(key, log);
+        }
+        return log;
+    }
+
+    /**
+     * Opens the last segment and cuts off what follows its last complete record.
+     */
+    private void recover() {
+        try {
+            Files.createDirectories(dir);
+            List<Path> segments = segments();
+            if (segments.isEmpty()) {
+                openSegment(1);
+                return;
+            }
+            Path last = segments.get(segments.size() - 1);
+            segmentNumber = segmentNumber(last);
+            channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long fileSize = channel.size();
+            if (fileSize < MAGIC.length) {
+                // torn while the segment was being created
+                channel.truncate(0);
+                writeFully(ByteBuffer.wrap(MAGIC), 0);
+                truncatedBytes = fileSize;
+                segmentSize = MAGIC.length;
+                return;
+            }
+            long validEnd = scan(last, MAGIC.length, null);
+            if (validEnd < fileSize) {
+                channel.truncate(validEnd);
+                channel.force(false);
+                truncatedBytes = fileSize - validEnd;
+                System.err.println("Journal d'intégrité : " + truncatedBytes + " octets incomplets retirés de " + last.getFileName());
+            }
+            segmentSize = validEnd;
+        } catch (IOException e) {
+            throw new UnknowException("Impossible d'ouvrir le journal d'intégrité : " + dir);
+        }
+    }
+
+    /**
+     * Appends a record at the end of the log.
+     *
+     * @param record the record to append
+     * @throws UnknowException if the record cannot be written
+     */
+    public synchronized void append(Record record) {
+        ByteBuffer encoded = encode(record);
+        boolean rolled = false;
+        try {
+            if (segmentSize > MAGIC.length && segmentSize + encoded.remaining() > segmentBytes) {
+                channel.force(false);
+                channel.close();
+                openSegment(segmentNumber + 1);
+                rolled = true;
+            }
+            writeFully(encoded, segmentSize);
+            segmentSize += encoded.limit();
+        } catch (IOException e) {
+            throw new UnknowException("Impossible d'écrire dans le journal d'intégrité : " + dir);
+        }
+        if (index != null) {
+            index.apply(record);
+            recordsSinceSnapshot++;
+            if (rolled || recordsSinceSnapshot >= SNAPSHOT_INTERVAL) {
+                saveSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Gets the latest record of a key.
+     *
+     * @param key the normalized path of the file
+     * @return the last entry of the key, or null if it has none or its history was cleared since
+     */
+    public synchronized Record last(String key) {
+        return index().get(key);
+    }
+
+    /**
+     * Visits the latest record of every key that has one, in no particular order.
+     *
+     * @param visitor called with each record
+     */
+    public synchronized void forEachLast(Consumer<Record> visitor) {
+        index().forEach(visitor);
+    }
+
+    /**
+     * Gets the index, loading it on first use: the snapshot if it matches the log, then the records that follow it.
+     */
+    private IntegrityIndex index() {
+        if (index == null) {
+            Path snapshotFile = dir.resolve(SNAPSHOT_NAME);
+            IntegrityIndex.Snapshot snapshot = IntegrityIndex.readSnapshot(snapshotFile);
+            int[] replayed = {0};
+            try {
+                if (snapshot != null && covers(snapshot)) {
+                    index = snapshot.index;
+                    replayFrom(snapshot.segment, snapshot.offset, record -> {
+                        index.apply(record);
+                        replayed[0]++;
+                    });
+                } else {
+                    IntegrityIndex rebuilt = new IntegrityIndex();
+                    replayFrom(0, 0, record -> {
+                        rebuilt.apply(record);
+                        replayed[0]++;
+                    });
+                    index = rebuilt;
+                }
+            } catch (IOException e) {
+                throw new UnknowException("Impossible de lire le journal d'intégrité : " + dir);
+            }
+            recordsSinceSnapshot = replayed[0];
+            if (recordsSinceSnapshot >= SNAPSHOT_INTERVAL || (snapshot == null && recordsSinceSnapshot > 0)) {
+                saveSnapshot();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Checks that a snapshot position is still in the log: the log may have been cut or replaced since.
+     */
+    private boolean covers(IntegrityIndex.Snapshot snapshot) throws IOException {
+        if (snapshot.segment > segmentNumber || snapshot.offset < MAGIC.length) {
+            return false;
+        }
+        if (snapshot.segment == segmentNumber) {
+            return snapshot.offset <= segmentSize;
+        }
+        Path segment = segmentPath(snapshot.segment);
+        return Files.exists(segment) && snapshot.offset <= Files.size(segment);
+    }
+
+    /**
+     * Saves the index with the current end of the log, once the log itself is on disk.
+     * A failure only means a longer replay at the next start.
+     */
+    private void saveSnapshot() {
+        try {
+            channel.force(false);
+            index.writeSnapshot(dir.resolve(SNAPSHOT_NAME), segmentNumber, segmentSize);
+            recordsSinceSnapshot = 0;
+        } catch (IOException e) {
+            System.err.println("Index d'intégrité non sauvegardé : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads every record of the log, oldest first.
+     *
+     * @param visitor called with each record
+     * @throws UnknowException if a segment cannot be read
+     */
+    public synchronized void replay(Consumer<Record> visitor) {
+        try {
+            replayFrom(0, 0, visitor);
+        } catch (IOException e) {
+            throw new UnknowException("Impossible de lire le journal d'intégrité : " + dir);
+        }
+    }
+
+    /**
+     * Reads the records that follow a position of the log, oldest first.
+     */
+    private void replayFrom(int fromSegment, long fromOffset, Consumer<Record> visitor) throws IOException {
+        for (Path segment : segments()) {
+            int number = segmentNumber(segment);
+            if (number < fromSegment) {
+                continue;
+            }
+            long size = Files.size(segment);
+            long validEnd = scan(segment, number == fromSegment ? fromOffset : MAGIC.length, visitor);
+            if (validEnd < size && number != segmentNumber) {
+                System.err.println("Journal d'intégrité : segment endommagé " + segment.getFileName()
+                        + ", " + (size - validEnd) + " octets ignorés");
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a segment up to the first one that is incomplete or fails its checksum.
+     *
+     * @return the offset following the last valid record
+     */
+    private long scan(Path segment, long from, Consumer<Record> visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        if (buffer.remaining() < MAGIC.length || !buffer.slice(0, MAGIC.length).equals(ByteBuffer.wrap(MAGIC))) {
+            throw new IOException("not an integrity log segment: " + segment);
+        }
+        buffer.position((int) Math.max(MAGIC.length, from));
+        CRC32C check = new CRC32C();
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length < FIXED_PAYLOAD || length > buffer.remaining()) {
+                return start;
+            }
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            check.reset();
+            check.update(payload.duplicate());
+            if ((int) check.getValue() != expected) {
+                return start;
+            }
+            Record record = decode(payload);
+            if (record == null) {
+                return start;
+            }
+            if (visitor != null) {
+                visitor.accept(record);
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return buffer.position();
+    }
+
+    private ByteBuffer encode(Record record) {
+        byte[] key = record.key.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = record.hash.getBytes(StandardCharsets.US_ASCII);
+        if (key.length > MAX_KEY_BYTES || hash.length > 0xFF) {
+            throw new UnknowException("Entrée d'intégrité trop longue : " + record.key);
+        }
+        int length = FIXED_PAYLOAD + key.length + hash.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + length);
+        buffer.putInt(length).putInt(0)
+                .put(record.type).putLong(record.timestamp).putLong(record.size)
+                .putShort((short) key.length).put(key)
+                .put((byte) hash.length).put(hash);
+        crc.reset();
+        crc.update(buffer.array(), RECORD_HEADER, length);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.flip();
+    }
+
+    private static Record decode(ByteBuffer payload) {
+        byte type = payload.get();
+        long timestamp = payload.getLong();
+        long size = payload.getLong();
+        int keyLength = Short.toUnsignedInt(payload.getShort());
+        if (keyLength + 1 > payload.remaining()) {
+            return null;
+        }
+        byte[] key = new byte[keyLength];
+        payload.get(key);
+        int hashLength = Byte.toUnsignedInt(payload.get());
+        if (hashLength != payload.remaining() || (type != TYPE_ENTRY && type != TYPE_CLEAR)) {
+            return null;
+        }
+        byte[] hash = new byte[hashLength];
+        payload.get(hash);
+        return new Record(type, new String(key, StandardCharsets.UTF_8), new String(hash, StandardCharsets.US_ASCII), size, timestamp);
+    }
+
+    private void openSegment(int number) throws IOException {
+        segmentNumber = number;
+        channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeFully(ByteBuffer.wrap(MAGIC), 0);
+        segmentSize = MAGIC.length;
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("segment-%06d.log", number));
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Lists the segment files, oldest first.
+     *
+     * @return the paths of the segments
+     * @throws IOException if the directory cannot be listed
+     */
+    public synchronized List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> SEGMENT_NAME.matcher(p.getFileName().toString()).matches()).forEach(segments::add);
+        }
+        segments.sort((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+
+    private static int segmentNumber(Path segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Gets the number of paths that have an entry.
+     *
+     * @return the size of the index
+     */
+    public synchronized int trackedCount() {
+        return index().size();
+    }
+
+    /**
+     * Gets the number of bytes cut off the last segment when the log was opened.
+     *
+     * @return 0 if the previous run stopped cleanly
+     */
+    public synchronized long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /**
+     * Gets the directory of the segments.
+     *
+     * @return the log directory
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * One record of the log: a new entry of a file, or the removal of its whole history.
+     */
+    public static final class Record {
+        public final byte type;
+        public final String key;
+        public final String hash;
+        public final long size;
+        public final long timestamp;
+
+        public Record(byte type, String key, String hash, long size, long timestamp) {
+            this.type = type;
+            this.key = key;
+            this.hash = hash;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+
+        public static Record entry(String key, String hash, long size, long timestamp) {
+            return new Record(TYPE_ENTRY, key, hash, size, timestamp);
+        }
+
+        public static Record clear(String key, long timestamp) {
+            return new Record(TYPE_CLEAR, key, "", 0, timestamp);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package infrastructures.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Merkle tree of the integrity store, shaped like the directory tree: every file with an entry is a leaf
+ * (hash of its name, entry hash and size), every directory hashes the sorted names and hashes of its
+ * files and sub-directories, up to a single root hash for the whole store.
+ *
+ * Updating an entry only marks the directories on its path as dirty; their hashes are recomputed on the
+ * next read, so a burst of appends costs one recomputation per touched directory. Two trees (e.g. the
+ * current one and a {@link #copy()} taken earlier) are compared by descending only into the directories
+ * whose hashes differ.
+ */
+public class IntegrityMerkleTree {
+    private final Node root = new Node();
+    private final MessageDigest digest = HashService.newSha256();
+    private int fileCount;
+
+    /**
+     * Sets the latest entry of a file.
+     *
+     * @param key the normalized path of the file ("dir/sub/name")
+     * @param hash the hash of the entry ("DELETED" for a delete event)
+     * @param size the size of the entry
+     */
+    public synchronized void update(String key, String hash, long size) {
+        String[] parts = key.split("/");
+        Node node = root;
+        node.hash = null;
+        for (int i = 0; i < parts.length - 1; i++) {
+            node = node.dirs.computeIfAbsent(parts[i], name -> new Node());
+            node.hash = null;
+        }
+        String name = parts[parts.length - 1];
+        if (node.files.put(name, leafHash(name, hash, size)) == null) {
+            fileCount++;
+        }
+    }
+
+    /**
+     * Removes a file from the tree, and the directories it leaves empty.
+     *
+     * @param key the normalized path of the file
+     */
+    public synchronized void remove(String key) {
+        if (remove(root, key.split("/"), 0)) {
+            fileCount--;
+        }
+    }
+
+    private static boolean remove(Node node, String[] parts, int depth) {
+        boolean removed;
+        if (depth == parts.length - 1) {
+            removed = node.files.remove(parts[depth]) != null;
+        } else {
+            Node child = node.dirs.get(parts[depth]);
+            removed = child != null && remove(child, parts, depth + 1);
+            if (removed && child.isEmpty()) {
+                node.dirs.remove(parts[depth]);
+            }
+        }
+        if (removed) {
+            node.hash = null;
+        }
+        return removed;
+    }
+
+    /**
+     * Gets the root hash, recomputing the dirty directories.
+     *
+     * @return the hash of the whole store, in hexadecimal
+     */
+    public synchronized String rootHash() {
+        return HashService.toHex(hash(root));
+    }
+
+    /**
+     * Gets the hash of a directory.
+     *
+     * @param dirKey the normalized path of the directory, "" for the root
+     * @return the hash of the directory in hexadecimal, or null if it holds no tracked file
+     */
+    public synchronized String directoryHash(String dirKey) {
+        Node node = find(dirKey);
+        return node == null ? null : HashService.toHex(hash(node));
+    }
+
+    /**
+     * Gets the number of files in the tree.
+     */
+    public synchronized int size() {
+        return fileCount;
+    }
+
+    /**
+     * Copies the tree, with its hashes computed, to compare it later with {@link #diff}.
+     *
+     * @return an independent copy
+     */
+    public synchronized IntegrityMerkleTree copy() {
+        hash(root);
+        IntegrityMerkleTree copy = new IntegrityMerkleTree();
+        copyInto(root, copy.root);
+        copy.fileCount = fileCount;
+        return copy;
+    }
+
+    private static void copyInto(Node from, Node to) {
+        to.hash = from.hash;
+        to.files.putAll(from.files);
+        from.dirs.forEach((name, child) -> {
+            Node copied = new Node();
+            copyInto(child, copied);
+            to.dirs.put(name, copied);
+        });
+    }
+
+    /**
+     * Lists the files that differ between this tree and another one, descending only into the
+     * directories whose hashes differ.
+     *
+     * @param dirKey the directory to compare, "" for the whole tree
+     * @param other the tree to compare with, not modified during the call (e.g. a {@link #copy()})
+     * @param changed receives the normalized path of every file added, removed or changed
+     * @return the number of directories visited
+     */
+    public synchronized int diff(String dirKey, IntegrityMerkleTree other, Consumer<String> changed) {
+        String prefix = dirKey.isEmpty() ? "" : dirKey + "/";
+        return diff(find(dirKey), other.find(dirKey), prefix, other, changed);
+    }
+
+    private int diff(Node mine, Node theirs, String prefix, IntegrityMerkleTree other, Consumer<String> changed) {
+        if (mine == null && theirs == null) {
+            return 0;
+        }
+        if (mine == null || theirs == null) {
+            listFiles(mine != null ? mine : theirs, prefix, changed);
+            return 1;
+        }
+        if (Arrays.equals(hash(mine), other.hash(theirs))) {
+            return 1;
+        }
+        TreeSet<String> names = new TreeSet<>(mine.files.keySet());
+        names.addAll(theirs.files.keySet());
+        for (String name : names) {
+            if (!Arrays.equals(mine.files.get(name), theirs.files.get(name))) {
+                changed.accept(prefix + name);
+            }
+        }
+        int visited = 1;
+        TreeSet<String> dirs = new TreeSet<>(mine.dirs.keySet());
+        dirs.addAll(theirs.dirs.keySet());
+        for (String name : dirs) {
+            visited += diff(mine.dirs.get(name), theirs.dirs.get(name), prefix + name + "/", other, changed);
+        }
+        return visited;
+    }
+
+    private static void listFiles(Node node, String prefix, Consumer<String> out) {
+        node.files.keySet().forEach(name -> out.accept(prefix + name));
+        node.dirs.forEach((name, child) -> listFiles(child, prefix + name + "/", out));
+    }
+
+    private Node find(String dirKey) {
+        Node node = root;
+        if (dirKey.isEmpty()) {
+            return node;
+        }
+        for (String part : dirKey.split("/")) {
+            node = node.dirs.get(part);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private byte[] hash(Node node) {
+        if (node.hash == null) {
+            for (Node child : node.dirs.values()) {
+                hash(child);
+            }
+            digest.reset();
+            for (Map.Entry<String, byte[]> file : node.files.entrySet()) {
+                digest.update((byte) 'f');
+                digest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(file.getValue());
+            }
+            for (Map.Entry<String, Node> dir : node.dirs.entrySet()) {
+                digest.update((byte) 'd');
+                digest.update(dir.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(dir.getValue().hash);
+            }
+            node.hash = digest.digest();
+        }
+        return node.hash;
+    }
+
+    private byte[] leafHash(String name, String hash, long size) {
+        digest.reset();
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(hash.getBytes(StandardCharsets.US_ASCII));
+        digest.update((byte) 0);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (size >>> shift));
+        }
+        return digest.digest();
+    }
+
+    private static final class Node {
+        private final TreeMap<String, byte[]> files = new TreeMap<>();
+        private final TreeMap<String, Node> dirs = new TreeMap<>();
+        private byte[] hash;
+
+        private boolean isEmpty() {
+            return files.isEmpty() && dirs.isEmpty();
+        }
+    }
+}
@@ -3,25 +3,60 @@ package infrastructures.security;
 import domain.exception.UnknowException;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Stockage d'intégrité (IT2) :
- * - Tous les fichiers d'intégrité sont dans .integrity/ (pas de miroir).
- * - Un fichier JSON par fichier surveillé.
- * - On ajoute une entrée à chaque sauvegarde (historique), sans écraser.
- * - Vérification possible via la dernière entrée (hash + size).
+ * - Tout l'historique est dans .integrity/log/, un journal en ajout seul (voir {@link IntegrityLog}).
+ * - On ajoute une entrée à chaque sauvegarde (historique), sans écraser : un ajout écrit
+ *   un seul enregistrement, quelle que soit la longueur de l'historique.
+ * - Vérification possible via la dernière entrée (hash + size), sans recalculer le hash tant que
+ *   la taille, la date de modification et l'inode du fichier n'ont pas changé (voir {@link VerificationCache}).
+ * - Les fichiers d'au moins 64 Mo ont un hash en arbre (voir {@link ChunkedHash}) : l'entrée contient
+ *   la racine, les hash des blocs sont gardés dans .integrity/chunks/ pour ne recalculer que les blocs
+ *   modifiés et savoir lesquels diffèrent.
+ * - Un arbre de Merkle par répertoire résume les dernières entrées (voir {@link IntegrityMerkleTree}) ;
+ *   il est construit au premier usage puis tenu à jour à chaque ajout.
+ * - Les anciens fichiers .integrity/*.integrity.json (un JSON par fichier surveillé) sont importés
+ *   dans le journal à la première ouverture, puis déplacés dans .integrity/imported-json/.
  */
 public class IntegrityStore {
 
+    private static final String JSON_SUFFIX = ".integrity.json";
+    private static final byte[] CHUNKS_MAGIC = "SFMCHK01".getBytes(StandardCharsets.US_ASCII);
+
     private final Path integrityDir;
     private final Path rootDir;
+    private final Path chunksDir;
+    private final IntegrityLog log;
+    private final VerificationCache verificationCache;
+    private volatile IntegrityMerkleTree merkleTree;
 
 
     public IntegrityStore(Path rootDir) {
+        this(rootDir, VerificationCache.DEFAULT_REHASH_EVERY, VerificationCache.DEFAULT_REHASH_MILLIS);
+    }
+
+    /**
+     * @param rehashEvery nombre de vérifications acceptées sur les seuls attributs avant de recalculer le hash (0 = toujours)
+     * @param rehashMillis délai après lequel le hash est recalculé quels que soient les attributs
+     */
+    public IntegrityStore(Path rootDir, int rehashEvery, long rehashMillis) {
         this.rootDir = rootDir.toAbsolutePath().normalize();
         this.integrityDir = this.rootDir.getParent().resolve(".integrity").toAbsolutePath().normalize();
 
@@ -30,111 +65,350 @@ public class IntegrityStore {
         } catch (IOException e) {
             throw new UnknowException("Impossible de créer le dossier d'intégrité : " + integrityDir);
         }
+        this.chunksDir = integrityDir.resolve("chunks");
+        this.log = IntegrityLog.open(integrityDir.resolve("log"));
+        this.verificationCache = new VerificationCache(integrityDir.resolve("verification.cache"), rehashEvery, rehashMillis);
+        importJsonHistory();
     }
 
     /**
-     * Ajoute une nouvelle entrée (hash + timestamp + size) dans le JSON du fichier.
+     * Ajoute une nouvelle entrée (hash + timestamp + size) à l'historique du fichier.
      * Ne supprime pas l'historique.
      */
     public void appendEntry(Path file, String hashHex, long size) {
-        Path integrityFile = integrityPathFor(file);
+        String key = normalizedKey(file);
+        log.append(IntegrityLog.Record.entry(key, hashHex, size, System.currentTimeMillis()));
+        IntegrityMerkleTree tree = merkleTree;
+        if (tree != null) {
+            tree.update(key, hashHex, size);
+        }
+        // l'entrée vient d'être calculée sur le contenu écrit : le fichier est vérifié tel quel
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.size() == size) {
+                verificationCache.record(key, attributes, hashHex);
+            } else {
+                verificationCache.invalidate(key);
+            }
+        } catch (IOException e) {
+            verificationCache.invalidate(key);
+        }
+    }
 
-        String entryJson = "    { \"hash\": " + jsonString(hashHex)
-                + ", \"timestamp\": " + jsonString(LocalDateTime.now().toString())
-                + ", \"size\": " + size + " }";
+    /**
+     * Crée le hash à calculer au fil de l'écriture d'un fichier : hash en arbre pour un gros fichier, SHA-256 sinon.
+     *
+     * @param expectedSize la taille prévue du fichier écrit
+     */
+    public MessageDigest newDigest(long expectedSize) {
+        return expectedSize >= ChunkedHash.TREE_THRESHOLD
+                ? new ChunkedHash.TreeDigest(ChunkedHash.DEFAULT_CHUNK_SIZE) : HashService.newSha256();
+    }
 
-        try {
-            if (!Files.exists(integrityFile)) {
-                // Crée un JSON initial
-                String initial = "{\n" +
-                        "  \"path\": " + jsonString(normalizedKey(file)) + ",\n" +
-                        "  \"entries\": [\n" +
-                        entryJson + "\n" +
-                        "  ]\n" +
-                        "}\n";
-
-                Files.writeString(
-                        integrityFile,
-                        initial,
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING,
-                        StandardOpenOption.WRITE
-                );
-                return;
+    /**
+     * Ajoute l'entrée d'un fichier dont le contenu vient de passer par un hash de {@link #newDigest(long)}.
+     */
+    public void appendEntry(Path file, MessageDigest digest, long size) {
+        byte[] hash = digest.digest();
+        if (digest instanceof ChunkedHash.TreeDigest) {
+            appendEntry(file, ((ChunkedHash.TreeDigest) digest).getResult());
+        } else {
+            appendEntry(file, HashService.toHex(hash), size);
+        }
+    }
+
+    /**
+     * Ajoute l'entrée d'un contenu déjà en mémoire (hash en arbre calculé en parallèle pour un gros contenu),
+     * sauf si la dernière entrée est déjà celle-ci (rejeu idempotent).
+     */
+    public void appendEntryIfChanged(Path file, byte[] content, HashService hashService) {
+        IntegrityEntry last = loadLastEntry(file);
+        if (content.length >= ChunkedHash.TREE_THRESHOLD) {
+            ChunkedHash tree = ChunkedHash.of(content, ChunkedHash.DEFAULT_CHUNK_SIZE);
+            if (last == null || !last.hash.equals(tree.toEntryHash()) || last.size != content.length) {
+                appendEntry(file, tree);
             }
+            return;
+        }
+        String hash = hashService.sha256(content);
+        if (last == null || !last.hash.equals(hash) || last.size != content.length) {
+            appendEntry(file, hash, content.length);
+        }
+    }
 
-            // Ajoute une entrée sans écraser : insertion avant le dernier "]"
-            String content = Files.readString(integrityFile);
-            int idx = content.lastIndexOf("]");
-            if (idx == -1) {
-                throw new UnknowException("Format d'intégrité invalide : " + integrityFile);
+    /**
+     * Ajoute l'entrée d'un fichier trop gros pour être lu en mémoire, hashé depuis le disque (hash en arbre au-delà du seuil),
+     * sauf si la dernière entrée est déjà celle-ci (rejeu idempotent).
+     *
+     * @throws IOException si le fichier ne peut pas être lu
+     */
+    public void appendEntryIfChanged(Path file, HashService hashService) throws IOException {
+        IntegrityEntry last = loadLastEntry(file);
+        long size = Files.size(file);
+        if (size >= ChunkedHash.TREE_THRESHOLD) {
+            ChunkedHash tree = ChunkedHash.compute(file, ChunkedHash.DEFAULT_CHUNK_SIZE);
+            if (last == null || !last.hash.equals(tree.toEntryHash()) || last.size != tree.getSize()) {
+                appendEntry(file, tree);
             }
+            return;
+        }
+        String hash = hashService.sha256(file);
+        if (last == null || !last.hash.equals(hash) || last.size != size) {
+            appendEntry(file, hash, size);
+        }
+    }
 
-            // Si déjà une entrée, on ajoute une virgule
-            boolean hasAtLeastOneEntry = content.contains("\"entries\": [") && content.contains("{");
+    /**
+     * Ajoute l'entrée d'un hash en arbre : les hash des blocs sont enregistrés avant l'entrée qui les référence.
+     */
+    public void appendEntry(Path file, ChunkedHash tree) {
+        saveChunks(normalizedKey(file), tree);
+        appendEntry(file, tree.toEntryHash(), tree.getSize());
+    }
 
-            String insertion = (hasAtLeastOneEntry ? ",\n" : "\n") + entryJson;
+    /**
+     * Ajoute l'entrée d'un fichier modifié sur place, en ne recalculant que les blocs écrits depuis sa dernière entrée.
+     * Sans hash en arbre enregistré, tout le fichier est haché.
+     *
+     * @param dirtyChunks les indices des blocs écrits
+     */
+    public void appendChunkedUpdate(Path file, BitSet dirtyChunks) {
+        ChunkedHash previous = loadChunks(file);
+        appendEntry(file, previous == null
+                ? ChunkedHash.compute(file, ChunkedHash.DEFAULT_CHUNK_SIZE)
+                : ChunkedHash.rehash(file, previous, dirtyChunks));
+    }
 
-            String updated = content.substring(0, idx) + insertion + "\n  " + content.substring(idx);
+    /**
+     * Indique quels blocs d'un fichier à hash en arbre ont changé depuis sa dernière entrée.
+     *
+     * @return les indices des blocs modifiés, ou null si le fichier n'a pas de hash en arbre
+     */
+    public BitSet changedChunks(Path file) {
+        ChunkedHash recorded = loadChunks(file);
+        return recorded == null ? null : ChunkedHash.compute(file, recorded.getChunkSize()).changedChunks(recorded);
+    }
 
-            Files.writeString(
-                    integrityFile,
-                    updated,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE
-            );
+    /**
+     * Hash en arbre enregistré pour la dernière entrée du fichier.
+     *
+     * @return le hash, ou null si la dernière entrée n'est pas un hash en arbre ou si ses blocs manquent
+     */
+    public ChunkedHash loadChunks(Path file) {
+        IntegrityEntry last = loadLastEntry(file);
+        if (last == null || !ChunkedHash.isTreeHash(last.hash)) {
+            return null;
+        }
+        Path chunksFile = chunksPathFor(normalizedKey(file));
+        if (!Files.exists(chunksFile)) {
+            return null;
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(chunksFile));
+            byte[] magic = new byte[CHUNKS_MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, CHUNKS_MAGIC)) {
+                return null;
+            }
+            int chunkSize = in.getInt();
+            long size = in.getLong();
+            byte[] leaves = new byte[in.remaining()];
+            in.get(leaves);
+            ChunkedHash tree = new ChunkedHash(chunkSize, size, leaves);
+            // blocs d'une autre version du fichier (arrêt entre l'écriture des blocs et celle de l'entrée)
+            return tree.toEntryHash().equals(last.hash) ? tree : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void saveChunks(String key, ChunkedHash tree) {
+        Path chunksFile = chunksPathFor(key);
+        Path temp = chunksFile.resolveSibling(chunksFile.getFileName() + ".tmp");
+        ByteBuffer out = ByteBuffer.allocate(CHUNKS_MAGIC.length + 4 + 8 + tree.leaves().length);
+        out.put(CHUNKS_MAGIC).putInt(tree.getChunkSize()).putLong(tree.getSize()).put(tree.leaves());
+        try {
+            Files.createDirectories(chunksDir);
+            Files.write(temp, out.array());
+            Files.move(temp, chunksFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UnknowException("Impossible d'écrire les blocs d'intégrité pour : " + key);
+        }
+    }
 
+    private void deleteChunks(String key) {
+        try {
+            Files.deleteIfExists(chunksPathFor(key));
         } catch (IOException e) {
-            throw new UnknowException("Impossible d'écrire l'intégrité pour : " + file);
+            throw new UnknowException("Impossible de supprimer les blocs d'intégrité pour : " + key);
         }
     }
 
+    /**
+     * Fichier des blocs d'un fichier suivi : nommé par le SHA-256 de sa clé (longueur fixe, sans séparateur).
+     */
+    private Path chunksPathFor(String key) {
+        return chunksDir.resolve(HashService.toHex(HashService.newSha256().digest(key.getBytes(StandardCharsets.UTF_8))) + ".chunks");
+    }
+
     /**
      * Retourne la dernière entrée (hash + size) pour la vérification.
-     * null si aucun fichier d'intégrité n'existe.
+     * null si le fichier n'a aucun historique.
      */
     public IntegrityEntry loadLastEntry(Path file) {
-        Path integrityFile = integrityPathFor(file);
-        if (!Files.exists(integrityFile)) {
-            return null;
-        }
+        IntegrityLog.Record last = log.last(normalizedKey(file));
+        return last == null ? null : new IntegrityEntry(last.hash, last.size, last.timestamp);
+    }
 
-        try {
-            String content = Files.readString(integrityFile);
+    /**
+     * Vérifie le fichier contre une entrée (hash + size).
+     * Le hash n'est recalculé que si le cache de vérification ne permet pas de s'en passer.
+     *
+     * @return true si le fichier correspond à l'entrée
+     * @throws IOException si le fichier ne peut pas être lu
+     */
+    public boolean matches(Path file, IntegrityEntry entry, HashService hashService) throws IOException {
+        return matches(file, entry, hashService, false);
+    }
 
-            int lastHashIdx = content.lastIndexOf("\"hash\"");
-            int lastSizeIdx = content.lastIndexOf("\"size\"");
+    /**
+     * Vérifie le fichier contre une entrée (hash + size).
+     *
+     * @param rehash true pour recalculer le hash même si le cache de vérification permet de s'en passer
+     * @return true si le fichier correspond à l'entrée
+     * @throws IOException si le fichier ne peut pas être lu
+     */
+    public boolean matches(Path file, IntegrityEntry entry, HashService hashService, boolean rehash) throws IOException {
+        String key = normalizedKey(file);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.size() != entry.size) {
+            verificationCache.invalidate(key);
+            return false;
+        }
+        if (!rehash && verificationCache.isVerified(key, attributes, entry.hash)) {
+            return true;
+        }
+        // attributs lus avant le hash : une écriture pendant le calcul ne sera pas prise pour vérifiée
+        String current = ChunkedHash.isTreeHash(entry.hash)
+                ? ChunkedHash.compute(file, ChunkedHash.chunkSizeOf(entry.hash)).toEntryHash()
+                : hashService.sha256(file);
+        if (!entry.hash.equals(current)) {
+            verificationCache.invalidate(key);
+            return false;
+        }
+        verificationCache.record(key, attributes, entry.hash);
+        return true;
+    }
 
-            if (lastHashIdx == -1 || lastSizeIdx == -1) {
-                throw new UnknowException("Format d'intégrité invalide : " + integrityFile);
+    /**
+     * Oublie l'historique du fichier : la suppression est elle-même enregistrée dans le journal.
+     */
+    public void deleteIntegrity(Path file) {
+        String key = normalizedKey(file);
+        log.append(IntegrityLog.Record.clear(key, System.currentTimeMillis()));
+        deleteChunks(key);
+        IntegrityMerkleTree tree = merkleTree;
+        if (tree != null) {
+            tree.remove(key);
+        }
+        verificationCache.invalidate(key);
+    }
+
+    /**
+     * Importe une seule fois les historiques JSON du format précédent, entrée par entrée et dans l'ordre.
+     * Chaque JSON importé est déplacé dans imported-json/ : s'il reste là où il était (arrêt pendant
+     * l'import), il est importé de nouveau à l'ouverture suivante, ce qui ne change pas sa dernière entrée.
+     */
+    private void importJsonHistory() {
+        synchronized (log) {
+            List<Path> jsonFiles;
+            try (Stream<Path> files = Files.list(integrityDir)) {
+                jsonFiles = files.filter(p -> p.getFileName().toString().endsWith(JSON_SUFFIX)).sorted().collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UnknowException("Impossible de lire le dossier d'intégrité : " + integrityDir);
+            }
+            if (jsonFiles.isEmpty()) {
+                return;
+            }
+            Path importedDir = integrityDir.resolve("imported-json");
+            for (Path jsonFile : jsonFiles) {
+                try {
+                    String content = Files.readString(jsonFile);
+                    int pathIdx = content.indexOf("\"path\"");
+                    if (pathIdx == -1) {
+                        System.err.println("Intégrité : " + jsonFile.getFileName() + " ignoré (pas de chemin)");
+                        continue;
+                    }
+                    String key = unescapeJson(extractJsonStringValue(content, pathIdx));
+                    long fallbackTime = Files.getLastModifiedTime(jsonFile).toMillis();
+                    int hashIdx = content.indexOf("\"hash\"");
+                    while (hashIdx != -1) {
+                        int next = content.indexOf("\"hash\"", hashIdx + 1);
+                        int end = next == -1 ? content.length() : next;
+                        int timeIdx = content.indexOf("\"timestamp\"", hashIdx);
+                        int sizeIdx = content.indexOf("\"size\"", hashIdx);
+                        long size = sizeIdx != -1 && sizeIdx < end ? extractJsonLongValue(content, sizeIdx) : 0;
+                        long time = timeIdx != -1 && timeIdx < end ? parseTimestamp(extractJsonStringValue(content, timeIdx), fallbackTime) : fallbackTime;
+                        log.append(IntegrityLog.Record.entry(key, extractJsonStringValue(content, hashIdx), size, time));
+                        hashIdx = next;
+                    }
+                    Files.createDirectories(importedDir);
+                    Files.move(jsonFile, importedDir.resolve(jsonFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException | RuntimeException e) {
+                    throw new UnknowException("Impossible d'importer l'intégrité de : " + jsonFile);
+                }
             }
+        }
+    }
 
-            String hash = extractJsonStringValue(content, lastHashIdx);
-            long size = extractJsonLongValue(content, lastSizeIdx);
+    private long parseTimestamp(String value, long fallback) {
+        try {
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return fallback;
+        }
+    }
 
-            return new IntegrityEntry(hash, size);
+    /**
+     * Parcourt la dernière entrée de chaque fichier suivi (y compris les fichiers marqués DELETED), dans un ordre quelconque.
+     *
+     * @param visitor reçoit la clé du fichier (chemin relatif à la racine) et sa dernière entrée
+     */
+    public void forEachLastEntry(BiConsumer<String, IntegrityEntry> visitor) {
+        log.forEachLast(record -> visitor.accept(record.key, new IntegrityEntry(record.hash, record.size, record.timestamp)));
+    }
 
-        } catch (IOException e) {
-            throw new UnknowException("Impossible de lire l'intégrité pour : " + file);
+    /**
+     * Arbre de Merkle des dernières entrées, construit au premier appel depuis l'index du journal.
+     * Les ajouts suivants le mettent à jour (un seul IntegrityStore par racine).
+     */
+    public IntegrityMerkleTree getMerkleTree() {
+        IntegrityMerkleTree tree = merkleTree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = merkleTree;
+                if (tree == null) {
+                    IntegrityMerkleTree built = new IntegrityMerkleTree();
+                    forEachLastEntry((key, entry) -> built.update(key, entry.hash, entry.size));
+                    merkleTree = tree = built;
+                }
+            }
         }
+        return tree;
     }
 
-    public void deleteIntegrity(Path file) {
-        Path integrityFile = integrityPathFor(file);
-        try {
-            Files.deleteIfExists(integrityFile);
-        } catch (IOException e) {
-            throw new UnknowException("Impossible de supprimer l'intégrité pour : " + file);
-        }
+    /**
+     * Clé d'un fichier dans le stockage : son chemin relatif à la racine, séparé par des "/".
+     */
+    public String keyOf(Path file) {
+        return normalizedKey(file);
     }
 
     /**
-     * Calcule le chemin du fichier d'intégrité (tous dans .integrity/).
-     * Exemple : "src/test.txt" -> ".integrity/src_test.txt.integrity.json"
+     * Chemin du fichier correspondant à une clé.
      */
-    private Path integrityPathFor(Path file) {
-        String key = normalizedKey(file).replace('/', '_');
-        return integrityDir.resolve(key + ".integrity.json");
+    public Path pathOf(String key) {
+        return rootDir.resolve(key).normalize();
     }
 
     /**
@@ -154,8 +428,8 @@ public class IntegrityStore {
 }
 
 
-    private String jsonString(String s) {
-        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    private String unescapeJson(String s) {
+        return s.replace("\\\"", "\"").replace("\\\\", "\\");
     }
 
     private String extractJsonStringValue(String content, int keyIdx) {
@@ -178,19 +452,36 @@ public class IntegrityStore {
         return integrityDir;
     }
 
+    public VerificationCache getVerificationCache() {
+        return verificationCache;
+    }
+
     public static class IntegrityEntry {
         public final String hash;
         public final long size;
+        public final long timestamp;
 
         public IntegrityEntry(String hash, long size) {
+            this(hash, size, 0);
+        }
+
+        public IntegrityEntry(String hash, long size, long timestamp) {
             this.hash = hash;
             this.size = size;
+            this.timestamp = timestamp;
         }
     }
 
     public void appendDeleteEvent(Path file) {
     // hash spécial + size = 0
-    appendEntry(file, "DELETED", 0);
+    String key = normalizedKey(file);
+    log.append(IntegrityLog.Record.entry(key, "DELETED", 0, System.currentTimeMillis()));
+    deleteChunks(key);
+    IntegrityMerkleTree tree = merkleTree;
+    if (tree != null) {
+        tree.update(key, "DELETED", 0);
+    }
+    verificationCache.invalidate(key);
 }
 
 
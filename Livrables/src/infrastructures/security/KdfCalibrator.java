@@ -0,0 +1,147 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Picks the PBKDF2 iteration count that fits the configured time budget on this host.
+ * A few probe derivations are timed at startup and the count is scaled to the budget,
+ * then rounded down to a multiple of 1024. It never goes below {@link CryptoService#PBKDF2_ITERATIONS},
+ * the count used before calibration, so a slow host does not weaken new keys.
+ *
+ * The result is saved next to .env and reused by later starts while the algorithm and budget
+ * are unchanged: timings vary from run to run, and every new count would otherwise add one
+ * more set of parameters to derive at login until the rows are upgraded.
+ */
+public class KdfCalibrator {
+    public static final int DEFAULT_TARGET_MILLIS = 250;
+    public static final int MAX_ITERATIONS = 10_000_000;
+    private static final int PROBE_ITERATIONS = 20_000;
+    private static final int PROBE_RUNS = 3;
+    private static final String DEFAULT_CALIBRATION_PATH = ".kdf_calibration";
+
+    private static KdfCalibrator instance;
+
+    private final KdfParameters parameters;
+    private final double measuredMillis;
+
+    private KdfCalibrator(KdfParameters parameters, double measuredMillis) {
+        this.parameters = parameters;
+        this.measuredMillis = measuredMillis;
+    }
+
+    /**
+     * Gets the calibration of this host: the saved one if it matches the configuration, otherwise a new one (then saved).
+     *
+     * @return the KdfCalibrator instance
+     * @throws CryptoException if the configuration cannot be loaded or the algorithm is not available
+     */
+    public static synchronized KdfCalibrator getInstance() throws CryptoException {
+        if (instance == null) {
+            CryptoConfig config = CryptoConfig.getInstance();
+            Path saved = Paths.get(DEFAULT_CALIBRATION_PATH);
+            instance = load(saved, config.getKdfAlgorithm(), config.getKdfTargetMillis());
+            if (instance == null) {
+                instance = calibrate(config.getKdfAlgorithm(), config.getAesKeyBits(), config.getKdfTargetMillis());
+                save(saved, instance, config.getKdfTargetMillis());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Reads a saved calibration.
+     *
+     * @return the saved calibration, or null if there is none or it was made for another algorithm or budget
+     */
+    private static KdfCalibrator load(Path file, String algorithm, int targetMillis) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            props.load(reader);
+            int iterations = Integer.parseInt(props.getProperty("iterations", "0"));
+            if (!algorithm.equals(props.getProperty("algorithm"))
+                    || targetMillis != Integer.parseInt(props.getProperty("targetMillis", "0"))
+                    || iterations < CryptoService.PBKDF2_ITERATIONS || iterations > MAX_ITERATIONS) {
+                return null;
+            }
+            return new KdfCalibrator(new KdfParameters(algorithm, iterations), Double.parseDouble(props.getProperty("measuredMillis", "0")));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void save(Path file, KdfCalibrator calibration, int targetMillis) {
+        Properties props = new Properties();
+        props.setProperty("algorithm", calibration.parameters.getAlgorithm());
+        props.setProperty("iterations", String.valueOf(calibration.parameters.getIterations()));
+        props.setProperty("targetMillis", String.valueOf(targetMillis));
+        props.setProperty("measuredMillis", String.format(Locale.ROOT, "%.1f", calibration.measuredMillis));
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            props.store(writer, "PBKDF2 calibration of this host, delete to calibrate again");
+        } catch (IOException e) {
+            // not saved: the next start calibrates again
+            System.err.println("Calibration KDF non sauvegardée : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Times the given algorithm and computes the iteration count of the budget.
+     *
+     * @param algorithm the PBKDF2 algorithm, e.g. PBKDF2WithHmacSHA256
+     * @param keyBits the size of the derived keys
+     * @param targetMillis the time one derivation may take
+     * @return the calibration
+     * @throws CryptoException if the algorithm is not available
+     */
+    public static KdfCalibrator calibrate(String algorithm, int keyBits, long targetMillis) throws CryptoException {
+        KdfParameters probe = new KdfParameters(algorithm, PROBE_ITERATIONS);
+        char[] password = "calibration".toCharArray();
+        byte[] salt = new byte[16];
+        // the first run loads the provider and warms up the JIT
+        CryptoService.getAESKeyFromPassword(password, salt, keyBits, probe);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_RUNS; i++) {
+            long start = System.nanoTime();
+            CryptoService.getAESKeyFromPassword(password, salt, keyBits, probe);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double nanosPerIteration = (double) Math.max(1, best) / PROBE_ITERATIONS;
+        long iterations = (long) (targetMillis * 1_000_000L / nanosPerIteration) & ~1023L;
+        iterations = Math.max(CryptoService.PBKDF2_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+        return new KdfCalibrator(new KdfParameters(algorithm, (int) iterations), iterations * nanosPerIteration / 1_000_000.0);
+    }
+
+    /**
+     * Gets the parameters new keys are derived with.
+     *
+     * @return the calibrated parameters
+     */
+    public KdfParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Gets the expected duration of one derivation with the calibrated parameters.
+     *
+     * @return the estimated time in milliseconds
+     */
+    public double getMeasuredMillis() {
+        return measuredMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KDF %s (~%.0f ms)", parameters, measuredMillis);
+    }
+}
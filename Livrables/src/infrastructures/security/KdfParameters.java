@@ -0,0 +1,71 @@
+package infrastructures.security;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Algorithm and iteration count of a password-based key derivation.
+ * Stored with each file_password row so that keys derived with older parameters
+ * keep working while new writes use the calibrated ones.
+ */
+public final class KdfParameters {
+    public static final String PBKDF2_HMAC_SHA256 = "PBKDF2WithHmacSHA256";
+    public static final String PBKDF2_HMAC_SHA512 = "PBKDF2WithHmacSHA512";
+
+    /**
+     * The parameters used before they were stored: rows without KDF columns were derived with them.
+     */
+    public static final KdfParameters LEGACY = new KdfParameters(PBKDF2_HMAC_SHA256, CryptoService.PBKDF2_ITERATIONS);
+
+    private final String algorithm;
+    private final int iterations;
+
+    public KdfParameters(String algorithm, int iterations) {
+        if (algorithm == null || iterations <= 0) {
+            throw new IllegalArgumentException("KDF algorithm and iteration count are required");
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Reads the parameters of a file_password row.
+     *
+     * @param row the row, as returned by FilePassword
+     * @return the parameters of the row, {@link #LEGACY} if they were never recorded
+     */
+    public static KdfParameters fromRow(Map<String, Object> row) {
+        Object algorithm = row.get("kdf_algorithm");
+        Object iterations = row.get("kdf_iterations");
+        if (algorithm == null || iterations == null) {
+            return LEGACY;
+        }
+        return new KdfParameters(algorithm.toString(), ((Number) iterations).intValue());
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KdfParameters)) return false;
+        KdfParameters other = (KdfParameters) o;
+        return iterations == other.iterations && algorithm.equals(other.algorithm);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(algorithm, iterations);
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + "/" + iterations;
+    }
+}
@@ -0,0 +1,200 @@
+package infrastructures.security;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Read-only memory mappings of large encrypted files, reused across reads.
+ * Entries are keyed by path, bounded in size (least recently used first) and dropped as soon as
+ * the size, modification time or file key (inode) of the file no longer match the mapping,
+ * so a file replaced by an atomic move or rewritten in place is mapped again.
+ *
+ * Small files are not worth a mapping (mmap + page faults cost more than one read), and a
+ * MappedByteBuffer cannot exceed Integer.MAX_VALUE bytes: {@link #map(Path)} returns null for both,
+ * and the caller falls back to reading the file through a FileChannel.
+ *
+ * A mapping is only unmapped by the garbage collector. On Windows a mapped file cannot be truncated,
+ * deleted or replaced until then, so the shared instance does not map anything there. Elsewhere,
+ * writers replace mapped files by moving a new file over them, never by truncating them in place.
+ */
+public class MappedFileCache {
+    public static final long MIN_MAPPED_SIZE = 1L << 20;
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static MappedFileCache instance;
+
+    private final int maxEntries;
+    private final long minMappedSize;
+    private final boolean enabled;
+    private final LinkedHashMap<Path, Mapping> entries;
+    private long hits;
+    private long misses;
+    private long fallbacks;
+
+    /**
+     * Constructs a cache with the given bounds.
+     *
+     * @param maxEntries the maximum number of mappings kept open
+     * @param minMappedSize the smallest file size worth mapping
+     */
+    public MappedFileCache(int maxEntries, long minMappedSize) {
+        this(maxEntries, minMappedSize, true);
+    }
+
+    /**
+     * Constructs a cache with the given bounds, possibly disabled.
+     *
+     * @param maxEntries the maximum number of mappings kept open
+     * @param minMappedSize the smallest file size worth mapping
+     * @param enabled false to never map, every read then goes through a FileChannel
+     */
+    public MappedFileCache(int maxEntries, long minMappedSize, boolean enabled) {
+        if (maxEntries <= 0 || minMappedSize < 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.minMappedSize = minMappedSize;
+        this.enabled = enabled;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the shared instance of MappedFileCache.
+     *
+     * @return the MappedFileCache instance
+     */
+    public static synchronized MappedFileCache getInstance() {
+        if (instance == null) {
+            boolean windows = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+            instance = new MappedFileCache(DEFAULT_MAX_ENTRIES, MIN_MAPPED_SIZE, !windows);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a read-only view of the whole file, mapping it on a miss.
+     * Each call returns its own duplicate, so concurrent readers do not share a position.
+     *
+     * @param file the file to map
+     * @return the mapped content, or null if the cache is disabled or the file is too small or too large to be mapped
+     * @throws IOException if the file cannot be read
+     */
+    public ByteBuffer map(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        long size = attributes.size();
+        if (!enabled || size < minMappedSize || size > Integer.MAX_VALUE) {
+            synchronized (this) {
+                fallbacks++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            Mapping cached = entries.get(key);
+            if (cached != null && cached.matches(attributes)) {
+                hits++;
+                return cached.buffer.duplicate();
+            }
+            if (cached != null) {
+                entries.remove(key);
+            }
+            misses++;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        synchronized (this) {
+            entries.put(key, new Mapping(buffer, attributes));
+            evictOverflow();
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * Drops the mapping of a file, to be called before the file is rewritten.
+     * The mapped region itself is released by the garbage collector once no reader holds it.
+     *
+     * @param file the file whose mapping is dropped
+     */
+    public synchronized void invalidate(Path file) {
+        entries.remove(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Drops every mapping.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getFallbacks() {
+        return fallbacks;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Formats the cache counters for display.
+     *
+     * @return a one-line summary of the cache state
+     */
+    public synchronized String stats() {
+        if (!enabled) {
+            return String.format("disabled (Windows) fallbacks=%d", fallbacks);
+        }
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0.0 : (100.0 * hits) / lookups;
+        return String.format("mappings=%d/%d hits=%d misses=%d fallbacks=%d hitRate=%.1f%%",
+                entries.size(), maxEntries, hits, misses, fallbacks, hitRate);
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<Path, Mapping>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static final class Mapping {
+        private final MappedByteBuffer buffer;
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+
+        private Mapping(MappedByteBuffer buffer, BasicFileAttributes attributes) {
+            this.buffer = buffer;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
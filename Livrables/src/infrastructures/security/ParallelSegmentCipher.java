@@ -0,0 +1,211 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded encryption and decryption of files in the {@link StreamingAead} format.
+ * Segments are independent, so the file is cut into batches of consecutive segments that
+ * are processed on an executor; every batch reads and writes at its own position through
+ * positional FileChannel calls, so the output is laid out in order without any reordering step.
+ */
+public class ParallelSegmentCipher {
+    /** Encrypted size from which spreading the segments over several cores pays off. */
+    public static final long MIN_PARALLEL_SIZE = 64L << 20;
+    private static final int SEGMENTS_PER_TASK = 16;
+
+    private final int segmentSize;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs an engine running on the common ForkJoinPool.
+     */
+    public ParallelSegmentCipher() {
+        this(StreamingAead.DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs an engine running on the given executor.
+     *
+     * @param segmentSize the plaintext size of a segment
+     * @param executor the executor running the segment batches (not shut down by this class)
+     */
+    public ParallelSegmentCipher(int segmentSize, ExecutorService executor) {
+        if (segmentSize <= 0 || segmentSize > StreamingAead.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + StreamingAead.MAX_SEGMENT_SIZE);
+        }
+        this.segmentSize = segmentSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Encrypts a file into another one.
+     * The partial output is removed if any segment fails.
+     *
+     * @param input the plaintext file
+     * @param output the encrypted file (created or truncated)
+     * @param key the AES key of the file
+     * @return the size of the encrypted file
+     * @throws CryptoException if encryption fails
+     * @throws IOException if a file cannot be read or written
+     */
+    public long encryptFile(Path input, Path output, SecretKey key) throws CryptoException, IOException {
+        StreamingAead.Header header = StreamingAead.Header.create(segmentSize);
+        SecretKey subkey = StreamingAead.deriveSegmentKey(key, header.salt);
+
+        boolean success = false;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long plainSize = in.size();
+            long segments = Math.max(1, (plainSize + segmentSize - 1) / segmentSize);
+            writeAt(out, ByteBuffer.wrap(header.bytes), 0);
+
+            List<Future<?>> tasks = new ArrayList<>();
+            for (long first = 0; first < segments; first += SEGMENTS_PER_TASK) {
+                long from = first;
+                long to = Math.min(segments, first + SEGMENTS_PER_TASK);
+                tasks.add(executor.submit(() -> {
+                    Cipher cipher = StreamingAead.gcmCipher();
+                    ByteBuffer plain = ByteBuffer.allocate(segmentSize);
+                    ByteBuffer encrypted = ByteBuffer.allocate(segmentSize + StreamingAead.TAG_LENGTH_BYTES);
+                    for (long index = from; index < to; index++) {
+                        long plainOffset = index * segmentSize;
+                        plain.clear().limit((int) Math.min(segmentSize, plainSize - plainOffset));
+                        readAt(in, plain, plainOffset);
+                        plain.flip();
+                        encrypted.clear();
+                        StreamingAead.processSegment(cipher, Cipher.ENCRYPT_MODE, subkey, header, index, index == segments - 1, plain, encrypted);
+                        encrypted.flip();
+                        writeAt(out, encrypted, encryptedOffset(index));
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(tasks);
+            success = true;
+            return out.size();
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(output);
+            }
+        }
+    }
+
+    /**
+     * Decrypts a file produced by {@link #encryptFile} or by {@link StreamingAead#encrypt}.
+     * The partial output is removed if any segment fails authentication.
+     *
+     * @param input the encrypted file
+     * @param output the plaintext file (created or truncated)
+     * @param key the AES key of the file
+     * @return the size of the plaintext file
+     * @throws CryptoException if the header is invalid or a segment fails authentication
+     * @throws IOException if a file cannot be read or written
+     */
+    public long decryptFile(Path input, Path output, SecretKey key) throws CryptoException, IOException {
+        boolean success = false;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(StreamingAead.HEADER_LENGTH);
+            if (readAt(in, headerBuffer, 0) != StreamingAead.HEADER_LENGTH) {
+                throw new CryptoException("Encrypted file is too short to contain a header: " + input);
+            }
+            StreamingAead.Header header = StreamingAead.Header.parse(headerBuffer.array());
+            SecretKey subkey = StreamingAead.deriveSegmentKey(key, header.salt);
+
+            int encryptedSegmentSize = header.segmentSize + StreamingAead.TAG_LENGTH_BYTES;
+            long segments = StreamingAead.Layout.of(header, in.size()).segments;
+
+            List<Future<?>> tasks = new ArrayList<>();
+            for (long first = 0; first < segments; first += SEGMENTS_PER_TASK) {
+                long from = first;
+                long to = Math.min(segments, first + SEGMENTS_PER_TASK);
+                tasks.add(executor.submit(() -> {
+                    Cipher cipher = StreamingAead.gcmCipher();
+                    ByteBuffer encrypted = ByteBuffer.allocate(encryptedSegmentSize);
+                    ByteBuffer plain = ByteBuffer.allocate(encryptedSegmentSize);
+                    for (long index = from; index < to; index++) {
+                        long offset = StreamingAead.HEADER_LENGTH + index * encryptedSegmentSize;
+                        encrypted.clear().limit((int) Math.min(encryptedSegmentSize, in.size() - offset));
+                        readAt(in, encrypted, offset);
+                        encrypted.flip();
+                        plain.clear();
+                        StreamingAead.processSegment(cipher, Cipher.DECRYPT_MODE, subkey, header, index, index == segments - 1, encrypted, plain);
+                        plain.flip();
+                        writeAt(out, plain, index * header.segmentSize);
+                    }
+                    return null;
+                }));
+            }
+            awaitAll(tasks);
+            success = true;
+            return out.size();
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(output);
+            }
+        }
+    }
+
+    private long encryptedOffset(long index) {
+        return StreamingAead.HEADER_LENGTH + index * (segmentSize + (long) StreamingAead.TAG_LENGTH_BYTES);
+    }
+
+    private static int readAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    /**
+     * Waits for every batch; cancels the remaining ones and rethrows on the first failure.
+     */
+    private static void awaitAll(List<Future<?>> tasks) throws CryptoException, IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            tasks.forEach(t -> t.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new CryptoException("Segment processing interrupted");
+        } catch (ExecutionException e) {
+            tasks.forEach(t -> t.cancel(false));
+            Throwable cause = e.getCause();
+            if (cause instanceof CryptoException) {
+                throw (CryptoException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new CryptoException("Segment processing failed: " + cause);
+        }
+    }
+}
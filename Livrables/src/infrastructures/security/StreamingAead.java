@@ -0,0 +1,517 @@
+package infrastructures.security;
+
+import domain.exception.CryptoException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Segmented AES-GCM file format (STREAM construction), processed in constant memory.
+ *
+ * Layout : header | segment 0 | segment 1 | ... | segment n-1
+ *   header  = magic "SFMS" (4) | version (1) | segment size (4) | salt (16) | nonce prefix (7)
+ *   segment = AES-GCM(subkey, nonce, chunk, aad = header) = chunk ciphertext | tag (16)
+ *   nonce   = nonce prefix (7) | segment index (4, big endian) | last segment flag (1)
+ *
+ * The subkey is HKDF-SHA256(key, salt) so that nonces never repeat between files sharing a key.
+ * Because the index and the last flag are part of the nonce, reordering, dropping or truncating
+ * segments makes authentication fail.
+ *
+ * Segments go through direct ByteBuffers kept per thread, so with FileChannels on both sides
+ * the data is never copied into a Java array.
+ */
+public class StreamingAead {
+    public static final byte[] MAGIC = {'S', 'F', 'M', 'S'};
+    public static final byte VERSION = 1;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int HEADER_LENGTH = 4 + 1 + 4 + 16 + 7;
+    public static final int TAG_LENGTH_BYTES = 16;
+
+    static final int SALT_LENGTH = 16;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int NONCE_LENGTH = NONCE_PREFIX_LENGTH + 4 + 1;
+    private static final byte[] HKDF_INFO = "SFMS segment key".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_CACHED_BUFFER = 1024 * 1024 + TAG_LENGTH_BYTES;
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS = ThreadLocal.withInitial(() -> new ByteBuffer[3]);
+
+    private final int segmentSize;
+
+    /**
+     * Constructs a StreamingAead writing segments of the given plaintext size.
+     *
+     * @param segmentSize the plaintext size of every segment but the last
+     */
+    public StreamingAead(int segmentSize) {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Encrypts everything readable from the input channel to the output channel.
+     *
+     * @param key the AES key of the file
+     * @param in the plaintext source
+     * @param out the ciphertext destination
+     * @return the number of ciphertext bytes written, header included
+     * @throws CryptoException if encryption fails
+     * @throws IOException if a channel cannot be read or written
+     */
+    public long encrypt(SecretKey key, ReadableByteChannel in, WritableByteChannel out) throws CryptoException, IOException {
+        Header header = Header.create(segmentSize);
+        SecretKey subkey = deriveSegmentKey(key, header.salt);
+        Cipher cipher = gcmCipher();
+
+        long written = writeFully(out, ByteBuffer.wrap(header.bytes));
+        ByteBuffer[] buffers = directBuffers(segmentSize + TAG_LENGTH_BYTES);
+        ByteBuffer current = buffers[0].limit(segmentSize);
+        ByteBuffer next = buffers[1];
+        ByteBuffer output = buffers[2];
+
+        readFully(in, current);
+        long index = 0;
+        while (true) {
+            next.clear().limit(segmentSize);
+            boolean last = current.hasRemaining() || readFully(in, next) == 0;
+            current.flip();
+            output.clear();
+            processSegment(cipher, Cipher.ENCRYPT_MODE, subkey, header, index, last, current, output);
+            output.flip();
+            written += writeFully(out, output);
+            if (last) {
+                return written;
+            }
+            ByteBuffer swap = current;
+            current = next;
+            next = swap;
+            index++;
+        }
+    }
+
+    /**
+     * Decrypts a stream produced by {@link #encrypt} from the input channel to the output channel.
+     * Each segment is authenticated before its plaintext is written.
+     *
+     * @param key the AES key of the file
+     * @param in the ciphertext source, positioned on the header
+     * @param out the plaintext destination
+     * @return the number of plaintext bytes written
+     * @throws CryptoException if the header is invalid or a segment fails authentication
+     * @throws IOException if a channel cannot be read or written
+     */
+    public long decrypt(SecretKey key, ReadableByteChannel in, WritableByteChannel out) throws CryptoException, IOException {
+        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+        if (readFully(in, headerBuffer) != HEADER_LENGTH) {
+            throw new CryptoException("Encrypted stream is too short to contain a header");
+        }
+        Header header = Header.parse(headerBuffer.array());
+        SecretKey subkey = deriveSegmentKey(key, header.salt);
+        Cipher cipher = gcmCipher();
+
+        int encryptedSegmentSize = header.segmentSize + TAG_LENGTH_BYTES;
+        ByteBuffer[] buffers = directBuffers(encryptedSegmentSize);
+        ByteBuffer current = buffers[0];
+        ByteBuffer next = buffers[1];
+        ByteBuffer output = buffers[2];
+
+        long written = 0;
+        readFully(in, current);
+        long index = 0;
+        while (true) {
+            next.clear().limit(encryptedSegmentSize);
+            boolean last = current.hasRemaining() || readFully(in, next) == 0;
+            current.flip();
+            if (current.remaining() < TAG_LENGTH_BYTES) {
+                throw new CryptoException("Truncated segment " + index);
+            }
+            output.clear();
+            processSegment(cipher, Cipher.DECRYPT_MODE, subkey, header, index, last, current, output);
+            output.flip();
+            written += writeFully(out, output);
+            if (last) {
+                return written;
+            }
+            ByteBuffer swap = current;
+            current = next;
+            next = swap;
+            index++;
+        }
+    }
+
+    /**
+     * Computes the plaintext length of an encrypted file from its size and segment size, without decrypting.
+     *
+     * @param in the encrypted file
+     * @return the plaintext length
+     * @throws CryptoException if the header is invalid or the file is truncated
+     * @throws IOException if the file cannot be read
+     */
+    public static long plaintextLength(FileChannel in) throws CryptoException, IOException {
+        return plaintextLength(SegmentSource.of(in));
+    }
+
+    /**
+     * Same as {@link #plaintextLength(FileChannel)} on a memory-mapped file.
+     */
+    public static long plaintextLength(ByteBuffer mapped) throws CryptoException {
+        try {
+            return plaintextLength(SegmentSource.of(mapped));
+        } catch (IOException e) {
+            throw new CryptoException("Error reading mapped file: " + e.getMessage());
+        }
+    }
+
+    private static long plaintextLength(SegmentSource source) throws CryptoException, IOException {
+        return Layout.of(readHeader(source), source.size()).plaintextLength;
+    }
+
+    /**
+     * Decrypts a range of the plaintext, reading and authenticating only the segments that cover it.
+     * The segment of a plaintext offset is offset / segment size, so the segment size in the header
+     * is all the seek index needed.
+     *
+     * @param key the AES key of the file
+     * @param in the encrypted file
+     * @param offset the first plaintext byte
+     * @param length the maximum number of bytes to return
+     * @return the bytes of the range, shorter than length if the range passes the end of the file
+     * @throws CryptoException if the header is invalid or a segment of the range fails authentication
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] decryptRange(SecretKey key, FileChannel in, long offset, int length) throws CryptoException, IOException {
+        return decryptRange(key, SegmentSource.of(in), offset, length);
+    }
+
+    /**
+     * Same as {@link #decryptRange(SecretKey, FileChannel, long, int)} on a memory-mapped file:
+     * segments are decrypted straight from the mapped region.
+     */
+    public static byte[] decryptRange(SecretKey key, ByteBuffer mapped, long offset, int length) throws CryptoException {
+        try {
+            return decryptRange(key, SegmentSource.of(mapped), offset, length);
+        } catch (IOException e) {
+            throw new CryptoException("Error reading mapped file: " + e.getMessage());
+        }
+    }
+
+    private static byte[] decryptRange(SecretKey key, SegmentSource source, long offset, int length) throws CryptoException, IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length must be positive");
+        }
+        Header header = readHeader(source);
+        Layout layout = Layout.of(header, source.size());
+        long end = Math.min(layout.plaintextLength, offset + length);
+        if (offset >= end) {
+            return new byte[0];
+        }
+        SecretKey subkey = deriveSegmentKey(key, header.salt);
+        Cipher cipher = gcmCipher();
+        int encryptedSegmentSize = header.segmentSize + TAG_LENGTH_BYTES;
+        ByteBuffer[] buffers = directBuffers(encryptedSegmentSize);
+        ByteBuffer plain = buffers[1];
+
+        byte[] result = new byte[(int) (end - offset)];
+        int copied = 0;
+        for (long index = offset / header.segmentSize; copied < result.length; index++) {
+            ByteBuffer encrypted = source.segment(index, header, buffers[0]);
+            plain.clear();
+            processSegment(cipher, Cipher.DECRYPT_MODE, subkey, header, index, index == layout.segments - 1, encrypted, plain);
+            plain.flip();
+            long segmentStart = index * header.segmentSize;
+            int skip = (int) Math.max(0, offset - segmentStart);
+            int count = Math.min(plain.remaining() - skip, result.length - copied);
+            plain.position(skip);
+            plain.get(result, copied, count);
+            copied += count;
+        }
+        return result;
+    }
+
+    /**
+     * Decrypts a whole memory-mapped file to the output channel.
+     * Segments are authenticated straight from the mapped region, without being copied first.
+     *
+     * @param key the AES key of the file
+     * @param mapped the mapped encrypted file
+     * @param out the plaintext destination
+     * @return the number of plaintext bytes written
+     * @throws CryptoException if the header is invalid or a segment fails authentication
+     * @throws IOException if the channel cannot be written
+     */
+    public static long decrypt(SecretKey key, ByteBuffer mapped, WritableByteChannel out) throws CryptoException, IOException {
+        SegmentSource source = SegmentSource.of(mapped);
+        Header header = readHeader(source);
+        Layout layout = Layout.of(header, source.size());
+        SecretKey subkey = deriveSegmentKey(key, header.salt);
+        Cipher cipher = gcmCipher();
+        ByteBuffer plain = directBuffers(header.segmentSize + TAG_LENGTH_BYTES)[2];
+
+        long written = 0;
+        for (long index = 0; index < layout.segments; index++) {
+            plain.clear();
+            processSegment(cipher, Cipher.DECRYPT_MODE, subkey, header, index, index == layout.segments - 1,
+                    source.segment(index, header, null), plain);
+            plain.flip();
+            written += writeFully(out, plain);
+        }
+        return written;
+    }
+
+    private static Header readHeader(SegmentSource source) throws CryptoException, IOException {
+        if (source.size() < HEADER_LENGTH) {
+            throw new CryptoException("Encrypted file is too short to contain a header");
+        }
+        ByteBuffer headerBuffer = source.read(0, HEADER_LENGTH, ByteBuffer.allocate(HEADER_LENGTH));
+        byte[] bytes = new byte[HEADER_LENGTH];
+        headerBuffer.get(bytes);
+        return Header.parse(bytes);
+    }
+
+    /**
+     * Tells whether the given leading bytes start with the streaming header magic.
+     *
+     * @param firstBytes the first bytes of a file
+     * @return true if the bytes look like a StreamingAead header
+     */
+    public static boolean hasMagic(byte[] firstBytes) {
+        return firstBytes.length >= MAGIC.length
+                && Arrays.equals(Arrays.copyOf(firstBytes, MAGIC.length), MAGIC);
+    }
+
+    /**
+     * Encrypts or decrypts one segment.
+     */
+    static void processSegment(Cipher cipher, int mode, SecretKey subkey, Header header, long index, boolean last,
+                               ByteBuffer input, ByteBuffer output) throws CryptoException {
+        if (index > 0xFFFFFFFFL) {
+            throw new CryptoException("Too many segments in encrypted stream");
+        }
+        try {
+            cipher.init(mode, subkey, new GCMParameterSpec(TAG_LENGTH_BYTES * 8, segmentNonce(header, index, last)));
+            cipher.updateAAD(header.bytes);
+            cipher.doFinal(input, output);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Segment " + index + " failed " + (mode == Cipher.ENCRYPT_MODE ? "encryption" : "authentication") + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the nonce of a segment from the header prefix, its index and the last segment flag.
+     */
+    static byte[] segmentNonce(Header header, long index, boolean last) {
+        return ByteBuffer.allocate(NONCE_LENGTH)
+                .put(header.noncePrefix)
+                .putInt((int) index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    /**
+     * Derives the per-file segment key with HKDF-SHA256 (RFC 5869).
+     */
+    static SecretKey deriveSegmentKey(SecretKey key, byte[] salt) throws CryptoException {
+        try {
+            byte[] ikm = key.getEncoded();
+            Mac mac = CryptoPrimitives.mac("HmacSHA256");
+            mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            byte[] prk = mac.doFinal(ikm);
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            mac.update(HKDF_INFO);
+            mac.update((byte) 1);
+            byte[] okm = mac.doFinal();
+            return new SecretKeySpec(okm, 0, ikm.length, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Error deriving segment key: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets three cleared direct buffers of the given capacity.
+     * Buffers up to 1 MiB are kept by the current thread and reused; larger segment sizes get fresh buffers.
+     */
+    static ByteBuffer[] directBuffers(int capacity) {
+        if (capacity > MAX_CACHED_BUFFER) {
+            return new ByteBuffer[] {ByteBuffer.allocateDirect(capacity), ByteBuffer.allocateDirect(capacity), ByteBuffer.allocateDirect(capacity)};
+        }
+        ByteBuffer[] buffers = BUFFERS.get();
+        ByteBuffer[] result = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == null || buffers[i].capacity() < capacity) {
+                buffers[i] = ByteBuffer.allocateDirect(Math.max(capacity, DEFAULT_SEGMENT_SIZE + TAG_LENGTH_BYTES));
+            }
+            buffers[i].clear().limit(capacity);
+            result[i] = buffers[i];
+        }
+        return result;
+    }
+
+    /**
+     * Gets the AES-GCM Cipher of the current thread.
+     */
+    static Cipher gcmCipher() throws CryptoException {
+        return CryptoPrimitives.cipher("AES/GCM/NoPadding");
+    }
+
+    /**
+     * Reads until the buffer is full or the channel is exhausted.
+     *
+     * @return the number of bytes read
+     */
+    static int readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    static int writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            total += out.write(buffer);
+        }
+        return total;
+    }
+
+    /**
+     * Random access to the bytes of an encrypted file: a FileChannel read into a scratch buffer,
+     * or a slice of a memory-mapped region (no copy).
+     */
+    private abstract static class SegmentSource {
+        abstract long size() throws IOException;
+
+        abstract ByteBuffer read(long position, int length, ByteBuffer scratch) throws IOException;
+
+        ByteBuffer segment(long index, Header header, ByteBuffer scratch) throws CryptoException, IOException {
+            long encryptedSegmentSize = header.segmentSize + (long) TAG_LENGTH_BYTES;
+            long position = HEADER_LENGTH + index * encryptedSegmentSize;
+            int length = (int) Math.min(encryptedSegmentSize, size() - position);
+            if (length < TAG_LENGTH_BYTES) {
+                throw new CryptoException("Truncated segment " + index);
+            }
+            return read(position, length, scratch);
+        }
+
+        static SegmentSource of(FileChannel channel) {
+            return new SegmentSource() {
+                long size() throws IOException {
+                    return channel.size();
+                }
+
+                ByteBuffer read(long position, int length, ByteBuffer scratch) throws IOException {
+                    scratch.clear().limit(length);
+                    while (scratch.hasRemaining()) {
+                        if (channel.read(scratch, position + scratch.position()) < 0) {
+                            throw new IOException("Unexpected end of file at " + (position + scratch.position()));
+                        }
+                    }
+                    return scratch.flip();
+                }
+            };
+        }
+
+        static SegmentSource of(ByteBuffer mapped) {
+            return new SegmentSource() {
+                long size() {
+                    return mapped.capacity();
+                }
+
+                ByteBuffer read(long position, int length, ByteBuffer scratch) {
+                    return mapped.duplicate().position((int) position).limit((int) position + length);
+                }
+            };
+        }
+    }
+
+    /**
+     * Segment count and plaintext length of an encrypted file, derived from its size.
+     */
+    static final class Layout {
+        final long segments;
+        final long plaintextLength;
+
+        private Layout(long segments, long plaintextLength) {
+            this.segments = segments;
+            this.plaintextLength = plaintextLength;
+        }
+
+        static Layout of(Header header, long fileSize) throws CryptoException {
+            long encryptedSegmentSize = header.segmentSize + (long) TAG_LENGTH_BYTES;
+            long body = fileSize - HEADER_LENGTH;
+            long segments = Math.max(1, (body + encryptedSegmentSize - 1) / encryptedSegmentSize);
+            long lastLength = body - (segments - 1) * encryptedSegmentSize;
+            if (lastLength < TAG_LENGTH_BYTES) {
+                throw new CryptoException("Truncated segment " + (segments - 1));
+            }
+            return new Layout(segments, (segments - 1) * header.segmentSize + lastLength - TAG_LENGTH_BYTES);
+        }
+    }
+
+    /**
+     * Parsed stream header. {@code bytes} is the exact serialized form, used as AAD.
+     */
+    static final class Header {
+        final int segmentSize;
+        final byte[] salt;
+        final byte[] noncePrefix;
+        final byte[] bytes;
+
+        private Header(int segmentSize, byte[] salt, byte[] noncePrefix, byte[] bytes) {
+            this.segmentSize = segmentSize;
+            this.salt = salt;
+            this.noncePrefix = noncePrefix;
+            this.bytes = bytes;
+        }
+
+        static Header create(int segmentSize) {
+            byte[] salt = CryptoService.getRandomNonce(SALT_LENGTH);
+            byte[] noncePrefix = CryptoService.getRandomNonce(NONCE_PREFIX_LENGTH);
+            byte[] bytes = ByteBuffer.allocate(HEADER_LENGTH)
+                    .put(MAGIC)
+                    .put(VERSION)
+                    .putInt(segmentSize)
+                    .put(salt)
+                    .put(noncePrefix)
+                    .array();
+            return new Header(segmentSize, salt, noncePrefix, bytes);
+        }
+
+        static Header parse(byte[] bytes) throws CryptoException {
+            if (bytes.length < HEADER_LENGTH || !hasMagic(bytes)) {
+                throw new CryptoException("Not a segmented encrypted stream");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, HEADER_LENGTH);
+            buffer.position(MAGIC.length);
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new CryptoException("Unsupported encrypted stream version: " + version);
+            }
+            int segmentSize = buffer.getInt();
+            if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new CryptoException("Invalid segment size in header: " + segmentSize);
+            }
+            byte[] salt = new byte[SALT_LENGTH];
+            buffer.get(salt);
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            buffer.get(noncePrefix);
+            return new Header(segmentSize, salt, noncePrefix, Arrays.copyOf(bytes, HEADER_LENGTH));
+        }
+    }
+}
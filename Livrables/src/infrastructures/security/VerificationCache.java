@@ -0,0 +1,250 @@
+package infrastructures.security;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which files were found to match their integrity entry, and the size, modification time
+ * and file key (inode) they had then, so that a file whose attributes did not change since is
+ * accepted without hashing it again.
+ *
+ * Attributes can hide a change, so the shortcut is bounded (paranoia level):
+ * <ul>
+ *   <li>a file is hashed again after {@code rehashEvery} accepted checks, or once {@code rehashMillis}
+ *       have passed since it was last hashed;</li>
+ *   <li>a file modified less than {@value #RACY_WINDOW_MILLIS} ms before it was verified may have been
+ *       written again within the same timestamp tick: it is hashed on every check until a verification
+ *       happens after that window.</li>
+ * </ul>
+ * Setting {@code rehashEvery} to 0 disables the shortcut.
+ *
+ * The cache is saved beside the integrity log every {@value #SAVE_INTERVAL} changes and when the JVM exits,
+ * so a restart does not hash every file again.
+ */
+public class VerificationCache {
+    public static final int DEFAULT_REHASH_EVERY = 100;
+    public static final long DEFAULT_REHASH_MILLIS = TimeUnit.MINUTES.toMillis(60);
+    static final long RACY_WINDOW_MILLIS = 2_000;
+    private static final int SAVE_INTERVAL = 32;
+    private static final int MAGIC = 0x53464D56; // "SFMV"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final int rehashEvery;
+    private final long rehashMillis;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int unsaved;
+    private long hits;
+    private long misses;
+    private long paranoid;
+    private long racy;
+
+    /**
+     * Loads the cache saved in the given file, if any.
+     *
+     * @param file where the cache is saved
+     * @param rehashEvery the number of checks accepted from attributes before the file is hashed again, 0 to always hash
+     * @param rehashMillis the time after which a file is hashed again, whatever its attributes
+     */
+    public VerificationCache(Path file, int rehashEvery, long rehashMillis) {
+        if (rehashEvery < 0 || rehashMillis < 0) {
+            throw new IllegalArgumentException("Re-hash limits must not be negative");
+        }
+        this.file = file;
+        this.rehashEvery = rehashEvery;
+        this.rehashMillis = rehashMillis;
+        load();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::save, "verification-cache-save"));
+    }
+
+    /**
+     * Checks whether a file can be accepted without hashing it.
+     *
+     * @param key the normalized path of the file
+     * @param attributes the current attributes of the file
+     * @param expectedHash the hash of its last integrity entry
+     * @return true if the file was verified with these attributes and this hash and no re-hash is due
+     */
+    public synchronized boolean isVerified(String key, BasicFileAttributes attributes, String expectedHash) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.matches(attributes, expectedHash)) {
+            misses++;
+            return false;
+        }
+        if (entry.lastModified >= TimeUnit.MILLISECONDS.toNanos(entry.verifiedAt - RACY_WINDOW_MILLIS)) {
+            racy++;
+            return false;
+        }
+        if (entry.accepted >= rehashEvery || System.currentTimeMillis() - entry.verifiedAt >= rehashMillis) {
+            paranoid++;
+            return false;
+        }
+        entry.accepted++;
+        hits++;
+        return true;
+    }
+
+    /**
+     * Checks whether a file still has the attributes recorded with the given hash, without the racy and
+     * re-hash limits of {@link #isVerified}: meant for a file that raised a change event, to tell the
+     * application's own writes (recorded right after they happen) from changes made behind its back.
+     *
+     * @param key the normalized path of the file
+     * @param attributes the current attributes of the file
+     * @param expectedHash the hash of its last integrity entry
+     * @return true if the size, modification time and file key are those recorded with this hash
+     */
+    public synchronized boolean isRecorded(String key, BasicFileAttributes attributes, String expectedHash) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.matches(attributes, expectedHash);
+    }
+
+    /**
+     * Records that a file matches the given hash, as read or as just written.
+     *
+     * @param key the normalized path of the file
+     * @param attributes the attributes of the file when its hash was computed
+     * @param hash the hash of the file
+     */
+    public synchronized void record(String key, BasicFileAttributes attributes, String hash) {
+        entries.put(key, new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                Objects.toString(attributes.fileKey(), ""), hash, System.currentTimeMillis(), 0));
+        changed();
+    }
+
+    /**
+     * Forgets a file, to be called when it is deleted or its history cleared.
+     *
+     * @param key the normalized path of the file
+     */
+    public synchronized void invalidate(String key) {
+        if (entries.remove(key) != null) {
+            changed();
+        }
+    }
+
+    /**
+     * Forgets every file.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        changed();
+    }
+
+    private void changed() {
+        if (++unsaved >= SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            Map<String, Entry> loaded = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                loaded.put(key, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF(), in.readLong(), in.readInt()));
+            }
+            entries.putAll(loaded);
+        } catch (IOException e) {
+            // damaged or truncated: files are simply hashed again
+            System.err.println("Cache de vérification ignoré : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the cache to disk (temporary file then atomic move). A failure only costs hashing again after a restart.
+     */
+    public synchronized void save() {
+        if (unsaved == 0) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.fileKey);
+                out.writeUTF(entry.hash);
+                out.writeLong(entry.verifiedAt);
+                out.writeInt(entry.accepted);
+            }
+        } catch (IOException e) {
+            System.err.println("Cache de vérification non sauvegardé : " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            unsaved = 0;
+        } catch (IOException e) {
+            System.err.println("Cache de vérification non sauvegardé : " + e.getMessage());
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses + racy + paranoid;
+    }
+
+    /**
+     * Formats the cache counters for display.
+     *
+     * @return a one-line summary of the cache state
+     */
+    public synchronized String stats() {
+        long lookups = hits + misses + racy + paranoid;
+        double hitRate = lookups == 0 ? 0.0 : (100.0 * hits) / lookups;
+        return String.format("files=%d hits=%d misses=%d racy=%d rehash=%d hitRate=%.1f%% (rehash every %d checks or %d min)",
+                entries.size(), hits, misses, racy, paranoid, hitRate, rehashEvery, TimeUnit.MILLISECONDS.toMinutes(rehashMillis));
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String fileKey;
+        private final String hash;
+        private final long verifiedAt;
+        private int accepted;
+
+        private Entry(long size, long lastModified, String fileKey, String hash, long verifiedAt, int accepted) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+            this.verifiedAt = verifiedAt;
+            this.accepted = accepted;
+        }
+
+        private boolean matches(BasicFileAttributes attributes, String expectedHash) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && fileKey.equals(Objects.toString(attributes.fileKey(), ""))
+                    && hash.equals(expectedHash);
+        }
+    }
+}